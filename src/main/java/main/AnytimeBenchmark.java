@@ -0,0 +1,127 @@
+package main;
+
+import java.util.*;
+
+import static main.Utils.*;
+
+/*
+    Rank agreement of deadline-bounded prioritization (Classifier.prioritize(phenotypes, maxGenes, deadline)) with
+    the exact prioritization for a list of time budgets, on patients of a test file (-t file format). For every
+    budget the table holds:
+        complete %    patients answered with all their phenotypes
+        phenotypes %  scored phenotypes of all phenotypes
+        agreement %   top 10 genes shared with the exact top 10 genes
+        top 1/10 %    patients with the diagnosed gene among top 1/10 genes
+        mean/max ms   latency of prioritization
+        missed %      patients answered after the deadline
+    The first row (budget "exact") is the exact prioritization. Patients are prioritized once before measuring, so
+    the time estimates of the classifier and the JIT compiler are warmed up.
+ */
+public class AnytimeBenchmark
+{
+    private static final int AGREEMENT_GENES = 10;
+
+    private final Classifier classifier;
+    private final double[]   budgets; // milliseconds
+
+    public AnytimeBenchmark(final Classifier classifier, final double[] budgets) {
+        for (final double budget : budgets)
+            if (budget < 0)
+                throw new RuntimeException("time budgets must not be negative");
+
+        this.classifier = classifier;
+        this.budgets    = budgets.clone();
+    }
+
+    private static class Row
+    {
+        private int  patients   = 0;
+        private int  complete   = 0;
+        private int  missed     = 0;
+        private long phenotypes = 0;
+        private long scored     = 0;
+        private long agreement  = 0;
+        private int  top1       = 0;
+        private int  top10      = 0;
+        private long nanos      = 0;
+        private long maxNanos   = 0;
+
+        void add(final Prioritization result, final Prioritization exact, final int geneIndex, final long latency, final boolean late) {
+            ++patients;
+            complete   += result.partial() ? 0 : 1;
+            missed     += late ? 1 : 0;
+            phenotypes += exact.phenotypeCount();
+            scored     += result.phenotypeCount();
+            nanos      += latency;
+            maxNanos    = Math.max(maxNanos, latency);
+
+            final Set<Integer> exactTop = new HashSet<>();
+            for (int rank = 0; rank < Math.min(AGREEMENT_GENES, exact.size()); ++rank)
+                exactTop.add(exact.geneIndex(rank));
+            for (int rank = 0; rank < Math.min(AGREEMENT_GENES, result.size()); ++rank)
+                agreement += exactTop.contains(result.geneIndex(rank)) ? 1 : 0;
+
+            final int rank = geneIndex < 0 ? -1 : result.rankOfGeneIndex(geneIndex);
+            top1  += rank == 0 ? 1 : 0;
+            top10 += rank >= 0 && rank < 10 ? 1 : 0;
+        }
+
+        String format(final String budget) {
+            return String.format(Locale.US, "%s\t%.2f\t%.2f\t%.2f\t%.2f\t%.2f\t%.3f\t%.3f\t%.2f", budget,
+                                 percent(complete, patients), percent(scored, phenotypes), percent(agreement, (long) AGREEMENT_GENES * patients),
+                                 percent(top1, patients), percent(top10, patients),
+                                 patients == 0 ? .0 : nanos / 1e6 / patients, maxNanos / 1e6, percent(missed, patients));
+        }
+
+        private static double percent(final long count, final long total) {
+            return total == 0 ? .0 : 100. * count / total;
+        }
+    }
+
+    // writes the table to resultFileName and returns it
+    public String run(final String testFileName, final String resultFileName, final Integer maxGenes) {
+        final List<Set<String>> patients = new ArrayList<>();
+        final List<Integer>     genes    = new ArrayList<>();
+
+        fileLineReader(testFileName, (lineNo, row) -> {
+            final String[] columns = row.split("\\t");
+            if (columns.length < 3)
+                throw new RuntimeException("Illegal number of columns in line " + lineNo + " of file " + testFileName);
+
+            patients.add(new HashSet<>(Arrays.asList(columns).subList(2, columns.length)));
+            genes.add(classifier.geneIndex(classifier.context().lexicon().entrez(columns[1])));
+        });
+
+        // warm-up of time estimates and JIT compiler
+        final List<Prioritization> exact = new ArrayList<>();
+        for (final Set<String> phenotypes : patients)
+            exact.add(classifier.prioritize(phenotypes, maxGenes));
+        for (final Set<String> phenotypes : patients)
+            classifier.prioritize(phenotypes, maxGenes, System.nanoTime());
+
+        final StringBuilder table = new StringBuilder("budget ms\tcomplete %\tphenotypes %\tagreement %\ttop 1 %\ttop 10 %\tmean ms\tmax ms\tmissed %\n");
+
+        final Row exactRow = new Row();
+        for (int p = 0; p < patients.size(); ++p) {
+            final long           start  = System.nanoTime();
+            final Prioritization result = classifier.prioritize(patients.get(p), maxGenes);
+            exactRow.add(result, exact.get(p), genes.get(p), System.nanoTime() - start, false);
+        }
+        table.append(exactRow.format("exact")).append('\n');
+
+        for (final double budget : budgets) {
+            final Row row = new Row();
+            for (int p = 0; p < patients.size(); ++p) {
+                final long           start    = System.nanoTime();
+                final long           deadline = start + (long) (budget * 1e6);
+                final Prioritization result   = classifier.prioritize(patients.get(p), maxGenes, deadline);
+                final long           end      = System.nanoTime();
+                row.add(result, exact.get(p), genes.get(p), end - start, end - deadline > 0);
+            }
+            table.append(row.format(String.valueOf(budget))).append('\n');
+        }
+
+        fileWriter(resultFileName, f -> f.write(table.toString()));
+        return table.toString();
+    }
+}
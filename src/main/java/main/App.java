@@ -1,6 +1,11 @@
 package main;
 
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Files;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
 /*
 
 parameters for testing on CADA data
@@ -34,31 +39,167 @@ public class App
             return;
         }
 
-        // let's get this baby off the ground
-        GeneLexicon.load("./data/Homo_sapiens.gene_info");
+        // in streaming and worker mode standard output carries only results
+        final PrintStream out = System.out;
+        if (params.stream() || Params.WORKER.equals(params.command()))
+            System.setOut(System.err);
 
-        final Classifier classifier = new Classifier(params.learningFiles());
+        // model algebra needs neither the ontology nor the gene lexicon
+        if (Params.MERGE.equals(params.command()) || Params.SUBTRACT.equals(params.command())) {
+            if (Params.MERGE.equals(params.command()))
+                ModelSnapshot.merge(params.modelFiles().get(0), params.modelFiles().get(1), params.outputFile());
+            else
+                ModelSnapshot.subtract(params.modelFiles().get(0), params.modelFiles().get(1), params.outputFile());
+
+            System.out.println("Model saved to file: " + params.outputFile());
+            return;
+        }
+
+        // POI is loaded only for Excel reports, in parallel with loading of resources and training
+        final String                  reportFile  = params.outputFile() == null ? "./WA.xlsx" : params.outputFile();
+        final boolean                 excelReport = !params.phenotypes().isEmpty() && !reportFile.toLowerCase().endsWith(".tsv");
+        final CompletableFuture<Void> poi         = excelReport || params.heatmaps() ? CompletableFuture.runAsync(ExcelGenePrioritizationReport::warmUp)
+                                                                : CompletableFuture.completedFuture(null);
+
+        // let's get this baby off the ground: gene lexicon and HPO ontology are loaded concurrently
+        ModelContext.shared();
+
+        // -p file of an index of --patient-dir is read through a prioritization input file of its patients
+        final String prioritizationFile = prioritizationFile(params);
+
+        if (Params.CONVERT.equals(params.command())) {
+            ResultFile.toTsv(params.resultFile(), params.outputFile(), ModelContext.shared().lexicon(), params.geneIdType());
+            System.out.println("Results saved to file: " + params.outputFile());
+            return;
+        }
+
+        if (Params.BENCH.equals(params.command())) {
+            System.out.println(new Benchmark(params).run());
+            return;
+        }
+
+        if (Params.WORKER.equals(params.command())) {
+            new ShardWorker(new Classifier(ModelContext.shared(), params.learningFiles(), params.shard(), countsBuilder(params))).serve(params.port(), out);
+            return;
+        }
+
+        if (params.shards() > 1) {
+            try (final ShardCoordinator coordinator = ShardCoordinator.spawn(params.shards(), params.learningFiles());
+                 final ResultCache      cache       = cache(params)) {
+                if (params.stream())
+                    new StreamPrioritizer(cache == null ? coordinator : cache.ranker(coordinator), params.max(), params.geneIdType(), params.outputFormat()).run(System.in, out);
+                else
+                    coordinator.prioritize(prioritizationFile, params.outputFile(), params.max(), params.geneIdType());
+
+                if (cache != null)
+                    System.err.println(cache.stats());
+            }
+            return;
+        }
+
+        final Classifier   classifier = classifier(params);
+        final List<String> panel      = params.panelFile() == null ? null : Utils.fileTokens(params.panelFile());
+        classifier.setParallelThreshold(params.parallelThreshold());
+
+        if (params.stream() && params.watch() != null) {
+            try (final ReloadableModel model = new ReloadableModel(classifier, ModelContext.DEFAULT_HPO_FILE, ModelContext.DEFAULT_GENE_INFO_FILE,
+                                                                   params.modelFiles(), params.learningFiles())) {
+                model.watch(1000L * params.watch(), (version, error) -> System.err.println(error == null ? "Reloaded " + version
+                                                                                                       : "Reload failed, model is not changed: " + error.getMessage()));
+
+                // every patient is answered by the model current when the patient is read
+                new StreamPrioritizer(model.ranker(panel), params.max(), params.geneIdType(), params.outputFormat()).run(System.in, out);
+            }
+            return;
+        }
+
+        if (params.stream()) {
+            try (final ResultCache cache = cache(params)) {
+                final GeneRanker ranker = classifier.ranker(panel);
+                new StreamPrioritizer(cache == null ? ranker : cache.ranker(ranker), params.max(), params.geneIdType(), params.outputFormat()).run(System.in, out);
+
+                if (cache != null)
+                    System.err.println(cache.stats());
+            }
+            return;
+        }
+
+        if (!params.phenotypes().isEmpty() && params.disorderAggregation() != null) {
+            final DisorderIndex          index          = new DisorderIndex(classifier, params.disorderFile());
+            final DisorderPrioritization prioritization = index.prioritize(classifier.prioritize(new HashSet<>(params.phenotypes())),
+                                                                           params.max(), params.disorderAggregation());
+            if (excelReport) {
+                poi.join();
+                new ExcelGenePrioritizationReport().ExcelReport(prioritization, params.max(), params.geneIdType(), reportFile);
+            }
+            else {
+                new TsvGenePrioritizationReport().tsvReport(prioritization, params.max(), params.geneIdType(), reportFile);
+            }
+
+            System.out.println("Disorder prioritization results saved to file: " + reportFile);
+            return;
+        }
 
         if (!params.phenotypes().isEmpty()) {
             final Set<String> phenotypes = new HashSet<>(params.phenotypes());
-            final List<GenePlausibility> genePlausibilities = classifier.prioritize(phenotypes);
-
-            final ExcelGenePrioritizationReport report = new ExcelGenePrioritizationReport();
+            final Prioritization prioritization = panel == null ? classifier.prioritize(phenotypes, params.max())
+                                                                : classifier.prioritize(phenotypes, params.max(), panel);
 
-            final String outputFile = params.outputFile() == null ? "./WA.xlsx" : params.outputFile();
-            if (outputFile.toLowerCase().endsWith(".tsv")) {
-                report.tsvReport(genePlausibilities, phenotypes, params.max(), params.geneIdType(), outputFile);
+            if (excelReport) {
+                poi.join();
+                new ExcelGenePrioritizationReport().ExcelReport(prioritization, params.max(), params.geneIdType(), reportFile);
             }
             else {
-                report.ExcelReport(genePlausibilities, phenotypes, params.max(), params.geneIdType(), outputFile);
+                new TsvGenePrioritizationReport().tsvReport(prioritization, params.max(), params.geneIdType(), reportFile);
             }
 
-            System.out.println("Gene prioritization results saved to file: " + outputFile);
+            System.out.println("Gene prioritization results saved to file: " + reportFile);
             return;
         }
 
-        if (params.prioritizationFile() != null) {
-            classifier.prioritize(params.prioritizationFile(), params.outputFile(), params.max(), params.geneIdType());
+        if (prioritizationFile != null && params.heatmaps()) {
+            final int heatmaps = new ExcelGenePrioritizationReport().ExcelReports(classifier, prioritizationFile, params.outputFile(),
+                                                                                  params.max(), params.geneIdType(), panel,
+                                                                                  Runtime.getRuntime().availableProcessors());
+            System.out.println(heatmaps + " heatmaps saved to directory: " + params.outputFile());
+            return;
+        }
+
+        if (prioritizationFile != null && ResultFile.BIN.equals(params.outputFormat())) {
+            classifier.prioritize(prioritizationFile, params.outputFile(), params.max(), panel, params.evidence());
+            return;
+        }
+
+        if (prioritizationFile != null) {
+            try (final ResultCache cache = cache(params)) {
+                classifier.prioritize(prioritizationFile, params.outputFile(), params.max(), params.geneIdType(), panel, cache);
+
+                if (cache != null)
+                    System.out.println(cache.stats());
+            }
+            return;
+        }
+
+        if (Params.SWEEP.equals(params.command())) {
+            new Sweep(classifier, params.clips(), params.smoothings(), params.priors()).test(params.testFile(), params.outputFile(), params.max());
+            System.out.println("Sweep results saved to directory: " + params.outputFile());
+            return;
+        }
+
+        if (Params.ANYTIME.equals(params.command())) {
+            System.out.println(new AnytimeBenchmark(classifier, params.budgets()).run(params.testFile(), params.outputFile(), params.max()));
+            System.out.println("Anytime benchmark results saved to file: " + params.outputFile());
+            return;
+        }
+
+        if (Params.TRAIN.equals(params.command())) {
+            ModelSnapshot.write(classifier.context(), classifier.counts(), params.outputFile());
+            System.out.println("Model saved to file: " + params.outputFile());
+            return;
+        }
+
+        if (Params.PRUNE.equals(params.command())) {
+            new ModelPruner(params.minCount(), params.minDepth(), params.minGeneCases()).compact(classifier, params.outputFile(), params.testFile());
             return;
         }
 
@@ -66,4 +207,97 @@ public class App
             classifier.test(params.testFile(), params.outputFile(), params.max(), params.showIntermediateResultsInfo());
         }
     }
+
+    // model of --model snapshots, learning files and patients of --learning-index files
+    private static Classifier classifier(final Params params) {
+        final ModelContext context = ModelContext.shared();
+        if (params.cohort() != null)
+            return cohort(context, params);
+
+        if (params.modelFiles().isEmpty() && params.learningIndexFiles().isEmpty())
+            return new Classifier(context, params.learningFiles(), GeneShard.ALL, countsBuilder(params));
+
+        final CountTable.Builder table   = params.modelFiles().isEmpty() ? null : new CountTable.Builder();
+        final Counts.Builder     builder = table == null ? countsBuilder(params) : table;
+        for (final String modelFile : new LinkedHashSet<>(params.modelFiles()))
+            ModelSnapshot.read(context, modelFile, table);
+        for (final String learningFile : new LinkedHashSet<>(params.learningFiles()))
+            Classifier.loadFile(context, learningFile, GeneShard.ALL, builder);
+
+        loadPatients(context, params, builder);
+
+        return new Classifier(context, builder.build());
+    }
+
+    // learning cases of patients of --learning-index files
+    private static void loadPatients(final ModelContext context, final Params params, final Counts.Builder builder) {
+        if (params.learningIndexFiles().isEmpty())
+            return;
+
+        final PatientDirectory directory = new PatientDirectory(params.patientDir(), params.ingestThreads(), params.skipInvalid());
+        for (final String indexFile : new LinkedHashSet<>(params.learningIndexFiles()))
+            System.err.println(Classifier.loadPatients(context, directory, indexFile, GeneShard.ALL, builder));
+    }
+
+    // -p file, or a temporary prioritization input file of patients of the -p index file of --patient-dir
+    private static String prioritizationFile(final Params params) {
+        if (params.prioritizationFile() == null || params.patientDir() == null)
+            return params.prioritizationFile();
+
+        try {
+            final File file = Files.createTempFile("wa-patients", ".tsv").toFile();
+            file.deleteOnExit();
+
+            System.err.println(new PatientDirectory(params.patientDir(), params.ingestThreads(), params.skipInvalid()).toPrioritizationFile(params.prioritizationFile(), file.getPath()));
+            return file.getPath();
+        }
+        catch (IOException e) {
+            throw new RuntimeException("Error creating temporary patient file: " + e.getMessage());
+        }
+    }
+
+    // model of learning file and --learning-index cases of --cohort filter
+    private static Classifier cohort(final ModelContext context, final Params params) {
+        final CaseIndex.Builder builder = new CaseIndex.Builder();
+        for (final String learningFile : new LinkedHashSet<>(params.learningFiles()))
+            Classifier.loadFile(context, learningFile, GeneShard.ALL, builder);
+        loadPatients(context, params, builder);
+
+        final CaseIndex index = builder.index();
+        if (params.caseAttributesFile() != null)
+            System.out.println("Attributes of " + index.addAttributes(params.caseAttributesFile()) + " cases loaded from file: " + params.caseAttributesFile());
+
+        final long       start  = System.nanoTime();
+        final CaseBitmap cohort = index.select(params.cohort());
+        final Classifier result = new Classifier(context, index.counts(cohort));
+        System.out.println(String.format(Locale.US, "Cohort %s: %d of %d cases, %d genes (set up in %.1f ms)", params.cohort(), cohort.cardinality(),
+                                         index.cases(), result.counts().geneCount(), (System.nanoTime() - start) / 1e6));
+
+        return result;
+    }
+
+    /*
+        Result cache of --cache file keyed by the model inputs; null without --cache. Patients of --learning-index
+        files are not part of the key (their per-patient files are not hashed), so such models are not cached.
+     */
+    private static ResultCache cache(final Params params) {
+        if (params.cacheFile() == null)
+            return null;
+
+        if (!params.learningIndexFiles().isEmpty())
+            throw new RuntimeException("--cache can not be used with models of --learning-index patients");
+
+        final List<String> inputs = new ArrayList<>(params.learningFiles());
+        inputs.addAll(params.modelFiles());
+        inputs.addAll(Arrays.asList(ModelContext.DEFAULT_HPO_FILE, ModelContext.DEFAULT_GENE_INFO_FILE, params.panelFile(), params.caseAttributesFile()));
+
+        return new ResultCache(params.cacheFile(), params.cacheSize(),
+                               ResultCache.fingerprint(inputs, params.panelFile() == null ? null : "panel", params.cohort()));
+    }
+
+    // on-heap counts unless --count-store directory is given
+    private static Counts.Builder countsBuilder(final Params params) {
+        return params.countStore() == null ? new CountTable.Builder()
+                                           : new DiskCountStore.Builder(params.countStore(), params.spillEntries());
+    }
 }
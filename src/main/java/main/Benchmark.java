@@ -0,0 +1,137 @@
+package main;
+
+import java.io.File;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.util.*;
+
+import static main.Utils.*;
+
+/*
+    End-to-end scaling benchmark on a synthetic corpus (see SyntheticCorpus): corpus generation, training,
+    prioritization (-p) and testing (-t). For every stage wall time, throughput, peak heap and GC time are
+    reported as JSON on standard output and in file bench.json of the benchmark directory.
+ */
+public class Benchmark
+{
+    private final Params params;
+    private final String directory;
+
+    public Benchmark(final Params params) {
+        this.params    = params;
+        this.directory = params.outputFile() == null ? "./bench" : params.outputFile();
+    }
+
+    public String run() {
+        final String trainFile       = directory + File.separator + "train.tsv";
+        final String testFile        = directory + File.separator + "test.tsv";
+        final String patientsFile    = directory + File.separator + "patients.tsv";
+        final String prioritizedFile = directory + File.separator + "prioritized.tsv";
+
+        final Map<String, Stage> stages = new LinkedHashMap<>();
+
+        final Stage generate = stage(stages, "generate");
+        final SyntheticCorpus corpus = new SyntheticCorpus(ModelContext.shared().hpo(), GeneLexicon.entrezIds(),
+                                                           params.genes(), params.zipf(), params.seed());
+        corpus.writeCases(trainFile, "Case:", params.cases(), params.seed() + 1);
+        corpus.writeCases(testFile, "Patient:", params.patients(), params.seed() + 2);
+        SyntheticCorpus.writePatients(testFile, patientsFile);
+        generate.end(params.cases() + params.patients());
+
+        final Stage train = stage(stages, "train");
+        final Classifier classifier = new Classifier(Collections.singletonList(trainFile));
+        train.end(params.cases());
+
+        final Stage prioritize = stage(stages, "prioritize");
+        classifier.prioritize(patientsFile, prioritizedFile, params.max(), "E");
+        prioritize.end(params.patients());
+
+        final Stage test = stage(stages, "test");
+        final Map<Integer, Integer> freq = classifier.test(testFile, false);
+        test.end(params.patients());
+
+        final StringBuilder json = new StringBuilder();
+        json.append("{\n");
+        json.append("  \"cases\": ").append(params.cases()).append(",\n");
+        json.append("  \"patients\": ").append(params.patients()).append(",\n");
+        json.append("  \"genes\": ").append(corpus.geneCount()).append(",\n");
+        json.append("  \"modelGenes\": ").append(classifier.counts().geneCount()).append(",\n");
+        json.append("  \"countEntries\": ").append(classifier.counts().entries()).append(",\n");
+        json.append("  \"zipf\": ").append(params.zipf()).append(",\n");
+        json.append("  \"seed\": ").append(params.seed()).append(",\n");
+        json.append("  \"top1\": ").append(format(Classifier.top(1, freq))).append(",\n");
+        json.append("  \"top10\": ").append(format(Classifier.top(10, freq))).append(",\n");
+        json.append("  \"stages\": {\n");
+
+        int i = 0;
+        for (final Map.Entry<String, Stage> stage : stages.entrySet()) {
+            json.append("    ").append(jsonString(stage.getKey())).append(": ").append(stage.getValue().toJson());
+            json.append(++i < stages.size() ? ",\n" : "\n");
+        }
+
+        json.append("  }\n");
+        json.append("}");
+
+        fileWriter(directory + File.separator + "bench.json", f -> f.write(json.toString()));
+        return json.toString();
+    }
+
+    private static Stage stage(final Map<String, Stage> stages, final String name) {
+        final Stage result = new Stage();
+        stages.put(name, result);
+        return result;
+    }
+
+    private static String format(final double value) {
+        return String.format(Locale.US, "%.3f", value);
+    }
+
+    private static class Stage
+    {
+        private final long startTime;
+        private final long startGcTime;
+        private double     wallTime;
+        private double     gcTime;
+        private long       peakHeap;
+        private int        items;
+
+        Stage() {
+            System.gc();
+            for (final MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans())
+                if (pool.getType() == MemoryType.HEAP)
+                    pool.resetPeakUsage();
+
+            startGcTime = gcTime();
+            startTime   = System.nanoTime();
+        }
+
+        void end(final int items) {
+            wallTime   = (System.nanoTime() - startTime) / 1e9;
+            gcTime     = (gcTime() - startGcTime) / 1e3;
+            this.items = items;
+
+            // sum of per pool peaks; an upper bound of the real peak heap usage
+            peakHeap = 0;
+            for (final MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans())
+                if (pool.getType() == MemoryType.HEAP && pool.getPeakUsage() != null)
+                    peakHeap += pool.getPeakUsage().getUsed();
+        }
+
+        String toJson() {
+            return "{\"wallSeconds\": " + format(wallTime) +
+                   ", \"itemsPerSecond\": " + format(wallTime == .0 ? .0 : items / wallTime) +
+                   ", \"peakHeapMB\": " + format(peakHeap / (1024. * 1024.)) +
+                   ", \"gcSeconds\": " + format(gcTime) + "}";
+        }
+
+        private static long gcTime() {
+            long result = 0;
+            for (final GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans())
+                result += Math.max(0, gc.getCollectionTime());
+
+            return result;
+        }
+    }
+}
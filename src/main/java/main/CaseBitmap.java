@@ -0,0 +1,356 @@
+package main;
+
+import java.util.Arrays;
+import java.util.function.IntConsumer;
+
+/*
+    Immutable compressed set of case ids (non-negative ints) in the style of Roaring bitmaps: ids are split by their
+    high 16 bits into chunks and every chunk is kept as the cheaper of two containers:
+        array  - sorted low 16 bits (char[]) of at most ARRAY_MAX ids
+        bitmap - 65536 bits (long[1024]) of a dense chunk
+    Intersection, union and difference work chunk by chunk on containers; cardinality of an intersection is counted
+    without building it.
+ */
+public final class CaseBitmap
+{
+    private static final int ARRAY_MAX = 4096;
+    private static final int WORDS     = 1024;
+
+    public static final CaseBitmap EMPTY = new CaseBitmap(new char[0], new Object[0]);
+
+    private final char[]   keys;       // high 16 bits of chunks in ascending order
+    private final Object[] containers; // char[] (array container) or long[] (bitmap container), parallel to keys
+    private final int      cardinality;
+
+    private CaseBitmap(final char[] keys, final Object[] containers) {
+        this.keys       = keys;
+        this.containers = containers;
+
+        int result = 0;
+        for (final Object container : containers)
+            result += cardinality(container);
+        cardinality = result;
+    }
+
+    // ids [0, n)
+    public static CaseBitmap range(final int n) {
+        final Builder builder = new Builder();
+        for (int id = 0; id < n; ++id)
+            builder.add(id);
+
+        return builder.build();
+    }
+
+    public int cardinality() { return cardinality; }
+
+    public boolean isEmpty() { return cardinality == 0; }
+
+    public boolean contains(final int id) {
+        final int k = Arrays.binarySearch(keys, (char) (id >>> 16));
+        return k >= 0 && contains(containers[k], (char) id);
+    }
+
+    // ids in ascending order
+    public void forEach(final IntConsumer consumer) {
+        for (int k = 0; k < keys.length; ++k) {
+            final int high = keys[k] << 16;
+
+            if (containers[k] instanceof char[]) {
+                for (final char low : (char[]) containers[k])
+                    consumer.accept(high | low);
+                continue;
+            }
+
+            final long[] words = (long[]) containers[k];
+            for (int w = 0; w < WORDS; ++w)
+                for (long word = words[w]; word != 0; word &= word - 1)
+                    consumer.accept(high | (w << 6) | Long.numberOfTrailingZeros(word));
+        }
+    }
+
+    public CaseBitmap and(final CaseBitmap other) {
+        final Builder result = new Builder();
+        for (int k = 0, m = 0; k < keys.length && m < other.keys.length; ) {
+            if (keys[k] < other.keys[m]) { ++k; continue; }
+            if (keys[k] > other.keys[m]) { ++m; continue; }
+
+            result.addContainer(keys[k], and(containers[k++], other.containers[m++]));
+        }
+
+        return result.build();
+    }
+
+    public CaseBitmap or(final CaseBitmap other) {
+        final Builder result = new Builder();
+        int k = 0;
+        int m = 0;
+        while (k < keys.length || m < other.keys.length) {
+            if (m == other.keys.length || (k < keys.length && keys[k] < other.keys[m]))
+                result.addContainer(keys[k], containers[k++]);
+            else if (k == keys.length || keys[k] > other.keys[m])
+                result.addContainer(other.keys[m], other.containers[m++]);
+            else
+                result.addContainer(keys[k], or(containers[k++], other.containers[m++]));
+        }
+
+        return result.build();
+    }
+
+    public CaseBitmap andNot(final CaseBitmap other) {
+        final Builder result = new Builder();
+        for (int k = 0, m = 0; k < keys.length; ++k) {
+            while (m < other.keys.length && other.keys[m] < keys[k])
+                ++m;
+
+            result.addContainer(keys[k], m < other.keys.length && other.keys[m] == keys[k] ? andNot(containers[k], other.containers[m]) : containers[k]);
+        }
+
+        return result.build();
+    }
+
+    // cardinality of and(other)
+    public int andCardinality(final CaseBitmap other) {
+        int result = 0;
+        for (int k = 0, m = 0; k < keys.length && m < other.keys.length; ) {
+            if (keys[k] < other.keys[m]) { ++k; continue; }
+            if (keys[k] > other.keys[m]) { ++m; continue; }
+
+            result += andCardinality(containers[k++], other.containers[m++]);
+        }
+
+        return result;
+    }
+
+    // rough estimate of heap used by the bitmap
+    public long bytes() {
+        long result = 16 + 4L * keys.length;
+        for (final Object container : containers)
+            result += 16 + (container instanceof char[] ? 2L * ((char[]) container).length : 8L * WORDS);
+
+        return result;
+    }
+
+    @Override
+    public boolean equals(final Object o) {
+        if (!(o instanceof CaseBitmap))
+            return false;
+
+        final CaseBitmap other = (CaseBitmap) o;
+        return cardinality == other.cardinality && andCardinality(other) == cardinality;
+    }
+
+    @Override
+    public int hashCode() {
+        final int[] result = { cardinality };
+        forEach(id -> result[0] = 31 * result[0] + id);
+        return result[0];
+    }
+
+    /* containers */
+
+    private static int cardinality(final Object container) {
+        if (container instanceof char[])
+            return ((char[]) container).length;
+
+        int result = 0;
+        for (final long word : (long[]) container)
+            result += Long.bitCount(word);
+
+        return result;
+    }
+
+    private static boolean contains(final Object container, final char low) {
+        return container instanceof char[] ? Arrays.binarySearch((char[]) container, low) >= 0
+                                           : (((long[]) container)[low >>> 6] & (1L << low)) != 0;
+    }
+
+    private static Object and(final Object a, final Object b) {
+        if (a instanceof char[] && b instanceof char[]) {
+            final char[] x      = (char[]) a;
+            final char[] y      = (char[]) b;
+            final char[] result = new char[Math.min(x.length, y.length)];
+            int          n      = 0;
+            for (int i = 0, j = 0; i < x.length && j < y.length; ) {
+                if (x[i] < y[j])      ++i;
+                else if (x[i] > y[j]) ++j;
+                else                  { result[n++] = x[i++]; ++j; }
+            }
+            return Arrays.copyOf(result, n);
+        }
+
+        if (a instanceof char[] || b instanceof char[]) {
+            final char[] array  = (char[]) (a instanceof char[] ? a : b);
+            final Object bitmap = a instanceof char[] ? b : a;
+            final char[] result = new char[array.length];
+            int          n      = 0;
+            for (final char low : array)
+                if (contains(bitmap, low))
+                    result[n++] = low;
+            return Arrays.copyOf(result, n);
+        }
+
+        final long[] result = new long[WORDS];
+        for (int w = 0; w < WORDS; ++w)
+            result[w] = ((long[]) a)[w] & ((long[]) b)[w];
+        return compact(result);
+    }
+
+    private static Object or(final Object a, final Object b) {
+        final long[] result = words(a);
+        if (b instanceof char[]) {
+            for (final char low : (char[]) b)
+                result[low >>> 6] |= 1L << low;
+        }
+        else {
+            for (int w = 0; w < WORDS; ++w)
+                result[w] |= ((long[]) b)[w];
+        }
+        return compact(result);
+    }
+
+    private static Object andNot(final Object a, final Object b) {
+        if (a instanceof char[]) {
+            final char[] array  = (char[]) a;
+            final char[] result = new char[array.length];
+            int          n      = 0;
+            for (final char low : array)
+                if (!contains(b, low))
+                    result[n++] = low;
+            return Arrays.copyOf(result, n);
+        }
+
+        final long[] result = ((long[]) a).clone();
+        if (b instanceof char[]) {
+            for (final char low : (char[]) b)
+                result[low >>> 6] &= ~(1L << low);
+        }
+        else {
+            for (int w = 0; w < WORDS; ++w)
+                result[w] &= ~((long[]) b)[w];
+        }
+        return compact(result);
+    }
+
+    private static int andCardinality(final Object a, final Object b) {
+        if (a instanceof char[] && b instanceof char[]) {
+            final char[] x      = (char[]) a;
+            final char[] y      = (char[]) b;
+            int          result = 0;
+            for (int i = 0, j = 0; i < x.length && j < y.length; ) {
+                if (x[i] < y[j])      ++i;
+                else if (x[i] > y[j]) ++j;
+                else                  { ++result; ++i; ++j; }
+            }
+            return result;
+        }
+
+        if (a instanceof char[] || b instanceof char[]) {
+            final char[] array  = (char[]) (a instanceof char[] ? a : b);
+            final Object bitmap = a instanceof char[] ? b : a;
+            int          result = 0;
+            for (final char low : array)
+                if (contains(bitmap, low))
+                    ++result;
+            return result;
+        }
+
+        int result = 0;
+        for (int w = 0; w < WORDS; ++w)
+            result += Long.bitCount(((long[]) a)[w] & ((long[]) b)[w]);
+        return result;
+    }
+
+    private static long[] words(final Object container) {
+        if (container instanceof long[])
+            return ((long[]) container).clone();
+
+        final long[] result = new long[WORDS];
+        for (final char low : (char[]) container)
+            result[low >>> 6] |= 1L << low;
+        return result;
+    }
+
+    // array container if the chunk is sparse
+    private static Object compact(final long[] words) {
+        final int n = cardinality(words);
+        if (n > ARRAY_MAX)
+            return words;
+
+        final char[] result = new char[n];
+        int          i      = 0;
+        for (int w = 0; w < WORDS; ++w)
+            for (long word = words[w]; word != 0; word &= word - 1)
+                result[i++] = (char) ((w << 6) | Long.numberOfTrailingZeros(word));
+        return result;
+    }
+
+    // bitmap of ids added in ascending order
+    public static class Builder
+    {
+        private char[]   keys       = new char[4];
+        private Object[] containers = new Object[4];
+        private int      size       = 0;
+        private char[]   chunk      = new char[16]; // array of the last chunk while it is small
+        private long[]   words      = null;         // bitmap of the last chunk once it is dense
+        private int      chunkSize  = 0;
+        private int      last       = -1;
+
+        public void add(final int id) {
+            if (id <= last)
+                throw new IllegalArgumentException("case ids must be added in ascending order");
+
+            final char key = (char) (id >>> 16);
+            if (last < 0 || key != (char) (last >>> 16)) {
+                flush();
+                push(key, null);
+            }
+            last = id;
+
+            final char low = (char) id;
+            if (words != null) {
+                words[low >>> 6] |= 1L << low;
+                return;
+            }
+
+            if (chunkSize == ARRAY_MAX) {
+                words = words(Arrays.copyOf(chunk, chunkSize));
+                words[low >>> 6] |= 1L << low;
+                return;
+            }
+
+            if (chunkSize == chunk.length)
+                chunk = Arrays.copyOf(chunk, Math.min(ARRAY_MAX, 2 * chunk.length));
+            chunk[chunkSize++] = low;
+        }
+
+        public CaseBitmap build() {
+            flush();
+            return new CaseBitmap(Arrays.copyOf(keys, size), Arrays.copyOf(containers, size));
+        }
+
+        // non-empty container of the chunk following all added ids
+        private void addContainer(final char key, final Object container) {
+            if (cardinality(container) > 0)
+                push(key, container);
+        }
+
+        private void push(final char key, final Object container) {
+            if (size == keys.length) {
+                keys       = Arrays.copyOf(keys, 2 * size);
+                containers = Arrays.copyOf(containers, 2 * size);
+            }
+            keys[size]         = key;
+            containers[size++] = container;
+        }
+
+        // container of the chunk of added ids
+        private void flush() {
+            if (size == 0 || containers[size - 1] != null)
+                return;
+
+            containers[size - 1] = words != null ? words : Arrays.copyOf(chunk, chunkSize);
+            words     = null;
+            chunkSize = 0;
+        }
+    }
+}
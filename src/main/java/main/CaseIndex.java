@@ -0,0 +1,373 @@
+package main;
+
+import java.io.File;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import static main.Utils.*;
+
+/*
+    Index of training cases for models of cohorts (subsets of training cases) without retraining. Cases are numbered
+    in training order and the index keeps compressed bitmaps (CaseBitmap) of cases and the genes of cases:
+        - by phenotype (cases having the phenotype or its descendant, as counted in freq(phenotype | gene))
+        - gene of every case (a case has a single gene, so an array of case genes stands for disjoint gene bitmaps);
+          cases of genes outside the model (e.g. of other gene shards) have no gene and count only in freq("") and
+          freq(phenotype), as in Counts.Builder.addExternalCase
+        - by attribute value: source (name of the learning file) and attributes of the case attributes file
+
+    Counts of a cohort (counts(cohort)) are computed on demand: freq("") and freq(gene) when the counts are created,
+    a phenotype column (freq(phenotype), freq(phenotype | gene)) when the column is used for the first time, from
+    intersections of phenotype bitmaps with the cohort. Counts of the cohort of all cases are the counts of the model.
+
+    Case attributes file: case id (patient id of learning files) and attributes as key=value, tab separated, e.g.
+        Case:1   age=pediatric   year=2021
+    Cohort filter (see select): comma separated conditions which must all hold, every condition is
+        [!]key=value[|value...]   (one of the values; ! negates the condition)
+        [!]key<value, key<=value, key>value, key>=value (numeric values are compared as numbers, others as strings)
+    e.g. "age=pediatric,year<2023,!source=clinvar.tsv"
+ */
+public class CaseIndex
+{
+    public static final String SOURCE = "source";
+
+    private static final int NO_GENE = -1;
+
+    private final int                                        cases;
+    private final int[]                                      caseGenes;  // shared gene id by case; NO_GENE for external cases
+    private final String[]                                   caseIds;    // patient id by case
+    private final CaseBitmap[]                               phenotypes; // by phenotype id
+    private final Map<String, SortedMap<String, CaseBitmap>> attributes = new TreeMap<>();
+
+    private CaseIndex(final int cases, final int[] caseGenes, final String[] caseIds, final CaseBitmap[] phenotypes, final Map<String, CaseBitmap> sources) {
+        this.cases      = cases;
+        this.caseGenes  = caseGenes;
+        this.caseIds    = caseIds;
+        this.phenotypes = phenotypes;
+
+        attributes.put(SOURCE, new TreeMap<>(sources));
+    }
+
+    public int cases() { return cases; }
+
+    public CaseBitmap all() { return CaseBitmap.range(cases); }
+
+    public Set<String> attributeKeys() { return Collections.unmodifiableSet(attributes.keySet()); }
+
+    // cases with the attribute value
+    public CaseBitmap attribute(final String key, final String value) {
+        final SortedMap<String, CaseBitmap> values = attributes.get(key);
+        return values == null ? CaseBitmap.EMPTY : values.getOrDefault(value, CaseBitmap.EMPTY);
+    }
+
+    // cases having the phenotype (or its descendant)
+    public CaseBitmap phenotype(final int phenotypeId) {
+        return phenotypeId < 0 || phenotypeId >= phenotypes.length || phenotypes[phenotypeId] == null ? CaseBitmap.EMPTY : phenotypes[phenotypeId];
+    }
+
+    /*
+        Adds attributes of cases of the case attributes file; attributes of case ids which are not in the index
+        are ignored. Returns the number of cases with attributes.
+     */
+    public int addAttributes(final String fileName) {
+        final Map<String, List<Integer>> byId = new HashMap<>();
+        for (int c = 0; c < cases; ++c)
+            byId.computeIfAbsent(caseIds[c], id -> new ArrayList<>()).add(c);
+
+        // case numbers of attribute values in ascending order
+        final Map<String, Map<String, TreeSet<Integer>>> values  = new TreeMap<>();
+        final Set<Integer>                               covered = new HashSet<>();
+        fileLineReader(fileName, (lineNo, row) -> {
+            final String[]      columns     = row.split("\\t");
+            final List<Integer> caseNumbers = byId.get(columns[0].trim());
+            if (caseNumbers == null)
+                return;
+
+            for (int i = 1; i < columns.length; ++i) {
+                final int eq = columns[i].indexOf('=');
+                if (eq <= 0)
+                    throw new RuntimeException("Illegal attribute " + columns[i] + " in line " + lineNo + " of file " + fileName + " (key=value expected)");
+
+                final String key = columns[i].substring(0, eq).trim();
+                if (SOURCE.equals(key))
+                    throw new RuntimeException("Attribute " + SOURCE + " in line " + lineNo + " of file " + fileName + " is reserved for learning files");
+
+                values.computeIfAbsent(key, k -> new TreeMap<>())
+                      .computeIfAbsent(columns[i].substring(eq + 1).trim(), v -> new TreeSet<>())
+                      .addAll(caseNumbers);
+            }
+            covered.addAll(caseNumbers);
+        });
+
+        for (final Map.Entry<String, Map<String, TreeSet<Integer>>> key : values.entrySet())
+            for (final Map.Entry<String, TreeSet<Integer>> value : key.getValue().entrySet()) {
+                final CaseBitmap.Builder builder = new CaseBitmap.Builder();
+                for (final int c : value.getValue())
+                    builder.add(c);
+
+                attributes.computeIfAbsent(key.getKey(), k -> new TreeMap<>())
+                          .merge(value.getKey(), builder.build(), CaseBitmap::or);
+            }
+
+        return covered.size();
+    }
+
+    // cases of the cohort filter (all cases if the filter is empty)
+    public CaseBitmap select(final String filter) {
+        CaseBitmap result = all();
+        if (filter == null || filter.trim().isEmpty())
+            return result;
+
+        for (final String condition : filter.split(","))
+            result = result.and(condition(condition.trim()));
+
+        return result;
+    }
+
+    private CaseBitmap condition(final String condition) {
+        final boolean negated = condition.startsWith("!");
+        final String  term    = negated ? condition.substring(1).trim() : condition;
+
+        final int at = indexOfOperator(term);
+        if (at <= 0)
+            throw new RuntimeException("Illegal cohort condition " + condition + " (key=value, key<value, key<=value, key>value or key>=value expected)");
+
+        final String operator = term.startsWith("=", at) ? "=" : term.startsWith("=", at + 1) ? term.substring(at, at + 2) : term.substring(at, at + 1);
+        final String key      = term.substring(0, at).trim();
+        final String operand  = term.substring(at + operator.length()).trim();
+
+        final SortedMap<String, CaseBitmap> values = attributes.get(key);
+        if (values == null)
+            throw new RuntimeException("Unknown case attribute " + key + " (known attributes: " + String.join(", ", attributes.keySet()) + ")");
+
+        CaseBitmap result = CaseBitmap.EMPTY;
+        if ("=".equals(operator)) {
+            for (final String value : operand.split("\\|"))
+                result = result.or(values.getOrDefault(value.trim(), CaseBitmap.EMPTY));
+        }
+        else {
+            for (final Map.Entry<String, CaseBitmap> value : values.entrySet())
+                if (holds(compare(value.getKey(), operand), operator))
+                    result = result.or(value.getValue());
+        }
+
+        return negated ? all().andNot(result) : result;
+    }
+
+    private static int indexOfOperator(final String term) {
+        for (int i = 0; i < term.length(); ++i)
+            if ("=<>".indexOf(term.charAt(i)) >= 0)
+                return i;
+
+        return -1;
+    }
+
+    private static int compare(final String value, final String operand) {
+        try {
+            return Double.compare(Double.parseDouble(value), Double.parseDouble(operand));
+        }
+        catch (NumberFormatException e) {
+            return value.compareTo(operand);
+        }
+    }
+
+    private static boolean holds(final int comparison, final String operator) {
+        switch (operator) {
+            case "<"  : return comparison <  0;
+            case "<=" : return comparison <= 0;
+            case ">"  : return comparison >  0;
+            case ">=" : return comparison >= 0;
+            default   : throw new RuntimeException("Illegal cohort operator " + operator);
+        }
+    }
+
+    // counts of the model trained on the cohort
+    public Counts counts(final CaseBitmap cohort) {
+        return new CohortCounts(cohort);
+    }
+
+    private class CohortCounts implements Counts
+    {
+        private final CaseBitmap                    cohort;
+        private final int[]                         genes;        // shared gene ids in ascending order
+        private final int[]                         geneFreq;
+        private final int[]                         localIndices; // by shared gene id
+        private final AtomicReferenceArray<int[][]> columns;      // { local gene indices, counts, { total } } by phenotype id
+
+        CohortCounts(final CaseBitmap cohort) {
+            this.cohort = cohort;
+
+            int maxGene = -1;
+            for (final int gene : caseGenes)
+                maxGene = Math.max(maxGene, gene);
+
+            final int[] freq = new int[maxGene + 1];
+            cohort.forEach(c -> {
+                if (c >= cases)
+                    throw new IllegalArgumentException("case " + c + " is not in the index");
+                if (caseGenes[c] != NO_GENE)
+                    ++freq[caseGenes[c]];
+            });
+
+            int geneCount = 0;
+            for (final int f : freq)
+                geneCount += f > 0 ? 1 : 0;
+
+            genes        = new int[geneCount];
+            geneFreq     = new int[geneCount];
+            localIndices = new int[freq.length];
+            for (int id = 0, i = 0; id < freq.length; ++id) {
+                localIndices[id] = freq[id] > 0 ? i : -1;
+                if (freq[id] == 0)
+                    continue;
+
+                genes[i]      = id;
+                geneFreq[i++] = freq[id];
+            }
+
+            columns = new AtomicReferenceArray<>(phenotypes.length);
+        }
+
+        @Override public int cases()               { return cohort.cardinality(); }
+        @Override public int geneCount()           { return genes.length;         }
+        @Override public int gene(final int i)     { return genes[i];             }
+        @Override public int geneFreq(final int i) { return geneFreq[i];          }
+
+        @Override
+        public int indexOf(final int geneId) {
+            return geneId < 0 || geneId >= localIndices.length ? -1 : localIndices[geneId];
+        }
+
+        @Override
+        public int count(final int phenotypeId, final int i) {
+            final int j = Arrays.binarySearch(columnGenes(phenotypeId), i);
+            return j < 0 ? 0 : columnCounts(phenotypeId)[j];
+        }
+
+        @Override public int phenotypeCount() { return phenotypes.length; }
+
+        @Override public int   columnTotal(final int phenotypeId)  { return column(phenotypeId)[2][0]; }
+        @Override public int[] columnGenes(final int phenotypeId)  { return column(phenotypeId)[0];    }
+        @Override public int[] columnCounts(final int phenotypeId) { return column(phenotypeId)[1];    }
+
+        @Override
+        public long entries() {
+            long result = 0;
+            for (int p = 0; p < phenotypes.length; ++p)
+                result += columnGenes(p).length;
+
+            return result;
+        }
+
+        @Override
+        public long bytes() {
+            long result = 8L * genes.length + 4L * localIndices.length;
+            for (int p = 0; p < columns.length(); ++p)
+                result += columns.get(p) == null ? 0 : 8L * columns.get(p)[0].length + 40;
+
+            return result;
+        }
+
+        // freq(phenotype | gene) of cases of the cohort having the phenotype
+        private int[][] column(final int phenotypeId) {
+            if (phenotypeId < 0 || phenotypeId >= phenotypes.length)
+                return new int[][]{ new int[0], new int[0], { 0 } };
+
+            int[][] result = columns.get(phenotypeId);
+            if (result != null)
+                return result;
+
+            final int[] counts = new int[genes.length];
+            final int[] total  = { 0 };
+            phenotype(phenotypeId).and(cohort).forEach(c -> {
+                if (caseGenes[c] != NO_GENE)
+                    ++counts[localIndices[caseGenes[c]]];
+                ++total[0];
+            });
+
+            int size = 0;
+            for (final int count : counts)
+                size += count > 0 ? 1 : 0;
+
+            final int[] columnGenes  = new int[size];
+            final int[] columnCounts = new int[size];
+            for (int i = 0, j = 0; i < counts.length; ++i) {
+                if (counts[i] == 0)
+                    continue;
+
+                columnGenes[j]    = i;
+                columnCounts[j++] = counts[i];
+            }
+
+            result = new int[][]{ columnGenes, columnCounts, total };
+            columns.compareAndSet(phenotypeId, null, result);
+            return columns.get(phenotypeId);
+        }
+    }
+
+    /*
+        Counts builder which indexes the cases it receives instead of counting them: index() builds the index, build()
+        the counts of all its cases
+     */
+    public static class Builder implements Counts.Builder
+    {
+        private final List<CaseBitmap.Builder>        phenotypes = new ArrayList<>();
+        private final Map<String, CaseBitmap.Builder> sources    = new LinkedHashMap<>();
+        private final List<String>                    caseIds    = new ArrayList<>();
+        private int[]                                 caseGenes  = new int[1024];
+        private CaseBitmap.Builder                    source     = null;
+
+        @Override
+        public void source(final String source) {
+            this.source = sources.computeIfAbsent(new File(source).getName(), s -> new CaseBitmap.Builder());
+        }
+
+        @Override
+        public void addCase(final int geneId, final int[] phenotypeIds) {
+            addCase("", geneId, phenotypeIds);
+        }
+
+        @Override
+        public void addCase(final String caseId, final int geneId, final int[] phenotypeIds) {
+            final int c = caseIds.size();
+            caseIds.add(caseId);
+            if (c == caseGenes.length)
+                caseGenes = Arrays.copyOf(caseGenes, 2 * c);
+            caseGenes[c] = geneId;
+
+            for (final int phenotypeId : phenotypeIds) {
+                while (phenotypes.size() <= phenotypeId)
+                    phenotypes.add(null);
+                if (phenotypes.get(phenotypeId) == null)
+                    phenotypes.set(phenotypeId, new CaseBitmap.Builder());
+
+                phenotypes.get(phenotypeId).add(c);
+            }
+
+            if (source != null)
+                source.add(c);
+        }
+
+        @Override
+        public void addExternalCase(final int[] phenotypeIds) {
+            addCase("", NO_GENE, phenotypeIds);
+        }
+
+        @Override
+        public Counts build() {
+            final CaseIndex index = index();
+            return index.counts(index.all());
+        }
+
+        public CaseIndex index() {
+            final CaseBitmap[] phenotypeBitmaps = new CaseBitmap[phenotypes.size()];
+            for (int p = 0; p < phenotypeBitmaps.length; ++p)
+                phenotypeBitmaps[p] = phenotypes.get(p) == null ? null : phenotypes.get(p).build();
+
+            final Map<String, CaseBitmap> sourceBitmaps = new LinkedHashMap<>();
+            for (final Map.Entry<String, CaseBitmap.Builder> entry : sources.entrySet())
+                sourceBitmaps.put(entry.getKey(), entry.getValue().build());
+
+            return new CaseIndex(caseIds.size(), Arrays.copyOf(caseGenes, caseIds.size()), caseIds.toArray(new String[0]), phenotypeBitmaps, sourceBitmaps);
+        }
+    }
+}
@@ -1,20 +1,83 @@
 package main;
 
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
 import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
 import java.util.stream.Collectors;
 
 import static main.Utils.*;
-import static main.GeneLexicon.*;
 
-public class Classifier
+public class Classifier implements GeneRanker
 {
-    private static final Hpo hpo = new Hpo("./data/hpo.csv");
+    public static final double CLIP_EVIDENCE = 30.;
 
-    private final Map<String, Integer> freq  = new HashMap<>();
-    private final Set<String>          genes = new HashSet<>();
+    private static final int BATCH_SIZE    = 1024; // patients per prioritizeBatch call of -p and -t
+    private static final int PATIENT_BLOCK = 32;   // patients accumulated together in the score buffer
+    private static final int GENE_BLOCK    = 2048; // genes per cache tile of the score buffer and per task of parallel scoring
+
+    // models with fewer genes are scored on the calling thread (see setParallelThreshold)
+    public static final int DEFAULT_PARALLEL_THRESHOLD = 4 * GENE_BLOCK;
+
+    private final ModelContext context;
+    private final Counts       counts;
+    private final int[]        entrezIds; // numeric Entrez ids by local gene index; last resort tie-break of genes
+
+    // lazily computed data for top genes prioritization
+    private volatile double[] maxEvidence = null; // by phenotype id: max evidence(phenotype | Gene) over genes of the model
+    private volatile int[]    byFrequency = null; // local gene indices ordered by decreasing gene frequency
+
+    private volatile int parallelThreshold = DEFAULT_PARALLEL_THRESHOLD;
+
+    // estimates of deadline-bounded prioritization, learned from previous calls
+    private volatile double[] spread      = null; // by phenotype id: standard deviation of evidence(phenotype | Gene) over genes
+    private volatile long     columnNanos = 0;    // adding a phenotype column to gene scores
+    private volatile long     rankNanos   = 0;    // ranking of all genes
+    private volatile long     topNanos    = 0;    // ranking of top genes
 
     public Classifier(final List<String> fileNames) {
-        load(fileNames);
+        this(ModelContext.shared(), fileNames);
+    }
+
+    public Classifier(final ModelContext context, final List<String> fileNames) {
+        this(context, fileNames, GeneShard.ALL);
+    }
+
+    // model holding only genes of the shard; phenotype totals include genes of all shards
+    public Classifier(final ModelContext context, final List<String> fileNames, final GeneShard shard) {
+        this(context, fileNames, shard, new CountTable.Builder());
+    }
+
+    // model with counts accumulated by builder (e.g. DiskCountStore.Builder for out-of-core training)
+    public Classifier(final ModelContext context, final List<String> fileNames, final GeneShard shard, final Counts.Builder builder) {
+        this(context, load(context, fileNames, shard, builder));
+    }
+
+    public Classifier(final ModelContext context, final Counts counts) {
+        this.context = context;
+        this.counts  = counts;
+
+        entrezIds = new int[counts.geneCount()];
+        for (int i = 0; i < entrezIds.length; ++i)
+            entrezIds[i] = Integer.parseInt(geneId(i));
+    }
+
+    public ModelContext context() { return context; }
+    public Counts       counts()  { return counts;  }
+
+    /*
+        Single patient prioritization of models with at least parallelThreshold genes is split across the common
+        fork-join pool (Integer.MAX_VALUE: always sequential); results are the same either way
+     */
+    public int parallelThreshold() { return parallelThreshold; }
+
+    public void setParallelThreshold(final int parallelThreshold) {
+        if (parallelThreshold < 1)
+            throw new IllegalArgumentException("parallel threshold must be greater than 0");
+
+        this.parallelThreshold = parallelThreshold;
     }
 
     public void test(final String testFileName, final String resultFileName, final Integer maxGenes, final boolean showIntermediateResultsInfo) {
@@ -22,57 +85,57 @@ public class Classifier
             throw new RuntimeException("input [" + testFileName + "] and output file [" + resultFileName +
                     "] for testing must not be the same");
 
-        fileWriter(resultFileName, f-> {
-            f.write("top\t%");
-            f.newLine();
+        fileWriter(resultFileName, f -> writeTop(f, test(testFileName, showIntermediateResultsInfo), maxGenes));
+    }
 
-            final Map<Integer, Integer> freq = test(testFileName, showIntermediateResultsInfo);
-            if (freq.isEmpty())
-                return;
+    // top % table of test results: percentage of patients with the diagnosed gene among top i genes
+    static void writeTop(final BufferedWriter f, final Map<Integer, Integer> freq, final Integer maxGenes) throws IOException {
+        f.write("top\t%");
+        f.newLine();
+
+        if (freq.isEmpty())
+            return;
 
-            final int max = freq.keySet().stream().max(Integer::compareTo).get();
+        final int max = freq.keySet().stream().max(Integer::compareTo).get();
 
-            for (int i = 1; i <= max; ++i) {
-                if (maxGenes != null && maxGenes < i)
-                    return;
+        for (int i = 1; i <= max; ++i) {
+            if (maxGenes != null && maxGenes < i)
+                return;
 
-                f.write(String.format(Locale.US, "%d\t%.2f", i, top(i, freq)));
-                f.newLine();
-            }
-        });
+            f.write(String.format(Locale.US, "%d\t%.2f", i, top(i, freq)));
+            f.newLine();
+        }
     }
 
     public Map<Integer, Integer> test(final String testFileName, final boolean showIntermediateResultsInfo) {
         final Map<Integer, Integer> freq = new HashMap<>();
 
-        fileLineReader(testFileName, (lineNo, row) -> {
+        batchReader(testFileName, (firstLineNo, rows) -> {
+            final List<Set<String>> patients     = new ArrayList<>();
+            final List<String>      correctGenes = new ArrayList<>();
 
-            final String[] columns = row.split("\\t");
-            if (columns.length < 3)
-                throw new RuntimeException("Illegal number of columns: " + row);
+            for (final String[] columns : rows) {
+                if (columns.length < 3)
+                    throw new RuntimeException("Illegal number of columns: " + String.join("\t", columns));
 
-            final String correctGene = GeneLexicon.toEntrez(columns[1]);
-            if (correctGene == null) {
-                System.out.println("Illegal or unknown gene Id " + columns[1] + " (check the content of gene lexicon file: " + GeneLexicon.loadedFrom() + ")");
-                freq.compute(0, (k, v) -> v == null ? 1 : v + 1);
-                return;
+                final String correctGene = context.lexicon().entrez(columns[1]);
+                if (correctGene == null)
+                    System.out.println("Illegal or unknown gene Id " + columns[1] + " (check the content of gene lexicon file: " + context.lexicon().source() + ")");
+
+                correctGenes.add(correctGene);
+                patients.add(correctGene == null ? Collections.emptySet() : new HashSet<>(Arrays.asList(Arrays.copyOfRange(columns, 2, columns.length))));
             }
 
-            final Set<String> phenotypes = new HashSet<>(Arrays.asList(Arrays.copyOfRange(columns, 2, columns.length)));
+            final int[] ranks = rankBatch(correctGenes, patients);
 
-            final List<String> genes = prioritizeGenes(phenotypes);
-            for (int i = 0; i < genes.size(); ++i) {
-                if (correctGene.equals(GeneLexicon.toEntrez(genes.get(i)))) {
-                    freq.compute(i + 1, (k, v) -> v == null ? 1 : v + 1);
-                    top(freq, lineNo, showIntermediateResultsInfo);
+            for (int p = 0; p < rows.size(); ++p) {
+                // gene not present - missed gene frequency is stored at key == 0
+                freq.compute(ranks[p], (k, v) -> v == null ? 1 : v + 1);
+                if (correctGenes.get(p) == null)
+                    continue;
 
-                    return;
-                }
+                top(freq, firstLineNo + p, showIntermediateResultsInfo);
             }
-
-            // gene not present - missed gene frequency is stored at key == 0
-            freq.compute(0, (k, v) -> v == null ? 1 : v + 1);
-            top(freq, lineNo, showIntermediateResultsInfo);
         });
 
         return freq;
@@ -115,166 +178,1104 @@ public class Classifier
                            final String resultFileName,
                            final Integer maxGenes,
                            final String geneIdType) {
+        prioritize(testFileName, resultFileName, maxGenes, geneIdType, null);
+    }
+
+    // prioritization of genes of the panel (Hugo or Entrez ids; all genes if panel is null)
+    public void prioritize(final String testFileName,
+                           final String resultFileName,
+                           final Integer maxGenes,
+                           final String geneIdType,
+                           final Collection<String> panel) {
+        prioritize(testFileName, resultFileName, maxGenes, geneIdType, panel, null);
+    }
+
+    /*
+        Prioritization with genes of patients looked up in the result cache first; only patients missing in the cache
+        are scored and their genes are added to the cache (cache must be keyed by the fingerprint of this model)
+     */
+    public void prioritize(final String testFileName,
+                           final String resultFileName,
+                           final Integer maxGenes,
+                           final String geneIdType,
+                           final Collection<String> panel,
+                           final ResultCache cache) {
+        checkFiles(testFileName, resultFileName);
+
+        fileWriter(resultFileName, f ->
+            prioritizeFile(testFileName, maxGenes, panel, cache, (rows, genes) -> {
+                for (int p = 0; p < rows.size(); ++p) {
+                    f.write(rows.get(p)[0] + "\t");
+
+                    int i = 0;
+                    for (final String gene : genes.get(p)) {
+                        ++i;
+                        if (maxGenes != null && i > maxGenes)
+                            break;
+                        f.write("\t" + context.lexicon().format(gene, geneIdType));
+                    }
+                    f.newLine();
+                }
+            })
+        );
+    }
+
+    // prioritization saved to binary result file (see ResultFile); evidence: with per-phenotype breakdown of genes
+    public void prioritize(final String testFileName,
+                           final String resultFileName,
+                           final Integer maxGenes,
+                           final Collection<String> panel,
+                           final boolean evidence) {
+        checkFiles(testFileName, resultFileName);
+
+        try (final ResultFile.Writer writer = new ResultFile.Writer(resultFileName, evidence)) {
+            prioritizeFile(testFileName, maxGenes, panel, (rows, rankings) -> {
+                for (int p = 0; p < rows.size(); ++p)
+                    writer.add(rows.get(p)[0], rankings.get(p), maxGenes);
+            });
+        }
+    }
+
+    private static void checkFiles(final String testFileName, final String resultFileName) {
         if (getCanonicalPath(testFileName).equals(getCanonicalPath(resultFileName)))
             throw new RuntimeException("input [" + testFileName + "] and output file [" + resultFileName +
                     "] for prioritization must not be the same");
+    }
 
-        fileWriter(resultFileName, f ->
-            fileLineReader(testFileName, (lineNo, row) -> {
-                final String[] columns = row.split("\\t");
-                if (columns.length == 0) // empty lines are ignored
-                    return;
+    private interface RankingConsumer {
+        void accept(List<String[]> rows, List<Prioritization> rankings) throws Throwable;
+    }
+
+    private interface GenesConsumer {
+        void accept(List<String[]> rows, List<List<String>> genes) throws Throwable;
+    }
 
+    // prioritizations of patients of the file (-p file format) in batches of BATCH_SIZE patients
+    private void prioritizeFile(final String testFileName, final Integer maxGenes, final Collection<String> panel, final RankingConsumer consumer) {
+        final int[] panelIndices = panel == null ? null : panelIndices(panel);
+
+        batchReader(testFileName, (firstLineNo, rows) -> {
+            final List<Set<String>> patients = new ArrayList<>();
+            for (final String[] columns : rows) {
                 if (columns.length < 2)
-                    throw new RuntimeException("Illegal number of columns: " + row);
+                    throw new RuntimeException("Illegal number of columns: " + String.join("\t", columns));
+
+                patients.add(new HashSet<>(Arrays.asList(Arrays.copyOfRange(columns, 1, columns.length))));
+            }
+
+            final List<Prioritization> rankings = panelIndices == null ? prioritizeBatch(patients, maxGenes) : new ArrayList<>();
+            if (panelIndices != null)
+                for (final Set<String> phenotypes : patients)
+                    rankings.add(prioritize(phenotypes, maxGenes, panelIndices));
+
+            consumer.accept(rows, rankings);
+        });
+    }
+
+    // genes of patients of the file (-p file format) in batches of BATCH_SIZE patients; cached patients are not scored
+    private void prioritizeFile(final String testFileName, final Integer maxGenes, final Collection<String> panel, final ResultCache cache,
+                                final GenesConsumer consumer) {
+        if (cache == null) {
+            prioritizeFile(testFileName, maxGenes, panel, (rows, rankings) -> {
+                final List<List<String>> genes = new ArrayList<>();
+                for (final Prioritization ranking : rankings)
+                    genes.add(ranking.genes());
+                consumer.accept(rows, genes);
+            });
+            return;
+        }
+
+        final int[] panelIndices = panel == null ? null : panelIndices(panel);
+
+        batchReader(testFileName, (firstLineNo, rows) -> {
+            final List<List<String>>              genes  = new ArrayList<>();
+            final Map<Set<String>, List<Integer>> missed = new LinkedHashMap<>(); // rows of phenotype sets not in the cache
+            for (final String[] columns : rows) {
+                if (columns.length < 2)
+                    throw new RuntimeException("Illegal number of columns: " + String.join("\t", columns));
+
+                // a repeated missed phenotype set is neither looked up again nor scored again
+                final Set<String>   phenotypes = new HashSet<>(Arrays.asList(Arrays.copyOfRange(columns, 1, columns.length)));
+                final List<Integer> missedRows = missed.get(phenotypes);
+                final List<String>  cached     = missedRows == null ? cache.get(phenotypes, maxGenes) : null;
+                if (cached == null)
+                    missed.computeIfAbsent(phenotypes, k -> new ArrayList<>()).add(genes.size());
+                genes.add(cached);
+            }
+
+            final List<Set<String>>    patients = new ArrayList<>(missed.keySet());
+            final List<Prioritization> rankings = panelIndices == null ? prioritizeBatch(patients, maxGenes) : new ArrayList<>();
+            if (panelIndices != null)
+                for (final Set<String> phenotypes : patients)
+                    rankings.add(prioritize(phenotypes, maxGenes, panelIndices));
+
+            for (int k = 0; k < patients.size(); ++k) {
+                for (final int row : missed.get(patients.get(k)))
+                    genes.set(row, rankings.get(k).genes());
+                cache.put(patients.get(k), maxGenes, rankings.get(k).genes());
+            }
+
+            consumer.accept(rows, genes);
+        });
+    }
+
+    // tab separated rows of a file in batches of BATCH_SIZE rows; consumer receives line number of the first row in the batch
+    private static void batchReader(final String fileName, final ThrowableBiConsumer<Integer, List<String[]>> consumer) {
+        final List<String[]> rows        = new ArrayList<>();
+        final Box<Integer>   firstLineNo = new Box<>(1);
+
+        fileLineReader(fileName, (lineNo, row) -> {
+            if (rows.isEmpty())
+                firstLineNo.value = lineNo;
+
+            rows.add(row.split("\\t"));
+            if (rows.size() < BATCH_SIZE)
+                return;
+
+            consumer.accept(firstLineNo.value, rows);
+            rows.clear();
+        });
 
-                f.write(columns[0] + "\t");
+        if (!rows.isEmpty())
+            consumer.accept(firstLineNo.value, rows);
+    }
+
+    public List<String> prioritizeGenes(final Set<String> phenotypes) {
+        return new ArrayList<>(prioritize(phenotypes).genes());
+    }
+
+    @Override
+    public List<String> rankGenes(final Set<String> phenotypes, final Integer maxGenes) {
+        return prioritize(phenotypes, maxGenes).genes();
+    }
 
-                final Set<String> phenotypes = new HashSet<>(Arrays.asList(Arrays.copyOfRange(columns, 1, columns.length)));
+    public Prioritization prioritize(final Set<String> phenotypes) {
+        final String[] phenotypeList = phenotypeArray(phenotypes);
+        final int[]    phenotypeIds  = phenotypeIds(phenotypeList);
+
+        if (parallel())
+            return prioritizeParallel(phenotypeList, phenotypeIds, counts.geneCount());
+
+        // evidence(phenotype | Gene)
+        final double[] scores = new double[counts.geneCount()];
+        for (final int phenotypeId : phenotypeIds)
+            addEvidence(phenotypeId, scores);
+
+        return prioritization(phenotypeList, phenotypeIds, scores);
+    }
+
+    /*
+        Prioritization of top maxGenes genes (all genes if maxGenes is null); the result is exactly the same as the
+        first maxGenes genes of prioritize(phenotypes).
+
+        Genes without freq(phenotype | gene) get exactly -CLIP_EVIDENCE for the phenotype and the evidence of genes
+        with freq(phenotype | gene) is bounded by maxEvidence of the phenotype. Phenotype columns are traversed
+        in gene order (WAND): a gene is fully evaluated only if its upper bound score can beat the current
+        maxGenes-th gene, all other genes are skipped. Genes absent from all phenotype columns share the same
+        minimal score and are ranked by gene frequency, so only the most frequent of them are considered.
+        Models above the parallel threshold are scored in parallel instead (see prioritizeParallel).
+     */
+    public Prioritization prioritize(final Set<String> phenotypes, final Integer maxGenes) {
+        if (maxGenes == null || maxGenes >= counts.geneCount())
+            return prioritize(phenotypes);
+
+        final String[] phenotypeList = phenotypeArray(phenotypes);
+        final int[]    phenotypeIds  = phenotypeIds(phenotypeList);
+
+        if (parallel())
+            return prioritizeParallel(phenotypeList, phenotypeIds, maxGenes);
+
+        final int      n             = phenotypeIds.length;
+        final double[] maxEvidence   = maxEvidence();
+
+        // score of genes without evidence for all phenotypes, summed as in prioritize(phenotypes)
+        double minScore = .0;
+        for (int j = 0; j < n; ++j)
+            minScore += -CLIP_EVIDENCE;
+
+        final int[][]  columnGenes  = new int[n][];
+        final int[][]  columnCounts = new int[n][];
+        final int[]    columnTotals = new int[n];
+        final double[] excess       = new double[n]; // upper bound of evidence over -CLIP_EVIDENCE
+        final int[]    position     = new int[n];
+        final int[]    cursors      = new int[n];    // columns ordered by their current gene
+        for (int j = 0; j < n; ++j) {
+            final int id = phenotypeIds[j];
+            columnGenes[j]  = counts.columnGenes(id);
+            columnCounts[j] = counts.columnCounts(id);
+            columnTotals[j] = counts.columnTotal(id);
+            excess[j]       = id < 0 || id >= maxEvidence.length ? .0 : Math.max(.0, maxEvidence[id] + CLIP_EVIDENCE);
+            cursors[j]      = j;
+        }
 
-                int i = 0;
-                for (final String gene : prioritizeGenes(phenotypes)) {
-                    ++i;
-                    if (maxGenes != null && i > maxGenes)
-                        break;
-                    f.write("\t" + ("H".equals(geneIdType) ? toHugo(gene) : toEntrez(gene)));
+        final TopGenes top = new TopGenes(maxGenes);
+
+        while (true) {
+            sortCursors(cursors, columnGenes, position);
+
+            // pivot: first gene whose upper bound may beat the current top genes
+            double upperBound = minScore;
+            int    pivot      = -1;
+            for (int k = 0; k < n && pivot < 0; ++k) {
+                final int j = cursors[k];
+                if (position[j] >= columnGenes[j].length)
+                    break;
+
+                upperBound += excess[j];
+                if (top.mayEnter(upperBound))
+                    pivot = k;
+            }
+
+            if (pivot < 0)
+                break;
+
+            final int pivotGene = current(cursors[pivot], columnGenes, position);
+
+            if (current(cursors[0], columnGenes, position) == pivotGene) {
+                // exact evaluation, summed in the same order as prioritize(phenotypes)
+                double score = .0;
+                for (int j = 0; j < n; ++j) {
+                    if (position[j] < columnGenes[j].length && columnGenes[j][position[j]] == pivotGene)
+                        score += evidenceFromFreq(columnCounts[j][position[j]++], columnTotals[j]);
+                    else
+                        score += -CLIP_EVIDENCE;
                 }
-                f.newLine();
-            })
+
+                top.offer(pivotGene, score);
+            }
+            else {
+                // genes preceding the pivot gene can not make it into top genes
+                for (int k = 0; k < pivot; ++k) {
+                    final int j = cursors[k];
+                    final int i = Arrays.binarySearch(columnGenes[j], position[j], columnGenes[j].length, pivotGene);
+                    position[j] = i < 0 ? -i - 1 : i;
+                }
+            }
+        }
+
+        // genes without evidence for all phenotypes
+        for (final int i : byFrequency()) {
+            if (!top.mayEnter(minScore, i))
+                break;
+
+            if (!inAnyColumn(i, columnGenes))
+                top.offer(i, minScore);
+        }
+
+        return top.prioritization(phenotypeList, phenotypeIds);
+    }
+
+    /*
+        Anytime prioritization of top maxGenes genes (all genes if maxGenes is null) bounded by deadline (a value of
+        System.nanoTime()). Phenotypes are scored in order of decreasing discriminative power, i.e. the spread of their
+        evidence over genes of the model, and when the deadline comes the ranking of the phenotypes scored so far is
+        returned as a partial result: phenotypes() holds the scored phenotypes, omittedPhenotypes() the rest.
+
+        The time of a phenotype column and of the ranking are estimated from previous calls and the ranking is reserved
+        within the deadline. If all phenotypes fit, the result is exactly the same as of prioritize(phenotypes, maxGenes).
+     */
+    public Prioritization prioritize(final Set<String> phenotypes, final Integer maxGenes, final long deadline) {
+        final String[] phenotypeList = phenotypeArray(phenotypes);
+        final int[]    phenotypeIds  = phenotypeIds(phenotypeList);
+        final int      n             = phenotypeIds.length;
+        final boolean  top           = maxGenes != null && maxGenes < counts.geneCount();
+        final double[] scores        = new double[counts.geneCount()];
+
+        // all phenotypes are expected to fit: exact scores summed in canonical order
+        if (deadline - System.nanoTime() >= n * columnNanos + (top ? topNanos : rankNanos)) {
+            addEvidence(phenotypeIds, scores);
+            return ranked(phenotypeList, phenotypeIds, scores, maxGenes);
+        }
+
+        final double[] spread  = spread();
+        final int[]    byPower = new int[n];
+        for (int j = 0; j < n; ++j)
+            byPower[j] = j;
+        IntSort.sort(byPower, (j, k) -> Double.compare(spread(spread, phenotypeIds[k]), spread(spread, phenotypeIds[j])));
+
+        final boolean[] scored = new boolean[n];
+        int             count  = 0;
+        for (final int j : byPower) {
+            final long start = System.nanoTime();
+            if (deadline - start < columnNanos + (top ? topNanos : rankNanos))
+                break;
+
+            addEvidence(phenotypeIds[j], scores);
+            columnNanos = estimate(columnNanos, System.nanoTime() - start);
+            scored[j]   = true;
+            ++count;
+        }
+
+        // estimates were pessimistic: exact scores are summed again in canonical order
+        if (count == n) {
+            Arrays.fill(scores, .0);
+            addEvidence(phenotypeIds, scores);
+            return ranked(phenotypeList, phenotypeIds, scores, maxGenes);
+        }
+
+        // scores of scored phenotypes summed in order of their power
+        final String[] scoredList  = new String[count];
+        final int[]    scoredIds   = new int[count];
+        final String[] omittedList = new String[n - count];
+        for (int j = 0, k = 0, m = 0; j < n; ++j) {
+            if (scored[j]) {
+                scoredList[k]  = phenotypeList[j];
+                scoredIds[k++] = phenotypeIds[j];
+            }
+            else {
+                omittedList[m++] = phenotypeList[j];
+            }
+        }
+
+        return ranked(scoredList, scoredIds, scores, maxGenes).partial(omittedList);
+    }
+
+    // adds evidence of phenotypes in canonical order and updates the column time estimate
+    private void addEvidence(final int[] phenotypeIds, final double[] scores) {
+        final long start = System.nanoTime();
+        for (final int phenotypeId : phenotypeIds)
+            addEvidence(phenotypeId, scores);
+
+        if (phenotypeIds.length > 0)
+            columnNanos = estimate(columnNanos, (System.nanoTime() - start) / phenotypeIds.length);
+    }
+
+    // top maxGenes genes (all genes if maxGenes is null) of scores; updates the ranking time estimate
+    private Prioritization ranked(final String[] phenotypeList, final int[] phenotypeIds, final double[] scores, final Integer maxGenes) {
+        final long start = System.nanoTime();
+
+        if (maxGenes == null || maxGenes >= scores.length) {
+            final Prioritization result = prioritization(phenotypeList, phenotypeIds, scores);
+            rankNanos = estimate(rankNanos, System.nanoTime() - start);
+            return result;
+        }
+
+        final TopGenes top = new TopGenes(maxGenes);
+        for (int i = 0; i < scores.length; ++i)
+            top.offer(i, scores[i]);
+
+        final Prioritization result = top.prioritization(phenotypeList, phenotypeIds);
+        topNanos = estimate(topNanos, System.nanoTime() - start);
+        return result;
+    }
+
+    // moving average of measured times; outliers (e.g. GC pauses) are capped
+    private static long estimate(final long estimate, final long nanos) {
+        return estimate == 0 ? nanos : (7 * estimate + Math.min(nanos, 4 * estimate)) / 8;
+    }
+
+    private static double spread(final double[] spread, final int phenotypeId) {
+        return phenotypeId < 0 || phenotypeId >= spread.length ? .0 : spread[phenotypeId];
+    }
+
+    private double[] spread() {
+        if (spread == null) {
+            final int      geneCount = counts.geneCount();
+            final double[] result    = new double[counts.phenotypeCount()];
+            for (int id = 0; id < result.length && geneCount > 0; ++id) {
+                final int[] phenotypeFreqs = counts.columnCounts(id);
+
+                // genes outside the column have evidence -CLIP_EVIDENCE
+                double sum   = (geneCount - phenotypeFreqs.length) * -CLIP_EVIDENCE;
+                double sumSq = (geneCount - phenotypeFreqs.length) * CLIP_EVIDENCE * CLIP_EVIDENCE;
+                for (final int phenotypeFreq : phenotypeFreqs) {
+                    final double evidence = evidenceFromFreq(phenotypeFreq, counts.columnTotal(id));
+                    sum   += evidence;
+                    sumSq += evidence * evidence;
+                }
+
+                final double mean = sum / geneCount;
+                result[id] = Math.sqrt(Math.max(.0, sumSq / geneCount - mean * mean));
+            }
+            spread = result;
+        }
+
+        return spread;
+    }
+
+    /*
+        Prioritization of top maxGenes genes of the panel (Hugo or Entrez ids; all panel genes if maxGenes is null).
+        Panel genes unknown to the gene lexicon or absent from the model are ignored. Evidence is computed only for
+        panel genes, with phenotype totals of the full model, so scores and order of panel genes are exactly the same
+        as in prioritize(phenotypes); the cost is proportional to the panel size.
+     */
+    public Prioritization prioritize(final Set<String> phenotypes, final Integer maxGenes, final Collection<String> panel) {
+        return prioritize(phenotypes, maxGenes, panelIndices(panel));
+    }
+
+    // ranker of genes of the panel (all genes if panel is null); gene ids are formatted by this model
+    public GeneRanker ranker(final Collection<String> panel) {
+        if (panel == null)
+            return this;
+
+        final int[] panelIndices = panelIndices(panel);
+        return new GeneRanker() {
+            @Override
+            public List<String> rankGenes(final Set<String> phenotypes, final Integer maxGenes) {
+                return prioritize(phenotypes, maxGenes, panelIndices).genes();
+            }
+
+            @Override
+            public String geneId(final String gene, final String geneIdType) {
+                return Classifier.this.geneId(gene, geneIdType);
+            }
+        };
+    }
+
+    // sorted distinct local indices of panel genes (Hugo or Entrez ids) present in the model
+    private int[] panelIndices(final Collection<String> panel) {
+        final Set<Integer> result = new TreeSet<>();
+        for (final String gene : panel) {
+            final int i = geneIndex(context.lexicon().entrez(gene));
+            if (i >= 0)
+                result.add(i);
+        }
+
+        return result.stream().mapToInt(Integer::intValue).toArray();
+    }
+
+    private Prioritization prioritize(final Set<String> phenotypes, final Integer maxGenes, final int[] panelIndices) {
+        final String[] phenotypeList = phenotypeArray(phenotypes);
+        final int[]    phenotypeIds  = phenotypeIds(phenotypeList);
+
+        // summed in the same order as prioritize(phenotypes)
+        final double[] panelScores = new double[panelIndices.length];
+        for (final int phenotypeId : phenotypeIds) {
+            final int[] genes          = counts.columnGenes(phenotypeId);
+            final int[] phenotypeFreqs = counts.columnCounts(phenotypeId);
+            final int   phenotypeFreq  = counts.columnTotal(phenotypeId);
+
+            for (int k = 0; k < panelIndices.length; ++k) {
+                final int j = Arrays.binarySearch(genes, panelIndices[k]);
+                panelScores[k] += j < 0 ? -CLIP_EVIDENCE : evidenceFromFreq(phenotypeFreqs[j], phenotypeFreq);
+            }
+        }
+
+        final int[] positions = new int[panelIndices.length];
+        for (int k = 0; k < positions.length; ++k)
+            positions[k] = k;
+
+        IntSort.sort(positions, (k, m) -> comparePlausibility(panelScores[k], panelScores[m], panelIndices[k], panelIndices[m]));
+
+        final int      n          = maxGenes == null ? positions.length : Math.min(maxGenes, positions.length);
+        final int[]    order      = new int[n];
+        final double[] rankScores = new double[n];
+        for (int rank = 0; rank < n; ++rank) {
+            order[rank]      = panelIndices[positions[rank]];
+            rankScores[rank] = panelScores[positions[rank]];
+        }
+
+        return new Prioritization(this, phenotypeList, phenotypeIds, order, rankScores);
+    }
+
+    private boolean parallel() {
+        return counts.geneCount() >= parallelThreshold && ForkJoinPool.getCommonPoolParallelism() > 1;
+    }
+
+    /*
+        Intra-query parallel prioritization of top maxGenes genes: genes are split into blocks of GENE_BLOCK genes,
+        every block is scored and ranked by its own fork-join task and ranked blocks are merged pairwise by the parent
+        tasks, keeping only top maxGenes genes. Gene scores are summed in canonical phenotype order and comparePlausibility
+        is a total order, so the result is exactly the same as of the sequential path.
+     */
+    private Prioritization prioritizeParallel(final String[] phenotypeList, final int[] phenotypeIds, final int maxGenes) {
+        final double[] scores = new double[counts.geneCount()];
+        final int[]    order  = ForkJoinPool.commonPool().invoke(new RankTask(phenotypeIds, scores, 0, scores.length, maxGenes));
+
+        final double[] rankScores = new double[order.length];
+        for (int rank = 0; rank < order.length; ++rank)
+            rankScores[rank] = scores[order[rank]];
+
+        return new Prioritization(this, phenotypeList, phenotypeIds, order, rankScores);
+    }
+
+    // top maxGenes local gene indices of genes [from, to) in rank order; scores of the genes are left in scores
+    private class RankTask extends RecursiveTask<int[]>
+    {
+        private static final long serialVersionUID = 1L;
+
+        private final int[]    phenotypeIds;
+        private final double[] scores;
+        private final int      from;
+        private final int      to;
+        private final int      maxGenes;
+
+        RankTask(final int[] phenotypeIds, final double[] scores, final int from, final int to, final int maxGenes) {
+            this.phenotypeIds = phenotypeIds;
+            this.scores       = scores;
+            this.from         = from;
+            this.to           = to;
+            this.maxGenes     = maxGenes;
+        }
+
+        @Override
+        protected int[] compute() {
+            if (to - from <= GENE_BLOCK) {
+                for (final int phenotypeId : phenotypeIds)
+                    addEvidence(phenotypeId, scores, from, to);
+
+                final int[] result = new int[to - from];
+                for (int i = 0; i < result.length; ++i)
+                    result[i] = from + i;
+
+                IntSort.sort(result, (i, j) -> comparePlausibility(scores[i], scores[j], i, j));
+                return result.length > maxGenes ? Arrays.copyOf(result, maxGenes) : result;
+            }
+
+            // split at a block boundary
+            final int      mid   = from + ((to - from) / GENE_BLOCK + 1) / 2 * GENE_BLOCK;
+            final RankTask left  = new RankTask(phenotypeIds, scores, from, mid, maxGenes);
+            final RankTask right = new RankTask(phenotypeIds, scores, mid, to, maxGenes);
+
+            left.fork();
+            final int[] b = right.compute();
+            final int[] a = left.join();
+
+            final int[] result = new int[Math.min(maxGenes, a.length + b.length)];
+            for (int rank = 0, i = 0, j = 0; rank < result.length; ++rank)
+                result[rank] = j == b.length || (i < a.length && comparePlausibility(scores[a[i]], scores[b[j]], a[i], b[j]) < 0) ? a[i++] : b[j++];
+
+            return result;
+        }
+    }
+
+    private static int current(final int j, final int[][] columnGenes, final int[] position) {
+        return position[j] < columnGenes[j].length ? columnGenes[j][position[j]] : Integer.MAX_VALUE;
+    }
+
+    private static void sortCursors(final int[] cursors, final int[][] columnGenes, final int[] position) {
+        for (int k = 1; k < cursors.length; ++k) {
+            final int j    = cursors[k];
+            final int gene = current(j, columnGenes, position);
+
+            int m = k - 1;
+            while (m >= 0 && current(cursors[m], columnGenes, position) > gene) {
+                cursors[m + 1] = cursors[m];
+                --m;
+            }
+            cursors[m + 1] = j;
+        }
+    }
+
+    private static boolean inAnyColumn(final int geneIndex, final int[][] columnGenes) {
+        for (final int[] genes : columnGenes)
+            if (Arrays.binarySearch(genes, geneIndex) >= 0)
+                return true;
+
+        return false;
+    }
+
+    private double[] maxEvidence() {
+        if (maxEvidence == null) {
+            final double[] result = new double[counts.phenotypeCount()];
+            for (int id = 0; id < result.length; ++id) {
+                final int[] phenotypeFreqs = counts.columnCounts(id);
+
+                result[id] = -CLIP_EVIDENCE;
+                for (final int phenotypeFreq : phenotypeFreqs)
+                    result[id] = Math.max(result[id], evidenceFromFreq(phenotypeFreq, counts.columnTotal(id)));
+            }
+            maxEvidence = result;
+        }
+
+        return maxEvidence;
+    }
+
+    private int[] byFrequency() {
+        if (byFrequency == null) {
+            final int[] result = new int[counts.geneCount()];
+            for (int i = 0; i < result.length; ++i)
+                result[i] = i;
+
+            IntSort.sort(result, (i, j) -> comparePlausibility(.0, .0, i, j));
+            byFrequency = result;
+        }
+
+        return byFrequency;
+    }
+
+    // best maxGenes genes seen so far; heap with the worst of them at the root
+    private class TopGenes
+    {
+        // tolerance for rounding differences between upper bounds and exactly summed scores
+        private static final double EPSILON = 1e-6;
+
+        private final int[]    genes;
+        private final double[] scores;
+        private int            size = 0;
+
+        TopGenes(final int maxGenes) {
+            genes  = new int[maxGenes];
+            scores = new double[maxGenes];
+        }
+
+        boolean mayEnter(final double upperBound) {
+            return size < genes.length || upperBound >= scores[0] - EPSILON;
+        }
+
+        boolean mayEnter(final double score, final int geneIndex) {
+            return size < genes.length || comparePlausibility(score, scores[0], geneIndex, genes[0]) < 0;
+        }
+
+        void offer(final int geneIndex, final double score) {
+            if (size < genes.length) {
+                genes[size]  = geneIndex;
+                scores[size] = score;
+                siftUp(size++);
+                return;
+            }
+
+            if (comparePlausibility(score, scores[0], geneIndex, genes[0]) >= 0)
+                return;
+
+            genes[0]  = geneIndex;
+            scores[0] = score;
+            siftDown(0);
+        }
+
+        Prioritization prioritization(final String[] phenotypeList, final int[] phenotypeIds) {
+            // heap positions in rank order
+            final int[] positions = new int[size];
+            for (int k = 0; k < size; ++k)
+                positions[k] = k;
+
+            IntSort.sort(positions, (k, m) -> comparePlausibility(scores[k], scores[m], genes[k], genes[m]));
+
+            final int[]    order      = new int[size];
+            final double[] rankScores = new double[size];
+            for (int rank = 0; rank < size; ++rank) {
+                order[rank]      = genes[positions[rank]];
+                rankScores[rank] = scores[positions[rank]];
+            }
+
+            return new Prioritization(Classifier.this, phenotypeList, phenotypeIds, order, rankScores);
+        }
+
+        // k is worse than m
+        private boolean worse(final int k, final int m) {
+            return comparePlausibility(scores[k], scores[m], genes[k], genes[m]) > 0;
+        }
+
+        private void siftUp(int k) {
+            while (k > 0) {
+                final int parent = (k - 1) / 2;
+                if (!worse(k, parent))
+                    return;
+
+                swap(k, parent);
+                k = parent;
+            }
+        }
+
+        private void siftDown(int k) {
+            while (true) {
+                final int left  = 2 * k + 1;
+                final int right = left + 1;
+
+                int worst = k;
+                if (left < size && worse(left, worst))
+                    worst = left;
+                if (right < size && worse(right, worst))
+                    worst = right;
+
+                if (worst == k)
+                    return;
+
+                swap(k, worst);
+                k = worst;
+            }
+        }
+
+        private void swap(final int k, final int m) {
+            final int    gene  = genes[k];
+            final double score = scores[k];
+
+            genes[k]  = genes[m];
+            scores[k] = scores[m];
+            genes[m]  = gene;
+            scores[m] = score;
+        }
+    }
+
+    // gene prioritization of a batch of patients (see scoreBatch)
+    public List<Prioritization> prioritizeBatch(final List<Set<String>> patients) {
+        return prioritizeBatch(patients, null);
+    }
+
+    /*
+        Prioritization of top maxGenes genes (all genes if maxGenes is null) of a batch of patients; the same genes
+        as the first maxGenes genes of prioritizeBatch(patients), selected without ranking and copying all genes
+     */
+    public List<Prioritization> prioritizeBatch(final List<Set<String>> patients, final Integer maxGenes) {
+        final List<Prioritization> result = new ArrayList<>(patients.size());
+
+        scoreBatch(patients, (p, phenotypeList, scores, offset) -> {
+            if (maxGenes == null || maxGenes >= counts.geneCount()) {
+                result.add(prioritization(phenotypeList, phenotypeIds(phenotypeList),
+                                          Arrays.copyOfRange(scores, offset, offset + counts.geneCount())));
+                return;
+            }
+
+            final TopGenes top = new TopGenes(maxGenes);
+            for (int i = 0; i < counts.geneCount(); ++i)
+                if (top.mayEnter(scores[offset + i], i))
+                    top.offer(i, scores[offset + i]);
+
+            result.add(top.prioritization(phenotypeList, phenotypeIds(phenotypeList)));
+        });
+
+        return result;
+    }
+
+    /*
+        Rank (1 = best) of the gene (Entrez id) of every patient of a batch; 0 if the gene is null or not in the model.
+        The same ranks as positions in prioritizeBatch(patients), computed by a single counting pass over gene
+        scores without sorting genes.
+     */
+    public int[] rankBatch(final List<String> genes, final List<Set<String>> patients) {
+        final int[] result = new int[patients.size()];
+
+        scoreBatch(patients, (p, phenotypeList, scores, offset) ->
+            result[p] = rankOf(geneIndex(genes.get(p)), scores, offset)
         );
+
+        return result;
     }
 
-    public List<String> prioritizeGenes(final Set<String> phenotypes) {
-            return prioritize(phenotypes)
-                       .stream()
-                       .map(GenePlausibility::gene)
-                       .collect(Collectors.toCollection(ArrayList::new));
+    // rank (1 = best) of gene (Entrez id) in prioritize(phenotypes); 0 if the gene is not in the model
+    public int rankOf(final String gene, final Set<String> phenotypes) {
+        final int geneIndex = geneIndex(gene);
+        if (geneIndex < 0)
+            return 0;
+
+        final double[] scores = new double[counts.geneCount()];
+        for (final int phenotypeId : phenotypeIds(phenotypeArray(phenotypes)))
+            addEvidence(phenotypeId, scores);
+
+        return rankOf(geneIndex, scores, 0);
+    }
+
+    // local index of gene (Entrez id); -1 if the gene is null or not in the model
+    int geneIndex(final String gene) {
+        if (gene == null)
+            return -1;
+
+        final int id = context.genes().id(gene);
+        return id == SymbolTable.UNKNOWN ? -1 : counts.indexOf(id);
+    }
+
+    // 1 + number of genes ranked before geneIndex by scores[offset + gene index]
+    int rankOf(final int geneIndex, final double[] scores, final int offset) {
+        if (geneIndex < 0)
+            return 0;
+
+        final double score = scores[offset + geneIndex];
+
+        int result = 1;
+        for (int i = 0; i < counts.geneCount(); ++i)
+            if (comparePlausibility(scores[offset + i], score, i, geneIndex) < 0)
+                ++result;
+
+        return result;
     }
 
+    private interface ScoreConsumer {
+        void accept(int patient, String[] phenotypeList, double[] scores, int offset);
+    }
 
-    public List<GenePlausibility> prioritize(final Set<String> phenotypes) {
-        final List<GenePlausibility> result = new ArrayList<>();
-        
-        for (final String geneId : genes) {
-            final GenePlausibility genePlausibility = new GenePlausibility(geneId);
+    // evidence(phenotype | Gene) of genes of a phenotype column; all other genes have evidence -CLIP_EVIDENCE
+    private static class SparseColumn
+    {
+        private final int[]    genes;    // local gene indices in increasing order
+        private final double[] evidence;
 
-            // evidence(phenotype | Gene)
-            for (final String phenotype : phenotypes) {
-                genePlausibility.set(phenotype, evidence(phenotype, geneId));
+        SparseColumn(final int[] genes, final double[] evidence) {
+            this.genes    = genes;
+            this.evidence = evidence;
+        }
+
+        // adds evidence of genes [from, to) to scores[offset + gene index]
+        void addTo(final double[] scores, final int offset, final int from, final int to) {
+            int k = from == 0 ? 0 : Arrays.binarySearch(genes, from);
+            if (k < 0)
+                k = -k - 1;
+
+            for (int i = from; i < to; ++i) {
+                if (k < genes.length && genes[k] == i)
+                    scores[offset + i] += evidence[k++];
+                else
+                    scores[offset + i] += -CLIP_EVIDENCE;
             }
+        }
+    }
+
+    private SparseColumn sparseColumn(final String phenotypeId) {
+        final int id = context.phenotypes().id(phenotypeId);
+
+        final int[]    genes          = counts.columnGenes(id);
+        final int[]    phenotypeFreqs = counts.columnCounts(id);
+        final int      phenotypeFreq  = counts.columnTotal(id);
+        final double[] evidence       = new double[genes.length];
+        for (int j = 0; j < genes.length; ++j)
+            evidence[j] = evidenceFromFreq(phenotypeFreqs[j], phenotypeFreq);
 
-            result.add(genePlausibility);
+        return new SparseColumn(genes, evidence);
+    }
+
+    /*
+        Batch scoring is a product of a sparse patients x phenotypes indicator matrix and phenotypes x genes evidence
+        matrix: every distinct phenotype column of the batch is computed once, kept sparse (genes of the column only,
+        so the columns of a batch take at most the size of the model), and patients' scores are accumulated into a
+        blocked patients x genes buffer. Consumer receives scores of patient p at scores[offset + gene index].
+     */
+    private void scoreBatch(final List<Set<String>> patients, final ScoreConsumer consumer) {
+        final int geneCount = counts.geneCount();
+
+        final Map<String, SparseColumn> columns        = new HashMap<>();
+        final String[][]                phenotypeLists = new String[patients.size()][];
+        final SparseColumn[][]          patientColumns = new SparseColumn[patients.size()][];
+        for (int p = 0; p < patients.size(); ++p) {
+            final String[] phenotypeList = phenotypeArray(patients.get(p));
+
+            phenotypeLists[p] = phenotypeList;
+            patientColumns[p] = new SparseColumn[phenotypeList.length];
+            for (int j = 0; j < phenotypeList.length; ++j)
+                patientColumns[p][j] = columns.computeIfAbsent(phenotypeList[j], this::sparseColumn);
         }
 
-        result.sort((p1, p2) -> comparePlausibility(p1, p2));
+        final double[] scores = new double[Math.min(PATIENT_BLOCK, patients.size()) * geneCount];
+
+        for (int first = 0; first < patients.size(); first += PATIENT_BLOCK) {
+            final int last = Math.min(patients.size(), first + PATIENT_BLOCK);
+            Arrays.fill(scores, .0);
+
+            for (int g0 = 0; g0 < geneCount; g0 += GENE_BLOCK) {
+                final int g1 = Math.min(geneCount, g0 + GENE_BLOCK);
+
+                for (int p = first; p < last; ++p) {
+                    final int offset = (p - first) * geneCount;
+                    for (final SparseColumn column : patientColumns[p])
+                        column.addTo(scores, offset, g0, g1);
+                }
+            }
+
+            for (int p = first; p < last; ++p)
+                consumer.accept(p, phenotypeLists[p], scores, (p - first) * geneCount);
+        }
+    }
+
+    // distinct phenotypes in canonical order; gene scores are always summed in this order
+    private static String[] phenotypeArray(final Set<String> phenotypes) {
+        return new TreeSet<>(phenotypes).toArray(new String[0]);
+    }
+
+    private Prioritization prioritization(final String[] phenotypeList, final int[] phenotypeIds, final double[] scores) {
+        final int[]    order      = rank(scores, 0);
+        final double[] rankScores = new double[order.length];
+        for (int rank = 0; rank < order.length; ++rank)
+            rankScores[rank] = scores[order[rank]];
+
+        return new Prioritization(this, phenotypeList, phenotypeIds, order, rankScores);
+    }
+
+    // phenotype ids in canonical order
+    int[] phenotypeIds(final Set<String> phenotypes) {
+        return phenotypeIds(phenotypeArray(phenotypes));
+    }
+
+    private int[] phenotypeIds(final String[] phenotypeList) {
+        final int[] result = new int[phenotypeList.length];
+        for (int j = 0; j < phenotypeList.length; ++j)
+            result[j] = context.phenotypes().id(phenotypeList[j]);
+
         return result;
     }
 
-    private int comparePlausibility(final GenePlausibility gp1, final GenePlausibility gp2) {
-        final double p1 = gp1.plausibility();
-        final double p2 = gp2.plausibility();
+    // local gene indices ordered by decreasing plausibility of scores[offset + gene index]
+    private int[] rank(final double[] scores, final int offset) {
+        final int[] result = new int[counts.geneCount()];
+        for (int i = 0; i < result.length; ++i)
+            result[i] = i;
+
+        IntSort.sort(result, (i, j) -> comparePlausibility(scores[offset + i], scores[offset + j], i, j));
+        return result;
+    }
 
+    // Entrez id of the gene with local index i
+    public String geneId(final int i) {
+        return context.genes().symbol(counts.gene(i));
+    }
+
+    // gene id in output format: H (Hugo id) or E (Entrez id)
+    @Override
+    public String geneId(final String gene, final String geneIdType) {
+        return context.lexicon().format(gene, geneIdType);
+    }
+
+    int comparePlausibility(final double p1, final double p2, final int geneIndex1, final int geneIndex2) {
         if (p1 < p2) return 1;
         if (p2 < p1) return -1;
 
-        final double pg1 = freq.getOrDefault(gp1.gene(), 0);
-        final double pg2 = freq.getOrDefault(gp2.gene(), 0);
+        final double pg1 = counts.geneFreq(geneIndex1);
+        final double pg2 = counts.geneFreq(geneIndex2);
 
         if (pg1 < pg2) return 1;
         if (pg2 < pg1) return -1;
 
-        return 0;
+        // the same order in every process and every shard of genes
+        return Integer.compare(entrezIds[geneIndex1], entrezIds[geneIndex2]);
     }
 
-    private double evidence(final String phenotypeId, final String geneId) {
-        final double CLIP_EVIDENCE = 30.;
+    // evidence(phenotype | Gene) for all genes of the model
+    double[] evidenceColumn(final String phenotypeId) {
+        final int id = context.phenotypes().id(phenotypeId);
 
-        final double probPhenotypeGene = p(phenotypeId, geneId) * p(geneId);
-        if (probPhenotypeGene == .0) { // no evidence for either gene of phenotype | gene => max penalization for gene
-            return -CLIP_EVIDENCE;
-        }
+        final double[] result = new double[counts.geneCount()];
+        Arrays.fill(result, -CLIP_EVIDENCE);
 
-        double probPhenotypeOtherGenes = .0;
-        for (final String otherGeneId : genes) {
-            if (geneId.equals(otherGeneId))
-                continue;
+        final int[] genes          = counts.columnGenes(id);
+        final int[] phenotypeFreqs = counts.columnCounts(id);
+        final int   phenotypeFreq  = counts.columnTotal(id);
 
-            probPhenotypeOtherGenes += p(phenotypeId, otherGeneId) * p(otherGeneId);
-        }
+        for (int j = 0; j < genes.length; ++j)
+            result[genes[j]] = evidenceFromFreq(phenotypeFreqs[j], phenotypeFreq);
 
-        if (probPhenotypeOtherGenes == .0) { // // no evidence for phenotype | other genes => max reward for gene
-            return CLIP_EVIDENCE;
-        }
+        return result;
+    }
 
-        return 10. * Math.log10(probPhenotypeGene / probPhenotypeOtherGenes);
+    // adds evidence(phenotype | Gene) of all genes to scores; same values as evidenceColumn without materializing the column
+    private void addEvidence(final int phenotypeId, final double[] scores) {
+        addEvidence(phenotypeId, scores, 0, scores.length);
     }
 
-    private double p(final String geneId) {
-        final double geneFreq     = freq.getOrDefault(geneId, 0);
-        final double allGenesFreq = freq.get("");
-        return geneFreq / allGenesFreq;
+    // adds evidence(phenotype | Gene) of genes [from, to) to scores
+    private void addEvidence(final int phenotypeId, final double[] scores, final int from, final int to) {
+        final int[] genes          = counts.columnGenes(phenotypeId);
+        final int[] phenotypeFreqs = counts.columnCounts(phenotypeId);
+        final int   phenotypeFreq  = counts.columnTotal(phenotypeId);
+
+        int k = from == 0 ? 0 : Arrays.binarySearch(genes, from);
+        if (k < 0)
+            k = -k - 1;
+
+        for (int i = from; i < to; ++i) {
+            if (k < genes.length && genes[k] == i)
+                scores[i] += evidenceFromFreq(phenotypeFreqs[k++], phenotypeFreq);
+            else
+                scores[i] += -CLIP_EVIDENCE;
+        }
+    }
+
+    // evidence(phenotype | Gene) of a single gene with local index
+    double evidence(final int phenotypeId, final int geneIndex) {
+        return evidenceFromFreq(counts.count(phenotypeId, geneIndex), counts.columnTotal(phenotypeId));
     }
 
-    private double p(final String phenotypeId, final String geneId) {
-        final double phenotypeCondGeneFreq  = freq.getOrDefault(phenotypeId + "|" + geneId, 0);
-        final double geneFreq               = freq.getOrDefault(geneId, 0);
+    /*
+        p(phenotype | gene) * p(gene) = freq(phenotype | gene) / freq(""), therefore the evidence of gene against
+        all other genes reduces to the ratio of freq(phenotype | gene) and freq(phenotype | other genes), where
+        freq(phenotype | other genes) = freq(phenotype) - freq(phenotype | gene) is computed once per phenotype.
+     */
+    static double evidenceFromFreq(final int phenotypeGeneFreq, final int phenotypeFreq) {
+        if (phenotypeGeneFreq == 0) { // no evidence for either gene of phenotype | gene => max penalization for gene
+            return -CLIP_EVIDENCE;
+        }
 
-        return geneFreq == .0 ? .0 : phenotypeCondGeneFreq / geneFreq;
+        final int phenotypeOtherGenesFreq = phenotypeFreq - phenotypeGeneFreq;
+        if (phenotypeOtherGenesFreq == 0) { // no evidence for phenotype | other genes => max reward for gene
+            return CLIP_EVIDENCE;
+        }
+
+        return 10. * Math.log10((double) phenotypeGeneFreq / phenotypeOtherGenesFreq);
     }
 
-    private void load(final List<String> fileNameList) {
+    private static Counts load(final ModelContext context, final List<String> fileNameList, final GeneShard shard, final Counts.Builder builder) {
         // filter out duplicate file names
         final Set<String> fileNames = fileNameList.stream()
                                                   .map(Utils::getCanonicalPath)
                                                   .collect(Collectors.toSet());
 
         for (final String fileName : fileNames) {
-            loadFile(fileName);
+            loadFile(context, fileName, shard, builder);
         }
+
+        return builder.build();
     }
 
-    private void loadFile(final String fileName) {
+    static void loadFile(final ModelContext context, final String fileName, final GeneShard shard, final Counts.Builder builder) {
         final Box<Boolean> hasContent = new Box<>(false);
 
-        fileLineReader(fileName, (lineNo, row) -> {
-            final String[] columns = row.split("\\t");
-            if (columns.length < 3)
-                throw new RuntimeException("line must have at least 3 tab delimited columns: " +
-                        "PatientId, GeneId (Hugo or entrez code), and phenotype (HP code)");
-
-            final String geneId = GeneLexicon.toEntrez(columns[1]);
-            if (geneId == null) {
-                System.out.println("Skipping Unknown gene Id " + columns[1] +
-                        " (check the content of gene lexicon file: " + GeneLexicon.loadedFrom() + ")");
-                return;
-            }
+        builder.source(fileName);
+        fileLineReader(fileName, (lineNo, row) -> hasContent.value |= addCase(context, row, shard, builder));
 
-            // empty string denotes frequency of all cases
-            freq.compute("", (k, v) -> v == null ? 1 : v + 1);
-
-            genes.add(geneId);
-            // freq(Gene)
-            freq.compute(geneId, (k, v) -> v == null ? 1 : v + 1);
+        if (!hasContent.value)
+            throw new RuntimeException("no training cases available in file " + fileName);
+    }
 
-            final Set<String> phenotypes = new HashSet<>();
+    // adds training cases (learning file format) read from the stream; source is the name of the stream in messages
+    static void loadCases(final ModelContext context, final InputStream in, final String source, final Counts.Builder builder) {
+        final Box<Boolean> hasContent = new Box<>(false);
 
-            for (int i = 2; i < columns.length; ++i) {
-                final String phenotype = columns[i];
-                if (!phenotype.startsWith("HP:") || !isInteger(phenotype.substring(3)))
-                    throw new IllegalArgumentException("Illegal phenotype form: " + phenotype);
+        builder.source(source);
+        fileLineReader(in, (lineNo, row) -> hasContent.value |= addCase(context, row, GeneShard.ALL, builder));
 
-                phenotypes.addAll(hpo.ancestorSet(phenotype));
-            }
+        if (!hasContent.value)
+            throw new RuntimeException("no training cases available in " + source);
+    }
 
-            // freq(phenotype | Gene)
-            for (final String phenotype : phenotypes) {
-                freq.compute(phenotype + "|" + geneId, (k, v) -> v == null ? 1 : v + 1);
-            }
+    // adds training cases of patients of the index file of the patient directory
+    static PatientDirectory.Summary loadPatients(final ModelContext context, final PatientDirectory directory, final String indexFileName,
+                                                 final GeneShard shard, final Counts.Builder builder) {
+        final Box<Boolean> hasContent = new Box<>(false);
 
-            hasContent.value = true;
-        });
+        builder.source(indexFileName);
+        final PatientDirectory.Summary summary = directory.ingest(indexFileName, (patientId, geneId, phenotypes) ->
+            hasContent.value |= addCase(context, patientId, geneId, phenotypes, shard, builder)
+        );
 
         if (!hasContent.value)
-            throw new RuntimeException("no training cases available in file " + fileName);
+            throw new RuntimeException("no training cases available in patient index " + indexFileName);
+
+        return summary;
+    }
+
+    // false if the case was skipped
+    private static boolean addCase(final ModelContext context, final String row, final GeneShard shard, final Counts.Builder builder) {
+        final String[] columns = row.split("\\t");
+        if (columns.length < 3)
+            throw new RuntimeException("line must have at least 3 tab delimited columns: " +
+                    "PatientId, GeneId (Hugo or entrez code), and phenotype (HP code)");
+
+        return addCase(context, columns[0].trim(), columns[1], Arrays.asList(columns).subList(2, columns.length), shard, builder);
+    }
+
+    private static boolean addCase(final ModelContext context, final String caseId, final String gene, final List<String> phenotypeList,
+                                   final GeneShard shard, final Counts.Builder builder) {
+        final String geneId = context.lexicon().entrez(gene);
+        if (geneId == null) {
+            System.out.println("Skipping Unknown gene Id " + gene +
+                    " (check the content of gene lexicon file: " + context.lexicon().source() + ")");
+            return false;
+        }
+
+        final Set<Integer> phenotypes = new HashSet<>();
+
+        for (final String phenotype : phenotypeList) {
+            if (!phenotype.startsWith("HP:") || !isInteger(phenotype.substring(3)))
+                throw new IllegalArgumentException("Illegal phenotype form: " + phenotype);
+
+            for (final int ancestor : context.ancestors(phenotype))
+                phenotypes.add(ancestor);
+        }
+
+        final int[] phenotypeIds = phenotypes.stream().mapToInt(Integer::intValue).toArray();
+
+        // freq(""), freq(Gene) and freq(phenotype | Gene)
+        if (shard.contains(geneId))
+            builder.addCase(caseId, context.genes().intern(geneId), phenotypeIds);
+        else
+            builder.addExternalCase(phenotypeIds);
+
+        return true;
     }
 }
@@ -3,7 +3,6 @@ package main;
 import com.opencsv.CSVReader;
 
 import java.io.BufferedWriter;
-import java.io.File;
 import java.io.FileReader;
 import java.util.HashSet;
 import java.util.Locale;
@@ -121,48 +120,9 @@ public class Conversions
     }
 
 
+    // learning file of UKC patient index and per-patient phenotype files (see PatientDirectory)
     public static void UKC2WA(final String patientDataFileName, final String patientPhenotypeDir, final String outputFileName) {
-        fileWriter(outputFileName, f ->
-            fileLineReader(patientDataFileName, (lineNo, row) -> {
-                if (lineNo == 1)
-                    return;
-
-                final String[] columns = row.split("\\t");
-                if (columns.length < 3)
-                    throw new RuntimeException("Illegal number of columns");
-
-                final String patientId = columns[0];
-                final String patientFileName = patientPhenotypeDir + File.separator + patientId + ".tsv";
-                if (!fileExists(patientFileName)) {
-                    System.out.println("Missing patient file: " + patientFileName);
-                    return;
-                }
-
-                f.write(patientId + "\t" + columns[1]);
-                loadPhenotypes(patientFileName, f);
-                f.newLine();
-            })
-        );
-    }
-
-    private static void loadPhenotypes(final String fileName, final BufferedWriter f) {
-        fileLineReader(fileName, (lineNo, row) -> {
-            if (lineNo > 1)
-                return;
-
-            final String[] columns = row.split("\\t");
-            if (columns.length < 3)
-                throw new RuntimeException("Illegal number of columns");
-
-            for (int i = 3; i < columns.length - 1; ++i) {
-                String phenotype = columns[i].trim();
-                final int firstIdx = phenotype.indexOf(":");
-                final int lastIdx = phenotype.lastIndexOf(":");
-                if (lastIdx == firstIdx || lastIdx < 0)
-                    throw new RuntimeException("Illegal phenotyepeId: " + phenotype);
-                f.write("\t" + phenotype.substring(0, lastIdx));
-            }
-        });
+        System.err.println(new PatientDirectory(patientPhenotypeDir, PatientDirectory.DEFAULT_THREADS, false).toLearningFile(patientDataFileName, outputFileName));
     }
 
 
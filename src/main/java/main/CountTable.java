@@ -0,0 +1,232 @@
+package main;
+
+import java.util.Arrays;
+
+import static main.Utils.*;
+
+/*
+    Immutable training counts of a single model:
+        - freq("")               number of all training cases
+        - freq(gene)             number of cases with the gene
+        - freq(phenotype | gene) number of cases with the gene having phenotype (or its descendant)
+
+    Phenotype and gene ids are ids of the ModelContext intern tables; genes are additionally indexed
+    locally (0 .. geneCount() - 1) in the ascending order of their shared ids. freq(phenotype | gene)
+    is kept as sparse phenotype columns of local gene indices and counts.
+ */
+public class CountTable implements Counts
+{
+    private static final int[] EMPTY = new int[0];
+
+    private final int     cases;
+    private final int[]   genes;
+    private final int[]   geneFreq;
+    private final int[][] columnGenes;
+    private final int[][] columnCounts;
+    private final int[]   columnTotals;
+
+    private CountTable(final int cases, final int[] genes, final int[] geneFreq, final int[][] columnGenes, final int[][] columnCounts, final int[] columnTotals) {
+        this.cases        = cases;
+        this.genes        = genes;
+        this.geneFreq     = geneFreq;
+        this.columnGenes  = columnGenes;
+        this.columnCounts = columnCounts;
+        this.columnTotals = columnTotals;
+    }
+
+    @Override public int cases()               { return cases;        }
+    @Override public int geneCount()           { return genes.length; }
+    @Override public int gene(final int i)     { return genes[i];     }
+    @Override public int geneFreq(final int i) { return geneFreq[i];  }
+
+    @Override
+    public int indexOf(final int geneId) {
+        final int i = Arrays.binarySearch(genes, geneId);
+        return i < 0 ? -1 : i;
+    }
+
+    @Override
+    public int count(final int phenotypeId, final int i) {
+        final int[] column = columnGenes(phenotypeId);
+        final int   j      = Arrays.binarySearch(column, i);
+
+        return j < 0 ? 0 : columnCounts[phenotypeId][j];
+    }
+
+    @Override
+    public int phenotypeCount() { return columnGenes.length; }
+
+    /*
+        freq(phenotype): sum of freq(phenotype | gene) over all genes; for a table holding only a shard of genes
+        the total also includes genes of other shards
+     */
+    @Override
+    public int columnTotal(final int phenotypeId) {
+        return phenotypeId < 0 || phenotypeId >= columnTotals.length ? 0 : columnTotals[phenotypeId];
+    }
+
+    @Override
+    public int[] columnGenes(final int phenotypeId) {
+        return phenotypeId < 0 || phenotypeId >= columnGenes.length || columnGenes[phenotypeId] == null ? EMPTY : columnGenes[phenotypeId];
+    }
+
+    @Override
+    public int[] columnCounts(final int phenotypeId) {
+        return phenotypeId < 0 || phenotypeId >= columnCounts.length || columnCounts[phenotypeId] == null ? EMPTY : columnCounts[phenotypeId];
+    }
+
+    @Override
+    public long entries() {
+        long result = 0;
+        for (final int[] column : columnGenes)
+            result += column == null ? 0 : column.length;
+
+        return result;
+    }
+
+    @Override
+    public long bytes() {
+        return 8L * entries() + 20L * columnGenes.length + 8L * genes.length;
+    }
+
+    public static class Builder implements Counts.Builder
+    {
+        private int              cases        = 0;
+        private int[]            geneFreq     = new int[1024];
+        private int[]            columnTotals = new int[1024];
+        private final LongIntMap pairs        = new LongIntMap(1 << 16);
+
+        public Builder() {}
+
+        @Override
+        public void addCase(final int geneId, final int[] phenotypeIds) {
+            add(geneId, 1);
+            for (final int phenotypeId : phenotypeIds)
+                add(phenotypeId, geneId, 1);
+        }
+
+        public void add(final int geneId, final int delta) {
+            if (geneId >= geneFreq.length)
+                geneFreq = Arrays.copyOf(geneFreq, Math.max(geneId + 1, 2 * geneFreq.length));
+
+            geneFreq[geneId] += delta;
+            cases += delta;
+        }
+
+        public void add(final int phenotypeId, final int geneId, final int delta) {
+            pairs.add(key(phenotypeId, geneId), delta);
+            addTotal(phenotypeId, delta);
+        }
+
+        @Override
+        public void addExternalCase(final int[] phenotypeIds) {
+            ++cases;
+            for (final int phenotypeId : phenotypeIds)
+                addTotal(phenotypeId, 1);
+        }
+
+        // freq(phenotype) of cases of genes which are not kept in the counts
+        public void addTotal(final int phenotypeId, final int delta) {
+            if (phenotypeId >= columnTotals.length)
+                columnTotals = Arrays.copyOf(columnTotals, Math.max(phenotypeId + 1, 2 * columnTotals.length));
+
+            columnTotals[phenotypeId] += delta;
+        }
+
+        // freq("") of cases of genes which are not kept in the counts
+        public void addCases(final int delta) {
+            cases += delta;
+        }
+
+        public int cases() { return cases; }
+
+        @Override
+        public CountTable build() {
+            if (cases < 0)
+                throw new RuntimeException("negative number of cases");
+            for (final int total : columnTotals)
+                if (total < 0)
+                    throw new RuntimeException("negative phenotype frequency");
+
+            // local gene indices
+            int geneCount = 0;
+            for (final int f : geneFreq) {
+                if (f < 0)
+                    throw new RuntimeException("negative gene frequency");
+                if (f > 0)
+                    ++geneCount;
+            }
+
+            final int[] genes        = new int[geneCount];
+            final int[] freq         = new int[geneCount];
+            final int[] localIndices = new int[geneFreq.length];
+            for (int id = 0, i = 0; id < geneFreq.length; ++id) {
+                localIndices[id] = -1;
+                if (geneFreq[id] == 0)
+                    continue;
+
+                genes[i]         = id;
+                freq[i]          = geneFreq[id];
+                localIndices[id] = i++;
+            }
+
+            // phenotype column sizes
+            final Box<Integer> maxPhenotypeId = new Box<>(-1);
+            pairs.forEach((key, value) -> {
+                if (value < 0)
+                    throw new RuntimeException("negative phenotype | gene frequency");
+                maxPhenotypeId.value = Math.max(maxPhenotypeId.value, phenotypeOf(key));
+            });
+
+            final int[] sizes = new int[Math.max(maxPhenotypeId.value + 1, columnTotals.length)];
+            pairs.forEach((key, value) -> {
+                if (value > 0 && localIndex(localIndices, geneOf(key)) >= 0)
+                    ++sizes[phenotypeOf(key)];
+            });
+
+            // packed (local gene index, count) entries, sorted by local gene index within a column
+            final long[][] packed = new long[sizes.length][];
+            final int[]    filled = new int[sizes.length];
+            for (int i = 0; i < sizes.length; ++i)
+                packed[i] = sizes[i] == 0 ? null : new long[sizes[i]];
+
+            pairs.forEach((key, value) -> {
+                final int i = localIndex(localIndices, geneOf(key));
+                if (value <= 0 || i < 0)
+                    return;
+
+                final int phenotypeId = phenotypeOf(key);
+                packed[phenotypeId][filled[phenotypeId]++] = ((long) i << 32) | value;
+            });
+
+            final int[][] columnGenes  = new int[sizes.length][];
+            final int[][] columnCounts = new int[sizes.length][];
+            for (int p = 0; p < sizes.length; ++p) {
+                if (packed[p] == null)
+                    continue;
+
+                Arrays.sort(packed[p]);
+                columnGenes[p]  = new int[packed[p].length];
+                columnCounts[p] = new int[packed[p].length];
+                for (int j = 0; j < packed[p].length; ++j) {
+                    columnGenes[p][j]  = (int) (packed[p][j] >>> 32);
+                    columnCounts[p][j] = (int) packed[p][j];
+                }
+                packed[p] = null;
+            }
+
+            return new CountTable(cases, genes, freq, columnGenes, columnCounts, Arrays.copyOf(columnTotals, sizes.length));
+        }
+
+        private static int localIndex(final int[] localIndices, final int geneId) {
+            return geneId < localIndices.length ? localIndices[geneId] : -1;
+        }
+    }
+
+    static long key(final int phenotypeId, final int geneId) {
+        return ((long) phenotypeId << 32) | (geneId & 0xFFFFFFFFL);
+    }
+
+    static int phenotypeOf(final long key) { return (int) (key >>> 32); }
+    static int geneOf(final long key)      { return (int) key;          }
+}
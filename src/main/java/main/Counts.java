@@ -0,0 +1,58 @@
+package main;
+
+/*
+    Training counts of a single model (see CountTable for the meaning of counts and indices).
+    Implemented on-heap by CountTable and out-of-core by DiskCountStore.
+ */
+public interface Counts
+{
+    int cases();
+    int geneCount();
+
+    // shared gene id of gene with local index i
+    int gene(int i);
+    int geneFreq(int i);
+
+    // local index of gene with shared id or -1 if the model has no cases with the gene
+    int indexOf(int geneId);
+
+    // freq(phenotype | gene) of gene with local index i
+    int count(int phenotypeId, int i);
+
+    // number of phenotype ids covered by the counts
+    int phenotypeCount();
+
+    // freq(phenotype)
+    int columnTotal(int phenotypeId);
+
+    // local gene indices with freq(phenotype | gene) > 0 in ascending order
+    int[] columnGenes(int phenotypeId);
+
+    // freq(phenotype | gene), parallel to columnGenes(phenotypeId)
+    int[] columnCounts(int phenotypeId);
+
+    // number of phenotype | gene counts
+    long entries();
+
+    // rough estimate of heap used by the counts
+    long bytes();
+
+    interface Builder
+    {
+        // single training case; phenotypes must be distinct
+        void addCase(int geneId, int[] phenotypeIds);
+
+        // single training case with its patient id (see CaseIndex); phenotypes must be distinct
+        default void addCase(final String caseId, final int geneId, final int[] phenotypeIds) {
+            addCase(geneId, phenotypeIds);
+        }
+
+        // learning file (or stream) of the following cases
+        default void source(final String source) {}
+
+        // case of a gene which is not kept in the counts (e.g. gene of another shard); counted only in freq("") and freq(phenotype)
+        void addExternalCase(int[] phenotypeIds);
+
+        Counts build();
+    }
+}
@@ -0,0 +1,425 @@
+package main;
+
+import java.io.*;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+
+/*
+    Out-of-core training counts. freq(phenotype | gene) counts are stored in a memory-mapped file as phenotype
+    columns in ascending phenotype order; a column is a block of varint encoded (gene index delta, count) pairs.
+    Only a small index (file offset, number of entries and freq(phenotype) per phenotype) and gene frequencies
+    are kept on heap, so queries read only the columns of the query phenotypes from the page cache. A skip index
+    (first gene and file offset of every SKIP_ENTRIES entries of a column) lets point lookups (count) decode a
+    single block instead of the whole column.
+
+    Builder keeps at most maxEntries counts on heap; whenever the limit is reached, the counts are spilled to
+    a sorted run file. Runs are merged by an external k-way merge into the final store file.
+ */
+public class DiskCountStore implements Counts
+{
+    public static final int DEFAULT_MAX_ENTRIES = 2_000_000;
+
+    private static final long SEGMENT_SIZE = 1L << 30;
+    private static final int  SKIP_ENTRIES = 128;
+
+    private final int                     cases;
+    private final int[]                   genes;
+    private final int[]                   geneFreq;
+    private final long[]                  columnOffsets;
+    private final int[]                   columnEntries;
+    private final int[]                   columnTotals;
+    private final int[]                   columnSkips; // index of the first skip of the column
+    private final SkipIndex               skips;
+    private final long                    entries;
+    private final List<MappedByteBuffer>  segments = new ArrayList<>();
+    private final ThreadLocal<Column>     lastColumn = ThreadLocal.withInitial(() -> new Column(-1, new int[0], new int[0]));
+
+    private DiskCountStore(final File file,
+                           final int cases, final int[] genes, final int[] geneFreq,
+                           final long[] columnOffsets, final int[] columnEntries, final int[] columnTotals,
+                           final int[] columnSkips, final SkipIndex skips) {
+        this.cases         = cases;
+        this.genes         = genes;
+        this.geneFreq      = geneFreq;
+        this.columnOffsets = columnOffsets;
+        this.columnEntries = columnEntries;
+        this.columnTotals  = columnTotals;
+        this.columnSkips   = columnSkips;
+        this.skips         = skips;
+
+        long n = 0;
+        for (final int e : columnEntries)
+            n += e;
+        entries = n;
+
+        try (final FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            for (long offset = 0; offset < channel.size(); offset += SEGMENT_SIZE)
+                segments.add(channel.map(FileChannel.MapMode.READ_ONLY, offset, Math.min(SEGMENT_SIZE, channel.size() - offset)));
+        }
+        catch (IOException e) {
+            throw new RuntimeException("Error mapping count store " + file + ": " + e.getMessage());
+        }
+    }
+
+    @Override public int cases()               { return cases;        }
+    @Override public int geneCount()           { return genes.length; }
+    @Override public int gene(final int i)     { return genes[i];     }
+    @Override public int geneFreq(final int i) { return geneFreq[i];  }
+    @Override public int phenotypeCount()      { return columnOffsets.length; }
+    @Override public long entries()            { return entries;      }
+
+    @Override
+    public int indexOf(final int geneId) {
+        final int i = Arrays.binarySearch(genes, geneId);
+        return i < 0 ? -1 : i;
+    }
+
+    // decodes only the block of the gene unless the column is the last decoded column
+    @Override
+    public int count(final int phenotypeId, final int i) {
+        final Column last = lastColumn.get();
+        if (last.phenotypeId == phenotypeId) {
+            final int j = Arrays.binarySearch(last.genes, i);
+            return j < 0 ? 0 : last.counts[j];
+        }
+
+        final int n = phenotypeId < 0 || phenotypeId >= columnEntries.length ? 0 : columnEntries[phenotypeId];
+        if (n == 0)
+            return 0;
+
+        // last block starting at or before gene i
+        final int first = columnSkips[phenotypeId];
+        final int k     = skips.search(first, first + (n + SKIP_ENTRIES - 1) / SKIP_ENTRIES, i);
+        if (k < first)
+            return 0;
+
+        final long[] offset = { skips.offsets[k] };
+        final int    block  = Math.min(SKIP_ENTRIES, n - (k - first) * SKIP_ENTRIES);
+        int          gene   = skips.genes[k];
+        for (int j = 0; ; ) {
+            final int count = readVarint(offset);
+            if (gene >= i)
+                return gene == i ? count : 0;
+            if (++j == block)
+                return 0;
+
+            gene += readVarint(offset);
+        }
+    }
+
+    @Override
+    public int columnTotal(final int phenotypeId) {
+        return phenotypeId < 0 || phenotypeId >= columnTotals.length ? 0 : columnTotals[phenotypeId];
+    }
+
+    @Override public int[] columnGenes(final int phenotypeId)  { return column(phenotypeId).genes;  }
+    @Override public int[] columnCounts(final int phenotypeId) { return column(phenotypeId).counts; }
+
+    @Override
+    public long bytes() {
+        return 24L * columnOffsets.length + 8L * genes.length + 12L * skips.size;
+    }
+
+    // first gene of a block and file offset of its count, for blocks of all columns in column order
+    private static class SkipIndex
+    {
+        long[] offsets = new long[1024];
+        int[]  genes   = new int[1024];
+        int    size    = 0;
+
+        void add(final int gene, final long offset) {
+            if (size == genes.length) {
+                offsets = Arrays.copyOf(offsets, 2 * size);
+                genes   = Arrays.copyOf(genes, 2 * size);
+            }
+            genes[size]     = gene;
+            offsets[size++] = offset;
+        }
+
+        // last skip of [from, to) with first gene <= gene; from - 1 if there is none
+        int search(final int from, final int to, final int gene) {
+            final int k = Arrays.binarySearch(genes, from, to, gene);
+            return k >= 0 ? k : -k - 2;
+        }
+    }
+
+    private static class Column
+    {
+        final int   phenotypeId;
+        final int[] genes;
+        final int[] counts;
+
+        Column(final int phenotypeId, final int[] genes, final int[] counts) {
+            this.phenotypeId = phenotypeId;
+            this.genes       = genes;
+            this.counts      = counts;
+        }
+    }
+
+    // decoded column; the last decoded column is cached per thread since genes and counts are usually read together
+    private Column column(final int phenotypeId) {
+        final Column last = lastColumn.get();
+        if (last.phenotypeId == phenotypeId)
+            return last;
+
+        final int     n      = phenotypeId < 0 || phenotypeId >= columnEntries.length ? 0 : columnEntries[phenotypeId];
+        final int[]   genes  = new int[n];
+        final int[]   counts = new int[n];
+        final long[]  offset = { n == 0 ? 0 : columnOffsets[phenotypeId] };
+
+        int gene = 0;
+        for (int j = 0; j < n; ++j) {
+            gene     += readVarint(offset);
+            genes[j]  = gene;
+            counts[j] = readVarint(offset);
+        }
+
+        final Column result = new Column(phenotypeId, genes, counts);
+        lastColumn.set(result);
+        return result;
+    }
+
+    private int readVarint(final long[] offset) {
+        int result = 0;
+        for (int shift = 0; ; shift += 7) {
+            final long position = offset[0]++;
+            final byte b = segments.get((int) (position / SEGMENT_SIZE)).get((int) (position % SEGMENT_SIZE));
+
+            result |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0)
+                return result;
+        }
+    }
+
+    private static void writeVarint(final OutputStream out, int value) throws IOException {
+        while ((value & ~0x7F) != 0) {
+            out.write((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.write(value);
+    }
+
+    public static class Builder implements Counts.Builder
+    {
+        private final File directory;
+        private final int  maxEntries;
+
+        private int        cases        = 0;
+        private int[]      geneFreq     = new int[1024];
+        private int[]      columnTotals = new int[1024];
+        private LongIntMap pairs;
+        private final List<File> runs = new ArrayList<>();
+
+        // store and run files are created in directory
+        public Builder(final String directory, final int maxEntries) {
+            if (maxEntries < 1)
+                throw new IllegalArgumentException("max number of in-memory counts must be greater than 0");
+
+            this.directory  = new File(directory);
+            this.maxEntries = maxEntries;
+            this.pairs      = new LongIntMap(Math.min(maxEntries, 1 << 16));
+
+            if (!this.directory.isDirectory() && !this.directory.mkdirs())
+                throw new RuntimeException("Error creating count store directory " + directory);
+        }
+
+        @Override
+        public void addCase(final int geneId, final int[] phenotypeIds) {
+            if (geneId >= geneFreq.length)
+                geneFreq = Arrays.copyOf(geneFreq, Math.max(geneId + 1, 2 * geneFreq.length));
+
+            ++geneFreq[geneId];
+            ++cases;
+
+            for (final int phenotypeId : phenotypeIds) {
+                pairs.add(CountTable.key(phenotypeId, geneId), 1);
+                addTotal(phenotypeId);
+            }
+
+            if (pairs.size() >= maxEntries)
+                spill();
+        }
+
+        @Override
+        public void addExternalCase(final int[] phenotypeIds) {
+            ++cases;
+            for (final int phenotypeId : phenotypeIds)
+                addTotal(phenotypeId);
+        }
+
+        private void addTotal(final int phenotypeId) {
+            if (phenotypeId >= columnTotals.length)
+                columnTotals = Arrays.copyOf(columnTotals, Math.max(phenotypeId + 1, 2 * columnTotals.length));
+
+            ++columnTotals[phenotypeId];
+        }
+
+        // sorted run of in-memory counts: (key, count) records
+        private void spill() {
+            if (pairs.size() == 0)
+                return;
+
+            final long[] keys = new long[pairs.size()];
+            final int[]  n    = { 0 };
+            pairs.forEach((key, value) -> keys[n[0]++] = key);
+            Arrays.sort(keys);
+
+            try {
+                final File run = File.createTempFile("wa-run-", ".bin", directory);
+                run.deleteOnExit();
+
+                try (final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(run), 1 << 16))) {
+                    for (final long key : keys) {
+                        out.writeLong(key);
+                        out.writeInt(pairs.get(key));
+                    }
+                }
+
+                runs.add(run);
+            }
+            catch (IOException e) {
+                throw new RuntimeException("Error spilling counts to " + directory + ": " + e.getMessage());
+            }
+
+            pairs = new LongIntMap(Math.min(maxEntries, 1 << 16));
+        }
+
+        @Override
+        public DiskCountStore build() {
+            spill();
+            pairs = null;
+
+            // local gene indices
+            int geneCount = 0;
+            for (final int f : geneFreq)
+                if (f > 0)
+                    ++geneCount;
+
+            final int[] genes        = new int[geneCount];
+            final int[] freq         = new int[geneCount];
+            final int[] localIndices = new int[geneFreq.length];
+            for (int id = 0, i = 0; id < geneFreq.length; ++id) {
+                localIndices[id] = -1;
+                if (geneFreq[id] == 0)
+                    continue;
+
+                genes[i]         = id;
+                freq[i]          = geneFreq[id];
+                localIndices[id] = i++;
+            }
+
+            final long[]    columnOffsets = new long[columnTotals.length];
+            final int[]     columnEntries = new int[columnTotals.length];
+            final int[]     columnSkips   = new int[columnTotals.length];
+            final SkipIndex skips         = new SkipIndex();
+
+            try {
+                final File store = File.createTempFile("wa-counts-", ".bin", directory);
+                store.deleteOnExit();
+
+                try (final CountingOutputStream out = new CountingOutputStream(new BufferedOutputStream(new FileOutputStream(store), 1 << 16))) {
+                    merge((key, value) -> {
+                        final int phenotypeId = CountTable.phenotypeOf(key);
+                        final int gene        = localIndices[CountTable.geneOf(key)];
+
+                        if (columnEntries[phenotypeId] == 0) {
+                            columnOffsets[phenotypeId] = out.count;
+                            columnSkips[phenotypeId]   = skips.size;
+                        }
+
+                        // gene indices are ascending within a column; the first entry is written as delta from 0
+                        writeVarint(out, gene - out.lastGene(phenotypeId, gene));
+                        if (columnEntries[phenotypeId] % SKIP_ENTRIES == 0)
+                            skips.add(gene, out.count);
+                        writeVarint(out, value);
+                        ++columnEntries[phenotypeId];
+                    });
+                }
+
+                for (final File run : runs)
+                    Files.deleteIfExists(run.toPath());
+
+                return new DiskCountStore(store, cases, genes, freq, columnOffsets, columnEntries, Arrays.copyOf(columnTotals, columnTotals.length),
+                                          columnSkips, skips);
+            }
+            catch (IOException e) {
+                throw new RuntimeException("Error building count store in " + directory + ": " + e.getMessage());
+            }
+        }
+
+        private interface MergeVisitor {
+            void accept(long key, int value) throws IOException;
+        }
+
+        // k-way merge of sorted runs; counts of equal keys are summed
+        private void merge(final MergeVisitor visitor) throws IOException {
+            final List<DataInputStream> inputs = new ArrayList<>();
+            final PriorityQueue<long[]> heap   = new PriorityQueue<>((a, b) -> Long.compare(a[0], b[0])); // key, count, run
+
+            try {
+                for (int r = 0; r < runs.size(); ++r) {
+                    inputs.add(new DataInputStream(new BufferedInputStream(new FileInputStream(runs.get(r)), 1 << 16)));
+                    next(inputs.get(r), r, heap);
+                }
+
+                while (!heap.isEmpty()) {
+                    final long key   = heap.peek()[0];
+                    long       value = 0;
+
+                    while (!heap.isEmpty() && heap.peek()[0] == key) {
+                        final long[] top = heap.poll();
+                        value += top[1];
+                        next(inputs.get((int) top[2]), (int) top[2], heap);
+                    }
+
+                    if (value > 0)
+                        visitor.accept(key, (int) value);
+                }
+            }
+            finally {
+                for (final DataInputStream input : inputs)
+                    input.close();
+            }
+        }
+
+        private static void next(final DataInputStream input, final int run, final PriorityQueue<long[]> heap) throws IOException {
+            try {
+                final long key   = input.readLong();
+                final int  value = input.readInt();
+                heap.add(new long[]{ key, value, run });
+            }
+            catch (EOFException e) {
+                // run exhausted
+            }
+        }
+    }
+
+    // output stream tracking the number of written bytes and the last gene written to the current column
+    private static class CountingOutputStream extends FilterOutputStream
+    {
+        long count = 0;
+
+        private int phenotypeId = -1;
+        private int gene        = 0;
+
+        CountingOutputStream(final OutputStream out) { super(out); }
+
+        @Override
+        public void write(final int b) throws IOException {
+            out.write(b);
+            ++count;
+        }
+
+        // previous gene of the column (0 for the first gene), then remembers gene as the last one
+        int lastGene(final int phenotypeId, final int gene) {
+            final int result = phenotypeId == this.phenotypeId ? this.gene : 0;
+
+            this.phenotypeId = phenotypeId;
+            this.gene        = gene;
+            return result;
+        }
+    }
+}
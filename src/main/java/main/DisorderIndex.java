@@ -0,0 +1,212 @@
+package main;
+
+import java.io.InputStream;
+import java.util.*;
+
+import static main.Utils.*;
+
+/*
+    Sparse disorder -> gene index of a model compiled from disorder-gene file (OMIM disorder id and its gene symbols
+    per line, comma separated).
+    Gene symbols are resolved through the gene lexicon of the model context; genes unknown to the lexicon or absent
+    from the model are skipped, disorders without model genes are left out.
+
+    Disorder scores are aggregated from gene plausibilities of a prioritization of all genes:
+        MAX     plausibility of the most plausible gene of the disorder
+        LOG_SUM 10 log10(sum over genes of the disorder of 10^(plausibility / 10)), i.e. the sum of gene odds in dB
+
+    Disorders are ranked by decreasing score and increasing disorder id.
+ */
+public class DisorderIndex
+{
+    public static final String DEFAULT_FILE = "./data/disorder-gene.csv";
+
+    public enum Aggregation
+    {
+        MAX, LOG_SUM;
+
+        // max or logsum (case insensitive)
+        public static Aggregation parse(final String s) {
+            switch (s.toLowerCase()) {
+                case "max"    : return MAX;
+                case "logsum" : return LOG_SUM;
+                default       : throw new RuntimeException("Illegal disorder score aggregation " + s + " (possible values: max, logsum)");
+            }
+        }
+    }
+
+    private final Classifier classifier;
+    private final String[]   disorders;     // sorted disorder ids
+    private final int[][]    disorderGenes; // local gene indices of disorder
+    private final int[][]    geneDisorders; // disorder indices of gene (local gene index)
+    private final int        maxGenes;      // max number of genes of a disorder
+
+    public DisorderIndex(final Classifier classifier, final String fileName) {
+        this(classifier, read(classifier, rows -> fileLineReader(fileName, rows), fileName));
+    }
+
+    // source is the name of the stream in messages
+    public DisorderIndex(final Classifier classifier, final InputStream in, final String source) {
+        this(classifier, read(classifier, rows -> fileLineReader(in, rows), source));
+    }
+
+    private DisorderIndex(final Classifier classifier, final SortedMap<String, SortedSet<Integer>> index) {
+        this.classifier = classifier;
+
+        disorders     = index.keySet().toArray(new String[0]);
+        disorderGenes = new int[disorders.length][];
+
+        final int[] geneDisorderCount = new int[classifier.counts().geneCount()];
+        int max = 0;
+        for (int d = 0; d < disorders.length; ++d) {
+            disorderGenes[d] = index.get(disorders[d]).stream().mapToInt(Integer::intValue).toArray();
+            max = Math.max(max, disorderGenes[d].length);
+
+            for (final int i : disorderGenes[d])
+                ++geneDisorderCount[i];
+        }
+        maxGenes = max;
+
+        geneDisorders = new int[geneDisorderCount.length][];
+        for (int i = 0; i < geneDisorders.length; ++i)
+            geneDisorders[i] = new int[geneDisorderCount[i]];
+
+        final int[] position = new int[geneDisorders.length];
+        for (int d = 0; d < disorders.length; ++d)
+            for (final int i : disorderGenes[d])
+                geneDisorders[i][position[i]++] = d;
+    }
+
+    private interface RowReader {
+        void read(ThrowableBiConsumer<Integer, String> rows);
+    }
+
+    private static SortedMap<String, SortedSet<Integer>> read(final Classifier classifier, final RowReader reader, final String source) {
+        final SortedMap<String, SortedSet<Integer>> result  = new TreeMap<>();
+        final Box<Integer>                          skipped = new Box<>(0);
+
+        reader.read((lineNo, row) -> {
+            if (row.trim().isEmpty())
+                return;
+
+            final String[] columns = row.split(",");
+            if (columns.length < 2)
+                throw new RuntimeException("line " + lineNo + " of " + source + " must have at least 2 comma separated columns: disorder id and gene symbols");
+
+            for (int j = 1; j < columns.length; ++j) {
+                final String symbol = columns[j].trim();
+                if (symbol.isEmpty())
+                    continue;
+
+                final String entrezId  = classifier.context().lexicon().entrez(symbol);
+                final int    geneIndex = entrezId == null ? -1 : classifier.geneIndex(entrezId);
+                if (geneIndex < 0) {
+                    ++skipped.value;
+                    continue;
+                }
+
+                result.computeIfAbsent(columns[0].trim(), k -> new TreeSet<>()).add(geneIndex);
+            }
+        });
+
+        if (skipped.value > 0)
+            System.out.println("Skipped " + skipped.value + " disorder genes of " + source + " unknown to gene lexicon or absent from the model");
+
+        return result;
+    }
+
+    public Classifier classifier() { return classifier; }
+
+    public int size() { return disorders.length; }
+
+    public String disorder(final int d) { return disorders[d]; }
+
+    // local gene indices of disorder d
+    public int[] genes(final int d) { return disorderGenes[d].clone(); }
+
+    /*
+        Top maxDisorders disorders (all disorders if maxDisorders is null) of a prioritization of all genes.
+        Genes are visited in rank order and a disorder is scored when its first gene is visited; visiting stops once
+        no disorder of the remaining genes can make it into the top disorders, so only a part of disorders is scored.
+     */
+    public DisorderPrioritization prioritize(final Prioritization genes, final Integer maxDisorders, final Aggregation aggregation) {
+        if (genes.classifier() != classifier)
+            throw new IllegalArgumentException("gene prioritization of another model");
+        if (genes.size() != classifier.counts().geneCount())
+            throw new IllegalArgumentException("disorder prioritization needs prioritization of all genes");
+
+        final double[] geneScores = new double[genes.size()];
+        final int[]    geneRanks  = new int[genes.size()];
+        for (int rank = 0; rank < genes.size(); ++rank) {
+            geneScores[genes.geneIndex(rank)] = genes.plausibility(rank);
+            geneRanks[genes.geneIndex(rank)]  = rank;
+        }
+
+        // upper bound of disorder score over the plausibility of its most plausible gene
+        final double excess = aggregation == Aggregation.MAX ? .0 : 10. * Math.log10(Math.max(1, maxGenes));
+        final int    k      = maxDisorders == null ? disorders.length : Math.min(maxDisorders, disorders.length);
+
+        // top disorders; heap with the worst of them at the root
+        final PriorityQueue<double[]> top    = new PriorityQueue<>((a, b) -> -compare(a[1], b[1], (int) a[0], (int) b[0]));
+        final boolean[]               scored = new boolean[disorders.length];
+
+        for (int rank = 0; rank < genes.size() && k > 0; ++rank) {
+            // tolerance for rounding of aggregated scores
+            if (top.size() == k && top.peek()[1] > genes.plausibility(rank) + excess + 1e-9)
+                break;
+
+            for (final int d : geneDisorders[genes.geneIndex(rank)]) {
+                if (scored[d])
+                    continue;
+
+                scored[d] = true;
+                top.add(new double[]{ d, score(d, geneScores, aggregation) });
+                if (top.size() > k)
+                    top.poll();
+            }
+        }
+
+        final List<double[]> ranked = new ArrayList<>(top);
+        ranked.sort((a, b) -> compare(a[1], b[1], (int) a[0], (int) b[0]));
+
+        final int[]    order  = new int[ranked.size()];
+        final double[] scores = new double[ranked.size()];
+        final int[][]  ranks  = new int[ranked.size()][];
+        for (int r = 0; r < order.length; ++r) {
+            order[r]  = (int) ranked.get(r)[0];
+            scores[r] = ranked.get(r)[1];
+
+            // gene ranks of the disorder, most plausible gene first
+            ranks[r] = new int[disorderGenes[order[r]].length];
+            for (int j = 0; j < ranks[r].length; ++j)
+                ranks[r][j] = geneRanks[disorderGenes[order[r]][j]];
+            Arrays.sort(ranks[r]);
+        }
+
+        return new DisorderPrioritization(this, genes, order, scores, ranks);
+    }
+
+    private double score(final int d, final double[] geneScores, final Aggregation aggregation) {
+        double max = Double.NEGATIVE_INFINITY;
+        for (final int i : disorderGenes[d])
+            max = Math.max(max, geneScores[i]);
+
+        if (aggregation == Aggregation.MAX)
+            return max;
+
+        // log-sum-exp relative to max
+        double sum = .0;
+        for (final int i : disorderGenes[d])
+            sum += Math.pow(10., (geneScores[i] - max) / 10.);
+
+        return max + 10. * Math.log10(sum);
+    }
+
+    // decreasing score, increasing disorder id
+    private int compare(final double s1, final double s2, final int d1, final int d2) {
+        if (s1 < s2) return 1;
+        if (s2 < s1) return -1;
+
+        return disorders[d1].compareTo(disorders[d2]);
+    }
+}
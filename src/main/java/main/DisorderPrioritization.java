@@ -0,0 +1,49 @@
+package main;
+
+/*
+    Columnar result of disorder prioritization (see DisorderIndex): disorders in rank order with their scores and
+    ranks of their genes in the gene prioritization the scores were aggregated from.
+ */
+public class DisorderPrioritization
+{
+    private final DisorderIndex  index;
+    private final Prioritization genes;
+    private final int[]          order;     // disorder indices of the index in rank order
+    private final double[]       scores;
+    private final int[][]        geneRanks; // gene ranks of disorder at rank, most plausible gene first
+
+    DisorderPrioritization(final DisorderIndex index, final Prioritization genes, final int[] order, final double[] scores, final int[][] geneRanks) {
+        this.index     = index;
+        this.genes     = genes;
+        this.order     = order;
+        this.scores    = scores;
+        this.geneRanks = geneRanks;
+    }
+
+    public int size() { return order.length; }
+
+    // gene prioritization the disorder scores are aggregated from
+    public Prioritization genes() { return genes; }
+
+    // disorder id at rank (0 based)
+    public String disorder(final int rank) { return index.disorder(order[rank]); }
+
+    public double score(final int rank) { return scores[rank]; }
+
+    // number of genes of disorder at rank
+    public int geneCount(final int rank) { return geneRanks[rank].length; }
+
+    // rank in genes() of the j-th most plausible gene of disorder at rank
+    public int geneRank(final int rank, final int j) { return geneRanks[rank][j]; }
+
+    // Entrez id of the j-th most plausible gene of disorder at rank
+    public String gene(final int rank, final int j) { return genes.gene(geneRanks[rank][j]); }
+
+    /*
+        per-phenotype breakdown of the most plausible gene of disorder at rank, parallel to genes().phenotypes();
+        the returned array is a per-thread scratch buffer (see Prioritization.plausibilityByPhenotype)
+     */
+    public double[] plausibilityByPhenotype(final int rank) {
+        return genes.plausibilityByPhenotype(geneRanks[rank][0]);
+    }
+}
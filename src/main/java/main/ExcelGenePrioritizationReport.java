@@ -3,52 +3,196 @@ package main;
 import org.apache.poi.ss.usermodel.*;
 import org.apache.poi.ss.util.CellRangeAddress;
 import org.apache.poi.ss.util.CellReference;
+import org.apache.poi.xssf.streaming.SXSSFSheet;
+import org.apache.poi.xssf.streaming.SXSSFWorkbook;
 import org.apache.poi.xssf.usermodel.XSSFWorkbook;
 
+import java.io.File;
 import java.io.FileOutputStream;
 import java.math.BigDecimal;
 import java.text.SimpleDateFormat;
 import java.time.LocalDate;
-import java.util.Date;
-import java.util.List;
-import java.util.Locale;
-import java.util.Set;
+import java.util.*;
+import java.util.concurrent.*;
 
-import static main.GeneLexicon.*;
 import static main.Utils.*;
 
 public class ExcelGenePrioritizationReport
 {
+    private static final int ROW_WINDOW = 100; // rows of a streamed heatmap kept in memory
+
     public ExcelGenePrioritizationReport() {}
 
-    public void ExcelReport(final List<GenePlausibility> genePlausibilities,
-                            final Set<String> phenotypes,
+    // loads POI classes ahead of the first report (e.g. concurrently with training)
+    public static void warmUp() {
+        try (final Workbook workbook = new XSSFWorkbook()) {
+            createSheet(workbook, 2, 1);
+        }
+        catch (Exception e) {
+            // the report will fail with the same error
+        }
+    }
+
+    public void ExcelReport(final Prioritization prioritization,
+                            final Integer maxEntries,
+                            final String geneIdType,
+                            final String fileName) {
+        try (final Workbook workbook = new XSSFWorkbook();
+            final FileOutputStream out = new FileOutputStream(fileName)) {
+
+            report(workbook, prioritization, maxEntries, geneIdType);
+            workbook.write(out);
+        }
+        catch (Exception e) {
+            throw new RuntimeException(e.getMessage());
+        }
+    }
+
+    /*
+        Heatmap of every patient of the prioritization file (-p file format) saved to directory as <patient id>.xlsx;
+        returns the number of heatmaps. Patients are prioritized and rendered in parallel by threads workers with at
+        most 2 * threads patients in flight. Heatmaps are streamed to files keeping only ROW_WINDOW rows in memory,
+        so memory of a worker does not grow with maxEntries.
+     */
+    public int ExcelReports(final Classifier classifier,
+                            final String patientsFileName,
+                            final String directory,
+                            final Integer maxEntries,
+                            final String geneIdType,
+                            final Collection<String> panel,
+                            final int threads) {
+        createDirectoriesForFile(new File(directory, "heatmap.xlsx"));
+
+        final ExecutorService   workers   = Executors.newFixedThreadPool(threads);
+        final Semaphore         inFlight  = new Semaphore(2 * threads);
+        final List<Future<?>>   heatmaps  = new ArrayList<>();
+        final Set<String>       fileNames = new HashSet<>();
+
+        try {
+            fileLineReader(patientsFileName, (lineNo, row) -> {
+                final String[] columns = row.split("\\t");
+                if (columns.length < 2)
+                    throw new RuntimeException("Illegal number of columns: " + row);
+
+                final Set<String> phenotypes = new HashSet<>(Arrays.asList(columns).subList(1, columns.length));
+                phenotypes.removeIf(String::isEmpty);
+
+                // patient ids are not required to be unique or to be valid file names
+                String name = columns[0].replaceAll("[^A-Za-z0-9._-]", "_");
+                if (name.isEmpty() || !fileNames.add(name.toLowerCase()))
+                    fileNames.add((name = name + "-" + lineNo).toLowerCase());
+
+                final String fileName = directory + File.separator + name + ".xlsx";
+
+                inFlight.acquire();
+                heatmaps.add(workers.submit(() -> {
+                    try (final SXSSFWorkbook    workbook = new SXSSFWorkbook(ROW_WINDOW);
+                         final FileOutputStream out      = new FileOutputStream(fileName)) {
+                        try {
+                            final Prioritization prioritization = panel == null ? classifier.prioritize(phenotypes, maxEntries)
+                                                                                : classifier.prioritize(phenotypes, maxEntries, panel);
+                            report(workbook, prioritization, maxEntries, geneIdType);
+                            workbook.write(out);
+                        }
+                        finally {
+                            workbook.dispose();
+                        }
+                    }
+                    catch (Exception e) {
+                        throw new RuntimeException("Error writing heatmap " + fileName + ": " + e.getMessage());
+                    }
+                    finally {
+                        inFlight.release();
+                    }
+                }));
+            });
+
+            for (final Future<?> heatmap : heatmaps)
+                heatmap.get();
+        }
+        catch (ExecutionException e) {
+            throw new RuntimeException(e.getCause().getMessage());
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("heatmap generation interrupted");
+        }
+        finally {
+            workers.shutdownNow();
+        }
+
+        return heatmaps.size();
+    }
+
+    private static void report(final Workbook workbook, final Prioritization prioritization, final Integer maxEntries, final String geneIdType) {
+        final String[] phenotypes = prioritization.phenotypes();
+
+        final Sheet sheet  = createSheet(workbook, 2, 1);
+        final int   topRow = header(workbook, sheet, 0, 0, prioritization.classifier().context().hpo(), phenotypes, "gene", "all values in dB");
+
+        final CellStyle valueCellStyle = valueCellStyle(workbook, "0.0");
+        int row = topRow;
+
+        for (int i = 0; i < prioritization.size(); ++i) {
+            if (maxEntries != null && i >= maxEntries)
+                break;
+
+            set(sheet, row, 0, i + 1);
+            displayPlausibilities(prioritization, i, geneIdType, sheet, row++, 1, valueCellStyle);
+        }
+
+        averages(sheet, topRow, row++, 1, 1 + phenotypes.length, valueCellStyle);
+
+        final CellRangeAddress table = new CellRangeAddress(topRow, row - 1, 1, 1 + phenotypes.length);
+        heatmap(sheet, table);
+
+        autosizeColumns(sheet, 0, phenotypes.length + 2);
+    }
+
+    // heatmap of top disorders; phenotype columns are plausibilities of the most plausible gene of the disorder
+    public void ExcelReport(final DisorderPrioritization prioritization,
                             final Integer maxEntries,
                             final String geneIdType,
                             final String fileName) {
         try (final Workbook workbook = new XSSFWorkbook();
             final FileOutputStream out = new FileOutputStream(fileName)) {
 
+            final Prioritization genes      = prioritization.genes();
+            final GeneLexicon    lexicon    = genes.classifier().context().lexicon();
+            final String[]       phenotypes = genes.phenotypes();
+
             final Sheet sheet  = createSheet(workbook, 2, 1);
-            final int   topRow = header(workbook, sheet, 0, 0, phenotypes);
+            final int   topRow = header(workbook, sheet, 0, 0, genes.classifier().context().hpo(), phenotypes,
+                                        "disorder", "score", "genes", "all values in dB");
 
             final CellStyle valueCellStyle = valueCellStyle(workbook, "0.0");
             int row = topRow;
 
-            for (int i = 0; i < genePlausibilities.size(); ++i) {
-                if (maxEntries != null && i >= maxEntries)
+            for (int rank = 0; rank < prioritization.size(); ++rank) {
+                if (maxEntries != null && rank >= maxEntries)
                     break;
 
-                set(sheet, row, 0, i + 1);
-                displayPlausibilities(phenotypes, genePlausibilities.get(i), geneIdType, sheet, row++, 1, valueCellStyle);
+                set(sheet, row, 0, rank + 1);
+
+                int col = 1;
+                final double[] plausibilities = prioritization.plausibilityByPhenotype(rank);
+                for (int j = 0; j < phenotypes.length; ++j) {
+                    set(sheet, row, col, plausibilities[j]);
+                    get(sheet, row, col++).setCellStyle(valueCellStyle);
+                }
+
+                set(sheet, row, col++, prioritization.disorder(rank));
+                set(sheet, row, col, prioritization.score(rank));
+                get(sheet, row, col++).setCellStyle(valueCellStyle);
+                set(sheet, row++, col, TsvGenePrioritizationReport.disorderGenes(prioritization, rank, lexicon, geneIdType));
             }
 
-            averages(sheet, topRow, row++, 1, 1 + phenotypes.size(), valueCellStyle);
+            averages(sheet, topRow, row++, 1, 1 + phenotypes.length, valueCellStyle);
 
-            final CellRangeAddress table = new CellRangeAddress(topRow, row - 1, 1, 1 + phenotypes.size());
+            final CellRangeAddress table = new CellRangeAddress(topRow, row - 1, 1, 1 + phenotypes.length);
             heatmap(sheet, table);
 
-            autosizeColumns(sheet, 0, phenotypes.size() + 2);
+            autosizeColumns(sheet, 0, phenotypes.length + 4);
 
             workbook.write(out);
         }
@@ -89,23 +233,24 @@ public class ExcelGenePrioritizationReport
         conditionalFormatting.addConditionalFormatting(new CellRangeAddress[]{ table }, rule);
     }
 
-    private static void displayPlausibilities(final Set<String> phenotypes,
-                                              final GenePlausibility genePlausibility,
+    private static void displayPlausibilities(final Prioritization prioritization,
+                                              final int rank,
                                               final String geneIdType,
                                               final Sheet sheet,
                                               final int row, int col,
                                               final CellStyle valueCellStyle) {
-       for (final String phenotype : phenotypes) {
-           set(sheet, row, col, genePlausibility.plausibilityByPhenotype(phenotype));
+       final double[] plausibilities = prioritization.plausibilityByPhenotype(rank);
+
+       for (int j = 0; j < prioritization.phenotypeCount(); ++j) {
+           set(sheet, row, col, plausibilities[j]);
            get(sheet, row, col++).setCellStyle(valueCellStyle);
        }
 
-       set(sheet, row, col, "H".equals(geneIdType) ? toHugo(genePlausibility.gene()) : toEntrez(genePlausibility.gene()));
+       final String gene = prioritization.gene(rank);
+       set(sheet, row, col, prioritization.classifier().context().lexicon().format(gene, geneIdType));
     }
 
-    private static int header(final Workbook workbook, final Sheet sheet, int row, int col, final Set<String> phenotypes) {
-        final Hpo hpo = new Hpo("./data/hpo.csv");
-
+    private static int header(final Workbook workbook, final Sheet sheet, int row, int col, final Hpo hpo, final String[] phenotypes, final String... labels) {
         final CellStyle rotatedTextStyle = rotatedTextStyle(workbook);
 
         set(sheet, row + 1, col++, "#");
@@ -116,8 +261,9 @@ public class ExcelGenePrioritizationReport
             set(sheet, row + 1, col++, phenotype);
         }
 
-        set(sheet, row + 1, col++, "gene");
-        set(sheet, row + 1, col, "all values in dB");
+        for (final String label : labels)
+            set(sheet, row + 1, col++, label);
+
         return row + 2;
     }
 
@@ -143,6 +289,11 @@ public class ExcelGenePrioritizationReport
     private static Sheet createSheet(final Workbook workbook, final int freezeRow, final int freezeCol) {
         Sheet sheet = workbook.createSheet("WA " + new SimpleDateFormat("dd MMM yyyy @ HH mm ss").format(new Date()));
         sheet.createFreezePane(freezeCol, freezeRow);
+
+        // streamed rows are flushed before columns are autosized
+        if (sheet instanceof SXSSFSheet)
+            ((SXSSFSheet) sheet).trackAllColumnsForAutoSizing();
+
         return sheet;
     }
 
@@ -205,42 +356,4 @@ public class ExcelGenePrioritizationReport
 
         return c;
     }
-
-    public void tsvReport(final List<GenePlausibility> genePlausibilities,
-                          final Set<String> phenotypes,
-                          final Integer maxEntries,
-                          final String geneIdType,
-                          final String fileName) {
-        final Hpo hpo = new Hpo("./data/hpo.csv");
-
-        fileWriter(fileName, f -> {
-            int i = 0;
-
-            // header
-            for (final String phenotype : phenotypes) {
-                f.write("!\t" + phenotype + " " + hpo.get(phenotype).name());
-                f.newLine();
-            }
-
-            f.write("#");
-            for (final String phenotype: phenotypes) {
-                f.write("\t" + phenotype);
-            }
-            f.write("\tgene\tall values in dB");
-            f.newLine();
-
-            for (final GenePlausibility genePlausibility : genePlausibilities) {
-                if (maxEntries != null && i >= maxEntries)
-                    break;
-
-                f.write(String.valueOf(++i));
-                for (final String phenotype: phenotypes) {
-                    f.write("\t" + String.format(Locale.US, "%,.1f", genePlausibility.plausibilityByPhenotype(phenotype)));
-                }
-                f.write("\t" + ("H".equals(geneIdType) ? toHugo(genePlausibility.gene()) : toEntrez(genePlausibility.gene())));
-
-                f.newLine();
-            }
-        });
-    }
 }
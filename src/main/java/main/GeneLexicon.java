@@ -6,23 +6,60 @@ package main;
 
  */
 
+import java.io.InputStream;
 import java.util.*;
 
 import static main.Utils.*;
 
+/*
+    Immutable mapping between Entrez and Hugo gene ids loaded from NCBI gene_info file. Static methods use the
+    default lexicon set by load (command line); embedded engines hold their own instances (see WaEngine).
+ */
 public class GeneLexicon
 {
-    private GeneLexicon() {}
+    private static volatile GeneLexicon defaultLexicon = new GeneLexicon();
 
-    private static Map<String, String>      hugo2entrez        = new HashMap<>();
-    private static Map<String, String>      entrez2PrimaryHugo = new HashMap<>();
-    private static Map<String, String>      primaryHugo2entrez = new HashMap<>();
-    private static Map<String, Set<String>> entrez2Hugo        = new HashMap<>();
+    private final Map<String, String>      hugo2entrez        = new HashMap<>();
+    private final Map<String, String>      entrez2PrimaryHugo = new HashMap<>();
+    private final Map<String, String>      primaryHugo2entrez = new HashMap<>();
+    private final Map<String, Set<String>> entrez2Hugo        = new HashMap<>();
+    private final String                   source;
 
-    private static Box<String> loadedFrom = new Box<>(null);
-    public static String loadedFrom() { return loadedFrom.value; }
+    private GeneLexicon() {
+        this.source = null;
+    }
+
+    public GeneLexicon(final String fileName) {
+        this.source = fileName;
+        fileLineReader(fileName, this::addLine);
+    }
+
+    // source is the name of the stream in messages
+    public GeneLexicon(final InputStream in, final String source) {
+        this.source = source;
+        fileLineReader(in, this::addLine);
+    }
+
+    // loads the default lexicon used by static methods
+    public static GeneLexicon load(final String fileName) {
+        final GeneLexicon result = new GeneLexicon(fileName);
+        defaultLexicon = result;
+        return result;
+    }
 
-    public static String toEntrez(String s) {
+    public static GeneLexicon defaultLexicon() { return defaultLexicon; }
+
+    public static String      loadedFrom()               { return defaultLexicon.source();   }
+    public static Set<String> entrezIds()                { return defaultLexicon.entrezIdSet(); }
+    public static String      toEntrez(final String s)   { return defaultLexicon.entrez(s);  }
+    public static String      toHugo(final String s)     { return defaultLexicon.hugo(s);    }
+
+    public String source() { return source; }
+
+    public Set<String> entrezIdSet() { return Collections.unmodifiableSet(entrez2Hugo.keySet()); }
+
+    // Entrez id of Hugo or Entrez gene id; null if the gene is unknown
+    public String entrez(String s) {
 
         s = s.trim();
 
@@ -43,7 +80,8 @@ public class GeneLexicon
         return entrez2Hugo.containsKey(s) ? s : null;
     }
 
-    public static String toHugo(String s) {
+    // primary Hugo id of Hugo or Entrez gene id; null if the gene is unknown
+    public String hugo(String s) {
         s = s.trim();
 
         if (hugo2entrez.containsKey(s))
@@ -60,48 +98,43 @@ public class GeneLexicon
         return entrez2PrimaryHugo.get(s);
     }
 
-    public static void load(final String fileName) {
-        loadedFrom.value = fileName;
-
-        hugo2entrez.clear();
-        entrez2PrimaryHugo.clear();
-        primaryHugo2entrez.clear();
-        entrez2Hugo.clear();
-
-        fileLineReader(fileName, (lineNo, row) -> {
-            if (lineNo == 1)
-                return;
+    // gene id in output format: H (Hugo id) or E (Entrez id)
+    public String format(final String gene, final String geneIdType) {
+        return "H".equals(geneIdType) ? hugo(gene) : entrez(gene);
+    }
 
-            final String[] columns = row.split("\\t");
-            if (columns.length < 5)
-                return;
+    private void addLine(final int lineNo, final String row) {
+        if (lineNo == 1)
+            return;
 
-            String entrezId = columns[1];
-            if (!isInteger(entrezId))
-                throw new RuntimeException("Entrez id must be integer: " + entrezId);
+        final String[] columns = row.split("\\t");
+        if (columns.length < 5)
+            return;
 
-            final String primaryHugoId = columns[2];
-            // RNR1 may be mitochondrial or ribosomal gene
-            //if (primaryHugo2entrez.containsKey(primaryHugoId))
-            //    throw new RuntimeException("Duplicate primary Hugo id: " + primaryHugoId);
-            primaryHugo2entrez.put(primaryHugoId, entrezId);
+        String entrezId = columns[1];
+        if (!isInteger(entrezId))
+            throw new RuntimeException("Entrez id must be integer: " + entrezId);
 
-            if (entrez2PrimaryHugo.containsKey(entrezId))
-                throw new RuntimeException("Duplicate entrezId: " + entrezId);
-            entrez2PrimaryHugo.put(entrezId, primaryHugoId);
+        final String primaryHugoId = columns[2];
+        // RNR1 may be mitochondrial or ribosomal gene
+        //if (primaryHugo2entrez.containsKey(primaryHugoId))
+        //    throw new RuntimeException("Duplicate primary Hugo id: " + primaryHugoId);
+        primaryHugo2entrez.put(primaryHugoId, entrezId);
 
+        if (entrez2PrimaryHugo.containsKey(entrezId))
+            throw new RuntimeException("Duplicate entrezId: " + entrezId);
+        entrez2PrimaryHugo.put(entrezId, primaryHugoId);
 
-            final Set<String> hugoSynonyms = new HashSet<>(Arrays.asList(columns[4].split("\\|")));
-            if (hugoSynonyms.size() == 1 && "-".equals(hugoSynonyms.iterator().next()))
-                hugoSynonyms.clear();
-            hugoSynonyms.add(primaryHugoId);
 
-            for (final String hugoId : hugoSynonyms) {
-                hugo2entrez.put(hugoId, entrezId);
-            }
+        final Set<String> hugoSynonyms = new HashSet<>(Arrays.asList(columns[4].split("\\|")));
+        if (hugoSynonyms.size() == 1 && "-".equals(hugoSynonyms.iterator().next()))
+            hugoSynonyms.clear();
+        hugoSynonyms.add(primaryHugoId);
 
-            entrez2Hugo.put(entrezId, hugoSynonyms);
-        });
+        for (final String hugoId : hugoSynonyms) {
+            hugo2entrez.put(hugoId, entrezId);
+        }
 
+        entrez2Hugo.put(entrezId, hugoSynonyms);
     }
 }
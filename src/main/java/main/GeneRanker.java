@@ -0,0 +1,24 @@
+package main;
+
+import java.util.List;
+import java.util.Set;
+
+/*
+    Anything that ranks genes for a patient: a local Classifier or a coordinator of gene shards.
+ */
+public interface GeneRanker
+{
+    // Entrez ids of top maxGenes genes (all genes if maxGenes is null) in order of decreasing plausibility
+    List<String> rankGenes(Set<String> phenotypes, Integer maxGenes);
+
+    // gene id in output format: H (Hugo id) or E (Entrez id)
+    default String geneId(final String gene, final String geneIdType) {
+        return GeneLexicon.defaultLexicon().format(gene, geneIdType);
+    }
+
+    // ranker of a single patient: genes and gene ids of the patient come from the same model, also if the model of
+    // this ranker is swapped meanwhile (see ReloadableModel)
+    default GeneRanker snapshot() {
+        return this;
+    }
+}
@@ -0,0 +1,39 @@
+package main;
+
+/*
+    Partition of the gene space: shard i of n holds genes with Entrez id mod n == i.
+ */
+public class GeneShard
+{
+    public static final GeneShard ALL = new GeneShard(0, 1);
+
+    private final int shard;
+    private final int shards;
+
+    public GeneShard(final int shard, final int shards) {
+        if (shards < 1 || shard < 0 || shard >= shards)
+            throw new IllegalArgumentException("illegal gene shard " + shard + "/" + shards);
+
+        this.shard  = shard;
+        this.shards = shards;
+    }
+
+    // shard in i/n form
+    public static GeneShard parse(final String s) {
+        final String[] parts = s.split("/");
+        if (parts.length != 2 || !Utils.isInteger(parts[0]) || !Utils.isInteger(parts[1]))
+            throw new IllegalArgumentException("gene shard must be in i/n form: " + s);
+
+        return new GeneShard(Integer.parseInt(parts[0]), Integer.parseInt(parts[1]));
+    }
+
+    public int shard()  { return shard;  }
+    public int shards() { return shards; }
+
+    public boolean contains(final String entrezId) {
+        return shards == 1 || Math.floorMod(Integer.parseInt(entrezId), shards) == shard;
+    }
+
+    @Override
+    public String toString() { return shard + "/" + shards; }
+}
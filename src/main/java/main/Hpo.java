@@ -2,7 +2,12 @@ package main;
 
 import com.opencsv.CSVReader;
 
+import java.io.FileNotFoundException;
 import java.io.FileReader;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
 import java.util.*;
 
 public class Hpo {
@@ -18,8 +23,17 @@ public class Hpo {
         checkConsistency();
     }
 
+    // source is the name of the stream in messages
+    public Hpo(final InputStream in, final String source) {
+        items   = loadHpo(new InputStreamReader(in, StandardCharsets.UTF_8), source);
+        parents = phenotypeParents();
+        checkConsistency();
+    }
+
     public boolean isValidId(final String id) { return items.containsKey(id); }
 
+    public Set<String> ids() { return Collections.unmodifiableSet(items.keySet()); }
+
     public HpoItem get() { return get(topNodeId); }
 
     public HpoItem get(final String id) {
@@ -50,6 +64,24 @@ public class Hpo {
     }
 
 
+    // depth of every phenotype: length of the shortest path from the top node (depth 0)
+    public Map<String, Integer> depths() {
+        final Map<String, Integer> result = new HashMap<>();
+        final Deque<String>        queue  = new ArrayDeque<>();
+
+        result.put(topNodeId, 0);
+        queue.add(topNodeId);
+        while (!queue.isEmpty()) {
+            final String id = queue.poll();
+            for (final String succ : get(id).succ())
+                if (result.putIfAbsent(succ, result.get(id) + 1) == null)
+                    queue.add(succ);
+        }
+
+        return result;
+    }
+
+
     private void checkConsistency() {
         Set<String> usedIds = new HashSet<>();
 
@@ -74,23 +106,29 @@ public class Hpo {
 
     private void phenotypeParents_(final String phenotypeId, Map<String, Set<String>> parents) {
         for (final String succ : get(phenotypeId).succ()) {
-            parents.compute(succ, (k, v) -> {
-                if (v == null) v = new HashSet<>();
-                v.add(phenotypeId);
-                return v;
-            });
+            // successors of a phenotype reachable along several paths are visited only once
+            final boolean visited = parents.containsKey(succ);
+            parents.computeIfAbsent(succ, k -> new HashSet<>()).add(phenotypeId);
 
-            phenotypeParents_(succ, parents);
+            if (!visited)
+                phenotypeParents_(succ, parents);
         }
     }
 
     private Map<String, HpoItem> loadHpo(final String fileName) {
+        try {
+            return loadHpo(new FileReader(fileName), fileName);
+        }
+        catch (FileNotFoundException e) {
+            throw new RuntimeException(e.getMessage() + " line 1 file: " + fileName);
+        }
+    }
+
+    private Map<String, HpoItem> loadHpo(final Reader in, final String fileName) {
         final Map<String, HpoItem> items =  new HashMap<>();
 
         long lineNo = 1;
-        try {
-            final CSVReader reader = new CSVReader(new FileReader(fileName));
-
+        try (final CSVReader reader = new CSVReader(in)) {
             String[] line;
 
             while ((line = reader.readNext()) != null) {
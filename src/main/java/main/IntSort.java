@@ -0,0 +1,63 @@
+package main;
+
+/*
+    Sorting of primitive int arrays (e.g. gene indices) with a custom comparator, without boxing.
+ */
+public class IntSort
+{
+    private IntSort() {}
+
+    @FunctionalInterface
+    public interface IntComparator {
+        int compare(int i, int j);
+    }
+
+    // stable merge sort of a[from, to)
+    public static void sort(final int[] a, final int from, final int to, final IntComparator comparator) {
+        if (to - from < 2)
+            return;
+
+        final int[] buffer = new int[to - from];
+        sort(a, from, to, buffer, comparator);
+    }
+
+    public static void sort(final int[] a, final IntComparator comparator) {
+        sort(a, 0, a.length, comparator);
+    }
+
+    private static void sort(final int[] a, final int from, final int to, final int[] buffer, final IntComparator comparator) {
+        if (to - from <= 16) {
+            insertionSort(a, from, to, comparator);
+            return;
+        }
+
+        final int mid = (from + to) >>> 1;
+        sort(a, from, mid, buffer, comparator);
+        sort(a, mid, to, buffer, comparator);
+
+        if (comparator.compare(a[mid - 1], a[mid]) <= 0)
+            return;
+
+        System.arraycopy(a, from, buffer, 0, mid - from);
+
+        int i = 0, j = mid, k = from;
+        final int iEnd = mid - from;
+        while (i < iEnd && j < to)
+            a[k++] = comparator.compare(a[j], buffer[i]) < 0 ? a[j++] : buffer[i++];
+
+        while (i < iEnd)
+            a[k++] = buffer[i++];
+    }
+
+    private static void insertionSort(final int[] a, final int from, final int to, final IntComparator comparator) {
+        for (int i = from + 1; i < to; ++i) {
+            final int v = a[i];
+            int j = i - 1;
+            while (j >= from && comparator.compare(a[j], v) > 0) {
+                a[j + 1] = a[j];
+                --j;
+            }
+            a[j + 1] = v;
+        }
+    }
+}
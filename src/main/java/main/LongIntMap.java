@@ -0,0 +1,94 @@
+package main;
+
+import java.util.Arrays;
+
+/*
+    Open addressing long -> int hash map without boxing; used for accumulating counts while training.
+ */
+public class LongIntMap
+{
+    private static final long  FREE = Long.MIN_VALUE;
+
+    private long[] keys;
+    private int[]  values;
+    private int    size;
+
+    public LongIntMap() {
+        this(1 << 10);
+    }
+
+    public LongIntMap(final int expectedSize) {
+        int capacity = 16;
+        while (capacity < 2 * expectedSize)
+            capacity <<= 1;
+
+        keys   = new long[capacity];
+        values = new int[capacity];
+        Arrays.fill(keys, FREE);
+    }
+
+    public int size() { return size; }
+
+    public int get(final long key) {
+        final int i = slot(key);
+        return keys[i] == FREE ? 0 : values[i];
+    }
+
+    public void add(final long key, final int delta) {
+        if (key == FREE)
+            throw new IllegalArgumentException("illegal key");
+
+        int i = slot(key);
+        if (keys[i] == FREE) {
+            if (2 * (size + 1) > keys.length) {
+                rehash();
+                i = slot(key);
+            }
+
+            keys[i] = key;
+            ++size;
+        }
+
+        values[i] += delta;
+    }
+
+    public interface Visitor {
+        void accept(long key, int value);
+    }
+
+    public void forEach(final Visitor visitor) {
+        for (int i = 0; i < keys.length; ++i)
+            if (keys[i] != FREE)
+                visitor.accept(keys[i], values[i]);
+    }
+
+    private int slot(final long key) {
+        final int mask = keys.length - 1;
+
+        long h = key * 0x9E3779B97F4A7C15L;
+        int  i = (int)(h ^ (h >>> 32)) & mask;
+
+        while (keys[i] != FREE && keys[i] != key)
+            i = (i + 1) & mask;
+
+        return i;
+    }
+
+    private void rehash() {
+        final long[] oldKeys   = keys;
+        final int[]  oldValues = values;
+
+        keys   = new long[2 * oldKeys.length];
+        values = new int[2 * oldKeys.length];
+        Arrays.fill(keys, FREE);
+
+        for (int i = 0; i < oldKeys.length; ++i) {
+            if (oldKeys[i] == FREE)
+                continue;
+
+            final int j = slot(oldKeys[i]);
+            keys[j]   = oldKeys[i];
+            values[j] = oldValues[i];
+        }
+    }
+}
@@ -0,0 +1,76 @@
+package main;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+
+/*
+    Immutable resources shared by all models: HPO ontology, gene lexicon, phenotype and gene intern tables
+    and cached (interned) ancestor sets of phenotypes. Classifier instances built on the same
+    context hold only their own counts.
+ */
+public class ModelContext
+{
+    public static final String DEFAULT_HPO_FILE       = "./data/hpo.csv";
+    public static final String DEFAULT_GENE_INFO_FILE = "./data/Homo_sapiens.gene_info";
+
+    private static volatile ModelContext shared = null;
+
+    private final Hpo                hpo;
+    private final GeneLexicon        lexicon;
+    private final SymbolTable        phenotypes = new SymbolTable();
+    private final SymbolTable        genes      = new SymbolTable();
+    private final Map<String, int[]> ancestors  = new ConcurrentHashMap<>();
+
+    public ModelContext(final Hpo hpo, final GeneLexicon lexicon) {
+        this.hpo     = hpo;
+        this.lexicon = lexicon;
+    }
+
+    // context with the default gene lexicon (see GeneLexicon.load)
+    public ModelContext(final Hpo hpo) {
+        this(hpo, GeneLexicon.defaultLexicon());
+    }
+
+    public ModelContext(final String hpoFileName) {
+        this(new Hpo(hpoFileName));
+    }
+
+    /*
+        Context loaded from the default hpo and gene info file locations; loaded once on first use. The files
+        are independent and are loaded concurrently; the gene lexicon becomes the default lexicon.
+     */
+    public static ModelContext shared() {
+        if (shared == null) {
+            synchronized (ModelContext.class) {
+                if (shared == null) {
+                    final CompletableFuture<GeneLexicon> lexicon = CompletableFuture.supplyAsync(() -> GeneLexicon.load(DEFAULT_GENE_INFO_FILE));
+                    final Hpo                            hpo     = new Hpo(DEFAULT_HPO_FILE);
+
+                    shared = new ModelContext(hpo, lexicon.join());
+                }
+            }
+        }
+        return shared;
+    }
+
+    public Hpo         hpo()        { return hpo;        }
+    public GeneLexicon lexicon()    { return lexicon;    }
+    public SymbolTable phenotypes() { return phenotypes; }
+    public SymbolTable genes()      { return genes;      }
+
+    // interned phenotype together with all its ancestors (see Hpo.ancestorSet)
+    public int[] ancestors(final String phenotypeId) {
+        return ancestors.computeIfAbsent(phenotypeId, k -> {
+            final Set<String> ancestorSet = hpo.ancestorSet(k);
+
+            final int[] result = new int[ancestorSet.size()];
+            int i = 0;
+            for (final String ancestor : ancestorSet)
+                result[i++] = phenotypes.intern(ancestor);
+
+            return result;
+        });
+    }
+}
@@ -0,0 +1,106 @@
+package main;
+
+import java.io.File;
+import java.util.*;
+
+/*
+    Compaction of a trained model under pruning policies:
+        minCount     freq(phenotype | gene) counts lower than minCount are dropped
+        minDepth     columns of general phenotypes above minDepth (depth < minDepth; the top node has depth 0) are dropped
+        minGeneCases genes with fewer than minGeneCases training cases are dropped
+
+    freq("") and freq(phenotype) are kept as in the full model, so evidence of the retained counts does not change;
+    a dropped count scores as an unobserved (phenotype, gene) pair. A dropped column scores all genes the same, so
+    its phenotype only shifts plausibilities and no longer changes ranks.
+ */
+public class ModelPruner
+{
+    private final int minCount;
+    private final int minDepth;
+    private final int minGeneCases;
+
+    public ModelPruner(final int minCount, final int minDepth, final int minGeneCases) {
+        if (minCount < 1 || minDepth < 0 || minGeneCases < 1)
+            throw new RuntimeException("min count and min gene cases must be greater than 0 and min depth must not be negative");
+
+        this.minCount     = minCount;
+        this.minDepth     = minDepth;
+        this.minGeneCases = minGeneCases;
+    }
+
+    public Classifier prune(final Classifier model) {
+        final ModelContext       context = model.context();
+        final Counts             counts  = model.counts();
+        final CountTable.Builder builder = new CountTable.Builder();
+
+        final boolean[] kept    = new boolean[counts.geneCount()];
+        int             keptSum = 0;
+        for (int i = 0; i < kept.length; ++i) {
+            kept[i] = counts.geneFreq(i) >= minGeneCases;
+            if (!kept[i])
+                continue;
+
+            builder.add(counts.gene(i), counts.geneFreq(i));
+            keptSum += counts.geneFreq(i);
+        }
+        builder.addCases(counts.cases() - keptSum);
+
+        final Map<String, Integer> depths = minDepth > 0 ? context.hpo().depths() : Collections.emptyMap();
+
+        for (int p = 0; p < counts.phenotypeCount(); ++p) {
+            final int total = counts.columnTotal(p);
+            if (total == 0)
+                continue;
+
+            // phenotypes unknown to the ontology are kept
+            final boolean general = depths.getOrDefault(context.phenotypes().symbol(p), minDepth) < minDepth;
+
+            final int[] columnGenes  = counts.columnGenes(p);
+            final int[] columnCounts = counts.columnCounts(p);
+
+            int countSum = 0;
+            for (int j = 0; j < columnGenes.length && !general; ++j) {
+                if (!kept[columnGenes[j]] || columnCounts[j] < minCount)
+                    continue;
+
+                builder.add(p, counts.gene(columnGenes[j]), columnCounts[j]);
+                countSum += columnCounts[j];
+            }
+            builder.addTotal(p, total - countSum);
+        }
+
+        return new Classifier(context, builder.build());
+    }
+
+    /*
+        Prunes the model, writes the pruned model to modelFileName (see ModelSnapshot) and prints the size of both
+        models together with their top % accuracy on the test file (-t file format; no accuracy if testFileName is null)
+     */
+    public Classifier compact(final Classifier model, final String modelFileName, final String testFileName) {
+        final Classifier pruned = prune(model);
+        ModelSnapshot.write(pruned.context(), pruned.counts(), modelFileName);
+
+        final Map<Integer, Integer> fullFreq   = testFileName == null ? null : model.test(testFileName, false);
+        final Map<Integer, Integer> prunedFreq = testFileName == null ? null : pruned.test(testFileName, false);
+
+        System.out.println(String.format(Locale.US, "pruning: min count %d, min depth %d, min gene cases %d", minCount, minDepth, minGeneCases));
+        System.out.println("\tfull\tpruned\tchange");
+        row("genes",   model.counts().geneCount(), pruned.counts().geneCount());
+        row("entries", model.counts().entries(),   pruned.counts().entries());
+        row("bytes",   model.counts().bytes(),     pruned.counts().bytes());
+
+        if (testFileName != null)
+            for (final int k : new int[]{ 1, 3, 10, 100 }) {
+                final double full = Classifier.top(k, fullFreq);
+                final double top  = Classifier.top(k, prunedFreq);
+                System.out.println(String.format(Locale.US, "top %d %%\t%.2f\t%.2f\t%+.2f", k, full, top, top - full));
+            }
+
+        System.out.println("Pruned model (" + new File(modelFileName).length() + " bytes) saved to file: " + modelFileName);
+        return pruned;
+    }
+
+    private static void row(final String name, final long full, final long pruned) {
+        System.out.println(String.format(Locale.US, "%s\t%d\t%d\t%+.2f %%", name, full, pruned, full == 0 ? .0 : 100. * (pruned - full) / full));
+    }
+}
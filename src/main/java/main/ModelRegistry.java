@@ -0,0 +1,80 @@
+package main;
+
+import java.util.*;
+import java.util.stream.Collectors;
+
+import static main.Utils.*;
+
+/*
+    Named models resident in a single process. All models share one ModelContext (HPO ontology and
+    intern tables), so every additional model costs only its own counts.
+ */
+public class ModelRegistry
+{
+    private final ModelContext            context;
+    private final Map<String, Classifier> models = new LinkedHashMap<>();
+
+    public ModelRegistry() {
+        this(ModelContext.shared());
+    }
+
+    public ModelRegistry(final ModelContext context) {
+        this.context = context;
+    }
+
+    public ModelContext context() { return context; }
+
+    public Classifier register(final String name, final List<String> learningFiles) {
+        return register(name, new Classifier(context, learningFiles));
+    }
+
+    public synchronized Classifier register(final String name, final Classifier classifier) {
+        nonEmpty(name, "model name must not be empty");
+        if (classifier.context() != context)
+            throw new IllegalArgumentException("model " + name + " is not built on the registry model context");
+
+        models.put(name, classifier);
+        return classifier;
+    }
+
+    public synchronized Classifier get(final String name) {
+        final Classifier result = models.get(name);
+        if (result == null)
+            throw new IllegalArgumentException("unknown model " + name);
+
+        return result;
+    }
+
+    public synchronized Classifier remove(final String name) { return models.remove(name); }
+
+    public synchronized List<String> names() { return new ArrayList<>(models.keySet()); }
+
+    // gene prioritization of all registered models
+    public Map<String, Prioritization> prioritize(final Set<String> phenotypes) {
+        return prioritize(phenotypes, names());
+    }
+
+    // gene prioritization of selected models; models are queried concurrently, results are in the order of model names
+    public Map<String, Prioritization> prioritize(final Set<String> phenotypes, final List<String> modelNames) {
+        final List<Classifier> classifiers = modelNames.stream().map(this::get).collect(Collectors.toList());
+
+        final List<Prioritization> rankings = classifiers.parallelStream()
+                                                          .map(classifier -> classifier.prioritize(phenotypes))
+                                                          .collect(Collectors.toList());
+
+        final Map<String, Prioritization> result = new LinkedHashMap<>();
+        for (int i = 0; i < modelNames.size(); ++i)
+            result.put(modelNames.get(i), rankings.get(i));
+
+        return result;
+    }
+
+    // estimated heap used by counts of the registered models (shared context not included)
+    public synchronized long countBytes() {
+        long result = 0;
+        for (final Classifier classifier : models.values())
+            result += classifier.counts().bytes();
+
+        return result;
+    }
+}
@@ -0,0 +1,354 @@
+package main;
+
+import java.io.*;
+import java.util.*;
+
+/*
+    Binary snapshot of trained counts of a model. Genes and phenotypes are stored by their Entrez and HPO ids, so
+    a snapshot can be loaded into any ModelContext without reading learning files or expanding ancestors.
+
+    File layout (varint: unsigned LEB128):
+        magic "WA-MODEL", version
+        freq("")
+        number of genes, then per gene in ascending Entrez id order: Entrez id, freq(gene)
+        per phenotype with freq(phenotype) > 0 in ascending HPO id order:
+            HPO id, freq(phenotype), number of entries,
+            entries (gene index delta, freq(phenotype | gene)) in ascending snapshot gene index order
+        empty HPO id
+
+    freq("") and freq(phenotype) also include cases of genes which are not kept in the snapshot (e.g. pruned genes).
+    Snapshots of other versions (version 1 stored the number of phenotypes up front) are rejected.
+
+    Snapshots are combined by merge (A + B, the model of learning files of both models) and subtract (A - B, the model
+    of cases of A which are not in B; B must be a part of A). Both are a single sorted pass over the snapshots.
+ */
+public class ModelSnapshot
+{
+    private static final String MAGIC   = "WA-MODEL";
+    private static final int    VERSION = 2; // 1: number of phenotypes instead of the terminating empty HPO id
+
+    private ModelSnapshot() {}
+
+    public static void write(final ModelContext context, final Counts counts, final String fileName) {
+        // snapshot gene order: ascending Entrez id
+        final Integer[] order = new Integer[counts.geneCount()];
+        for (int i = 0; i < order.length; ++i)
+            order[i] = i;
+        Arrays.sort(order, Comparator.comparingInt(i -> Integer.parseInt(context.genes().symbol(counts.gene(i)))));
+
+        final int[]    snapshotIndices = new int[order.length];
+        final String[] genes           = new String[order.length];
+        final int[]    geneFreq        = new int[order.length];
+        for (int s = 0; s < order.length; ++s) {
+            snapshotIndices[order[s]] = s;
+            genes[s]                  = context.genes().symbol(counts.gene(order[s]));
+            geneFreq[s]               = counts.geneFreq(order[s]);
+        }
+
+        // phenotypes with freq(phenotype) > 0 in ascending HPO id order
+        final SortedMap<String, Integer> phenotypes = new TreeMap<>();
+        for (int p = 0; p < counts.phenotypeCount(); ++p)
+            if (counts.columnTotal(p) > 0)
+                phenotypes.put(context.phenotypes().symbol(p), p);
+
+        try (final DataOutputStream out = create(fileName)) {
+            writeHeader(out, counts.cases(), genes, geneFreq);
+
+            for (final Map.Entry<String, Integer> phenotype : phenotypes.entrySet()) {
+                final int[] columnGenes  = counts.columnGenes(phenotype.getValue());
+                final int[] columnCounts = counts.columnCounts(phenotype.getValue());
+
+                // (snapshot gene index, count) entries sorted by snapshot gene index
+                final long[] packed = new long[columnGenes.length];
+                for (int j = 0; j < packed.length; ++j)
+                    packed[j] = ((long) snapshotIndices[columnGenes[j]] << 32) | columnCounts[j];
+                Arrays.sort(packed);
+
+                final int[] entryGenes  = new int[packed.length];
+                final int[] entryCounts = new int[packed.length];
+                for (int j = 0; j < packed.length; ++j) {
+                    entryGenes[j]  = (int) (packed[j] >>> 32);
+                    entryCounts[j] = (int) packed[j];
+                }
+
+                writeColumn(out, phenotype.getKey(), counts.columnTotal(phenotype.getValue()), entryGenes, entryCounts, entryGenes.length);
+            }
+            out.writeUTF("");
+        }
+        catch (IOException e) {
+            throw new RuntimeException("Error writing model file " + fileName + ": " + e.getMessage());
+        }
+    }
+
+    public static CountTable read(final ModelContext context, final String fileName) {
+        final CountTable.Builder builder = new CountTable.Builder();
+        read(context, fileName, builder);
+
+        return builder.build();
+    }
+
+    // adds counts of the snapshot to builder; counts of several snapshots and learning files are summed
+    public static void read(final ModelContext context, final String fileName, final CountTable.Builder builder) {
+        try (final SnapshotReader in = new SnapshotReader(fileName)) {
+            final int[] genes   = new int[in.genes.length];
+            int         geneSum = 0;
+            for (int s = 0; s < genes.length; ++s) {
+                genes[s] = context.genes().intern(in.genes[s]);
+                builder.add(genes[s], in.geneFreq[s]);
+                geneSum += in.geneFreq[s];
+            }
+            builder.addCases(in.cases - geneSum);
+
+            while (in.next()) {
+                if (!context.hpo().isValidId(in.phenotype))
+                    throw new RuntimeException("Error reading model file " + fileName + ": phenotype " + in.phenotype + " is not in the HPO ontology");
+
+                final int phenotypeId = context.phenotypes().intern(in.phenotype);
+
+                int countSum = 0;
+                for (int j = 0; j < in.entries; ++j) {
+                    builder.add(phenotypeId, genes[in.columnGenes[j]], in.columnCounts[j]);
+                    countSum += in.columnCounts[j];
+                }
+                builder.addTotal(phenotypeId, in.total - countSum);
+            }
+        }
+        catch (IOException e) {
+            throw new RuntimeException("Error reading model file " + fileName + ": " + e.getMessage());
+        }
+    }
+
+    // a + b
+    public static void merge(final String a, final String b, final String resultFileName) {
+        combine(a, b, 1, resultFileName);
+    }
+
+    // a - b; b must be a part of a, i.e. no count of the result may be negative
+    public static void subtract(final String a, final String b, final String resultFileName) {
+        combine(a, b, -1, resultFileName);
+    }
+
+    private static void combine(final String a, final String b, final int sign, final String resultFileName) {
+        final String operation = sign > 0 ? "merging" : "subtracting";
+        if (Utils.getCanonicalPath(resultFileName).equals(Utils.getCanonicalPath(a)) || Utils.getCanonicalPath(resultFileName).equals(Utils.getCanonicalPath(b)))
+            throw new RuntimeException("result model file " + resultFileName + " must not be one of the " + operation.replace("ing", "ed") + " model files");
+
+        try (final SnapshotReader   inA = new SnapshotReader(a);
+             final SnapshotReader   inB = new SnapshotReader(b);
+             final DataOutputStream out = create(resultFileName)) {
+            final int cases = checked(inA.cases + sign * inB.cases, "number of cases", operation, a, b);
+
+            // union of genes in ascending Entrez id order; union indices of genes of a and b
+            final List<String>  unionGenes = new ArrayList<>();
+            final List<Integer> unionFreq  = new ArrayList<>();
+            final int[]         unionA     = new int[inA.genes.length];
+            final int[]         unionB     = new int[inB.genes.length];
+            for (int i = 0, j = 0; i < unionA.length || j < unionB.length; ) {
+                final int c = i == unionA.length ? 1 : j == unionB.length ? -1 : Long.compare(Long.parseLong(inA.genes[i]), Long.parseLong(inB.genes[j]));
+
+                unionGenes.add(c <= 0 ? inA.genes[i] : inB.genes[j]);
+                unionFreq.add((c <= 0 ? inA.geneFreq[i] : 0) + sign * (c >= 0 ? inB.geneFreq[j] : 0));
+                if (c <= 0)
+                    unionA[i++] = unionGenes.size() - 1;
+                if (c >= 0)
+                    unionB[j++] = unionGenes.size() - 1;
+            }
+
+            // genes without cases are left out of the result
+            final int[] resultIndices = new int[unionGenes.size()];
+            int         geneCount     = 0;
+            for (int u = 0; u < resultIndices.length; ++u)
+                resultIndices[u] = checked(unionFreq.get(u), "frequency of gene " + unionGenes.get(u), operation, a, b) == 0 ? -1 : geneCount++;
+
+            final String[] genes    = new String[geneCount];
+            final int[]    geneFreq = new int[geneCount];
+            for (int u = 0; u < resultIndices.length; ++u) {
+                if (resultIndices[u] < 0)
+                    continue;
+
+                genes[resultIndices[u]]    = unionGenes.get(u);
+                geneFreq[resultIndices[u]] = unionFreq.get(u);
+            }
+
+            writeHeader(out, cases, genes, geneFreq);
+
+            // columns in ascending HPO id order
+            final int[] entryGenes  = new int[geneCount];
+            final int[] entryCounts = new int[geneCount];
+
+            boolean hasA = inA.next();
+            boolean hasB = inB.next();
+            while (hasA || hasB) {
+                final int    c         = !hasA ? 1 : !hasB ? -1 : inA.phenotype.compareTo(inB.phenotype);
+                final String phenotype = c <= 0 ? inA.phenotype : inB.phenotype;
+                final int    total     = checked((c <= 0 ? inA.total : 0) + sign * (c >= 0 ? inB.total : 0), "frequency of phenotype " + phenotype, operation, a, b);
+
+                // both columns are ascending in union gene indices
+                int n = 0;
+                for (int i = 0, j = 0, na = c <= 0 ? inA.entries : 0, nb = c >= 0 ? inB.entries : 0; i < na || j < nb; ) {
+                    final int ua = i < na ? unionA[inA.columnGenes[i]] : Integer.MAX_VALUE;
+                    final int ub = j < nb ? unionB[inB.columnGenes[j]] : Integer.MAX_VALUE;
+                    final int u  = Math.min(ua, ub);
+
+                    final int count = checked((ua == u ? inA.columnCounts[i++] : 0) + sign * (ub == u ? inB.columnCounts[j++] : 0),
+                                              "frequency of phenotype " + phenotype + " | gene " + unionGenes.get(u), operation, a, b);
+                    if (count == 0)
+                        continue;
+                    if (resultIndices[u] < 0)
+                        throw new RuntimeException("Error " + operation + " model files " + a + " and " + b + ": phenotype " + phenotype + " counted for gene " + unionGenes.get(u) + " without cases");
+
+                    entryGenes[n]  = resultIndices[u];
+                    entryCounts[n] = count;
+                    ++n;
+                }
+
+                if (total > 0)
+                    writeColumn(out, phenotype, total, entryGenes, entryCounts, n);
+                else if (n > 0)
+                    throw new RuntimeException("Error " + operation + " model files " + a + " and " + b + ": phenotype " + phenotype + " counted without cases");
+
+                if (c <= 0)
+                    hasA = inA.next();
+                if (c >= 0)
+                    hasB = inB.next();
+            }
+            out.writeUTF("");
+        }
+        catch (IOException e) {
+            new File(resultFileName).delete();
+            throw new RuntimeException("Error " + operation + " model files " + a + " and " + b + ": " + e.getMessage());
+        }
+        catch (RuntimeException e) {
+            // no partial result is left behind
+            new File(resultFileName).delete();
+            throw e;
+        }
+    }
+
+    private static int checked(final int value, final String name, final String operation, final String a, final String b) {
+        if (value < 0)
+            throw new RuntimeException("Error " + operation + " model files " + a + " and " + b + ": negative " + name + " (" + b + " is not a part of " + a + ")");
+
+        return value;
+    }
+
+    private static DataOutputStream create(final String fileName) throws FileNotFoundException {
+        Utils.createDirectoriesForFile(fileName);
+        return new DataOutputStream(new BufferedOutputStream(new FileOutputStream(fileName), 1 << 16));
+    }
+
+    private static void writeHeader(final DataOutputStream out, final int cases, final String[] genes, final int[] geneFreq) throws IOException {
+        out.writeUTF(MAGIC);
+        writeVarint(out, VERSION);
+        writeVarint(out, cases);
+
+        writeVarint(out, genes.length);
+        for (int s = 0; s < genes.length; ++s) {
+            out.writeUTF(genes[s]);
+            writeVarint(out, geneFreq[s]);
+        }
+    }
+
+    private static void writeColumn(final DataOutputStream out, final String phenotype, final int total,
+                                    final int[] genes, final int[] counts, final int entries) throws IOException {
+        out.writeUTF(phenotype);
+        writeVarint(out, total);
+        writeVarint(out, entries);
+
+        for (int j = 0, last = 0; j < entries; last = genes[j++]) {
+            writeVarint(out, genes[j] - last);
+            writeVarint(out, counts[j]);
+        }
+    }
+
+    // header of a snapshot followed by a cursor over its phenotype columns
+    private static class SnapshotReader implements Closeable
+    {
+        private final DataInputStream in;
+
+        final int      cases;
+        final String[] genes;
+        final int[]    geneFreq;
+
+        // current column
+        String phenotype    = null;
+        int    total        = 0;
+        int    entries      = 0;
+        int[]  columnGenes  = new int[0];
+        int[]  columnCounts = new int[0];
+
+        SnapshotReader(final String fileName) throws IOException {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(fileName), 1 << 16));
+
+            try {
+                if (!MAGIC.equals(in.readUTF()))
+                    throw new IOException("not a model file");
+            }
+            catch (IOException e) {
+                in.close();
+                throw new IOException("not a model file");
+            }
+
+            final int version = readVarint(in);
+            if (version != VERSION) {
+                in.close();
+                throw new IOException("unsupported version " + version);
+            }
+
+            cases    = readVarint(in);
+            genes    = new String[readVarint(in)];
+            geneFreq = new int[genes.length];
+            for (int s = 0; s < genes.length; ++s) {
+                genes[s]    = in.readUTF();
+                geneFreq[s] = readVarint(in);
+            }
+
+            columnGenes  = new int[genes.length];
+            columnCounts = new int[genes.length];
+        }
+
+        // reads the next column; false at the end of the snapshot
+        boolean next() throws IOException {
+            phenotype = in.readUTF();
+            if (phenotype.isEmpty())
+                return false;
+
+            total   = readVarint(in);
+            entries = readVarint(in);
+            if (entries > genes.length)
+                throw new IOException("corrupted column of phenotype " + phenotype);
+
+            for (int j = 0, gene = 0; j < entries; ++j) {
+                gene += readVarint(in);
+                if (gene >= genes.length)
+                    throw new IOException("corrupted column of phenotype " + phenotype);
+
+                columnGenes[j]  = gene;
+                columnCounts[j] = readVarint(in);
+            }
+            return true;
+        }
+
+        @Override
+        public void close() throws IOException { in.close(); }
+    }
+
+    private static void writeVarint(final DataOutputStream out, int value) throws IOException {
+        while ((value & ~0x7F) != 0) {
+            out.write((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.write(value);
+    }
+
+    private static int readVarint(final DataInputStream in) throws IOException {
+        int result = 0;
+        for (int shift = 0; ; shift += 7) {
+            final int b = in.readUnsignedByte();
+
+            result |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0)
+                return result;
+        }
+    }
+}
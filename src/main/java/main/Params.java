@@ -10,6 +10,17 @@ import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
 public class Params {
+    public static final String BENCH    = "bench";
+    public static final String WORKER   = "worker";
+    public static final String SWEEP    = "sweep";
+    public static final String PRUNE    = "prune";
+    public static final String TRAIN    = "train";
+    public static final String MERGE    = "merge";
+    public static final String SUBTRACT = "subtract";
+    public static final String CONVERT  = "convert";
+    public static final String ANYTIME  = "anytime";
+
+    private String command;
     private List<String> learningFiles;
     private final List<String> phenotypes;
     private String outputFile;
@@ -18,6 +29,42 @@ public class Params {
     private String geneIdType;
     private Integer max;
     private boolean showIntermediateResultsInfo;
+    private boolean stream;
+    private String outputFormat;
+    private int cases;
+    private int patients;
+    private int genes;
+    private double zipf;
+    private long seed;
+    private GeneShard shard;
+    private int port;
+    private int shards;
+    private String countStore;
+    private int spillEntries;
+    private String panelFile;
+    private double[] clips;
+    private double[] smoothings;
+    private double[] priors;
+    private double[] budgets;
+    private DisorderIndex.Aggregation disorderAggregation;
+    private String disorderFile;
+    private int minCount;
+    private int minDepth;
+    private int minGeneCases;
+    private final List<String> modelFiles;
+    private boolean heatmaps;
+    private boolean evidence;
+    private String resultFile;
+    private Integer watch;
+    private int parallelThreshold;
+    private String cohort;
+    private String caseAttributesFile;
+    private String cacheFile;
+    private long cacheSize;
+    private String patientDir;
+    private List<String> learningIndexFiles;
+    private int ingestThreads;
+    private boolean skipInvalid;
     private boolean help;
 
     public Params(String[] args) {
@@ -28,11 +75,48 @@ public class Params {
         geneIdType = "H";
         max = null;
         showIntermediateResultsInfo = false;
+        stream = false;
+        outputFormat = StreamPrioritizer.TSV;
+        cases = 100_000;
+        patients = 1_000;
+        genes = 20_000;
+        zipf = 1.;
+        seed = 1;
+        shard = GeneShard.ALL;
+        port = 0;
+        shards = 1;
+        countStore = null;
+        spillEntries = DiskCountStore.DEFAULT_MAX_ENTRIES;
+        panelFile = null;
+        clips = new double[]{ Classifier.CLIP_EVIDENCE };
+        smoothings = new double[]{ 0 };
+        priors = new double[]{ 0 };
+        budgets = new double[]{ 0.05, 0.1, 0.2, 0.5, 1, 2, 5 };
+        disorderAggregation = null;
+        disorderFile = DisorderIndex.DEFAULT_FILE;
+        minCount = 1;
+        minDepth = 0;
+        minGeneCases = 1;
+        modelFiles = new ArrayList<>();
+        heatmaps = false;
+        evidence = false;
+        resultFile = null;
+        watch = null;
+        parallelThreshold = Classifier.DEFAULT_PARALLEL_THRESHOLD;
+        cohort = null;
+        caseAttributesFile = null;
+        cacheFile = null;
+        cacheSize = ResultCache.DEFAULT_MAX_BYTES;
+        patientDir = null;
+        learningIndexFiles = new ArrayList<>();
+        ingestThreads = PatientDirectory.DEFAULT_THREADS;
+        skipInvalid = false;
         help = false;
 
         load(args);
     }
 
+    public String       command()                     { return command;                     }
     public List<String> phenotypes()                  { return  phenotypes;                 }
     public List<String> learningFiles()               { return  learningFiles;              }
     public String       outputFile()                  { return outputFile;                  }
@@ -41,6 +125,42 @@ public class Params {
     public Integer      max()                         { return max;                         }
     public String       geneIdType()                  { return geneIdType;                  }
     public boolean      showIntermediateResultsInfo() { return showIntermediateResultsInfo; }
+    public boolean      stream()                      { return stream;                      }
+    public String       outputFormat()                { return outputFormat;                }
+    public int          cases()                       { return cases;                       }
+    public int          patients()                    { return patients;                    }
+    public int          genes()                       { return genes;                       }
+    public double       zipf()                        { return zipf;                        }
+    public long         seed()                        { return seed;                        }
+    public GeneShard    shard()                       { return shard;                       }
+    public int          port()                        { return port;                        }
+    public int          shards()                      { return shards;                      }
+    public String       countStore()                  { return countStore;                  }
+    public int          spillEntries()                { return spillEntries;                }
+    public String       panelFile()                   { return panelFile;                   }
+    public double[]     clips()                       { return clips;                       }
+    public double[]     smoothings()                  { return smoothings;                  }
+    public double[]     priors()                      { return priors;                      }
+    public double[]     budgets()                     { return budgets;                     }
+    public DisorderIndex.Aggregation disorderAggregation() { return disorderAggregation;   }
+    public String       disorderFile()                { return disorderFile;                }
+    public int          minCount()                    { return minCount;                    }
+    public int          minDepth()                    { return minDepth;                    }
+    public int          minGeneCases()                { return minGeneCases;                }
+    public List<String> modelFiles()                  { return modelFiles;                  }
+    public boolean      heatmaps()                    { return heatmaps;                    }
+    public boolean      evidence()                    { return evidence;                    }
+    public Integer      watch()                       { return watch;                       }
+    public int          parallelThreshold()           { return parallelThreshold;           }
+    public String       cohort()                      { return cohort;                      }
+    public String       caseAttributesFile()          { return caseAttributesFile;          }
+    public String       cacheFile()                   { return cacheFile;                   }
+    public long         cacheSize()                   { return cacheSize;                   }
+    public String       patientDir()                  { return patientDir;                  }
+    public List<String> learningIndexFiles()          { return learningIndexFiles;          }
+    public int          ingestThreads()               { return ingestThreads;               }
+    public boolean      skipInvalid()                 { return skipInvalid;                 }
+    public String       resultFile()                  { return resultFile;                  }
     public boolean      help()                        { return help;                        }
 
     private void load(String[] args) {
@@ -49,7 +169,15 @@ public class Params {
             return;
         }
 
-        for (int i = 0; i < args.length; ++i) {
+        int first = 0;
+        if (BENCH.equals(args[0]) || WORKER.equals(args[0]) || SWEEP.equals(args[0]) || PRUNE.equals(args[0]) ||
+            TRAIN.equals(args[0]) || MERGE.equals(args[0])  || SUBTRACT.equals(args[0]) || CONVERT.equals(args[0]) ||
+            ANYTIME.equals(args[0])) {
+            command = args[0];
+            first = 1;
+        }
+
+        for (int i = first; i < args.length; ++i) {
             switch (args[i]) {
                 case "-h" :
                 case "-H" :
@@ -81,14 +209,227 @@ public class Params {
                 case "-t" : testFile = getArg(arg(args, ++i), "missing test file for -t option");
                             break;
 
+                case "--stream" : stream = true;
+                                  break;
+
+                case "--format" : outputFormat = getArg(arg(args, ++i), "missing output format for --format option");
+                                  if (!outputFormat.equals(StreamPrioritizer.TSV) && !outputFormat.equals(StreamPrioritizer.JSON) && !outputFormat.equals(ResultFile.BIN))
+                                      throw new RuntimeException("--format option error: output format must be tsv, json or bin");
+                                  break;
+
+                case "--cases"    : cases = addInt(arg(args, ++i), "Illegal int value for number of synthetic training cases");
+                                    break;
+
+                case "--patients" : patients = addInt(arg(args, ++i), "Illegal int value for number of synthetic patients");
+                                    break;
+
+                case "--genes"    : genes = addInt(arg(args, ++i), "Illegal int value for number of synthetic genes");
+                                    break;
+
+                case "--zipf"     : zipf = addDouble(arg(args, ++i), "Illegal value for Zipf exponent");
+                                    break;
+
+                case "--seed"     : seed = addLong(arg(args, ++i), "Illegal long value for random seed");
+                                    break;
+
+                case "--shard"    : shard = GeneShard.parse(getArg(arg(args, ++i), "missing gene shard for --shard option"));
+                                    break;
+
+                case "--port"     : port = addInt(arg(args, ++i), "Illegal int value for port");
+                                    break;
+
+                case "--shards"   : shards = addInt(arg(args, ++i), "Illegal int value for number of gene shards");
+                                    if (shards < 1)
+                                        throw new RuntimeException("--shards (number of gene shards) value must be greater than 0");
+                                    break;
+
+                case "--count-store"   : countStore = getArg(arg(args, ++i), "missing directory for --count-store option");
+                                         break;
+
+                case "--spill-entries" : spillEntries = addInt(arg(args, ++i), "Illegal int value for number of in-memory counts");
+                                         if (spillEntries < 1)
+                                             throw new RuntimeException("--spill-entries value must be greater than 0");
+                                         break;
+
+                case "--panel"         : panelFile = getArg(arg(args, ++i), "missing gene panel file for --panel option");
+                                         break;
+
+                case "--clip"          : clips = addDoubles(arg(args, ++i), "Illegal list of clip values for --clip option");
+                                         break;
+
+                case "--smoothing"     : smoothings = addDoubles(arg(args, ++i), "Illegal list of smoothing values for --smoothing option");
+                                         break;
+
+                case "--prior"         : priors = addDoubles(arg(args, ++i), "Illegal list of prior weights for --prior option");
+                                         break;
+
+                case "--budgets"       : budgets = addDoubles(arg(args, ++i), "Illegal list of time budgets for --budgets option");
+                                         break;
+
+                case "--disorders"     : disorderAggregation = DisorderIndex.Aggregation.parse(getArg(arg(args, ++i), "missing aggregation (max or logsum) for --disorders option"));
+                                         break;
+
+                case "--disorder-file" : disorderFile = getArg(arg(args, ++i), "missing disorder-gene file for --disorder-file option");
+                                         break;
+
+                case "--min-count"      : minCount = addInt(arg(args, ++i), "Illegal int value for --min-count option");
+                                          if (minCount < 1)
+                                              throw new RuntimeException("--min-count value must be greater than 0");
+                                          break;
+
+                case "--min-depth"      : minDepth = addInt(arg(args, ++i), "Illegal int value for --min-depth option");
+                                          if (minDepth < 0)
+                                              throw new RuntimeException("--min-depth value must not be negative");
+                                          break;
+
+                case "--min-gene-cases" : minGeneCases = addInt(arg(args, ++i), "Illegal int value for --min-gene-cases option");
+                                          if (minGeneCases < 1)
+                                              throw new RuntimeException("--min-gene-cases value must be greater than 0");
+                                          break;
+
+                case "--heatmaps"       : heatmaps = true;
+                                          break;
+
+                case "--evidence"       : evidence = true;
+                                          break;
+
+                case "--watch"          : watch = addInt(arg(args, ++i), "Illegal int value for --watch interval");
+                                          if (watch < 1)
+                                              throw new RuntimeException("--watch (seconds between checks of learning files) value must be greater than 0");
+                                          break;
+
+                case "--cohort"             : cohort = getArg(arg(args, ++i), "missing cohort filter for --cohort option");
+                                              break;
+
+                case "--case-attributes"    : caseAttributesFile = getArg(arg(args, ++i), "missing case attributes file for --case-attributes option");
+                                              break;
+
+                case "--cache"              : cacheFile = getArg(arg(args, ++i), "missing result cache file for --cache option");
+                                              break;
+
+                case "--cache-size"         : final int megabytes = addInt(arg(args, ++i), "Illegal int value for --cache-size");
+                                              if (megabytes < 1 || megabytes > 2047)
+                                                  throw new RuntimeException("--cache-size (MB) value must be between 1 and 2047");
+                                              cacheSize = (long) megabytes << 20;
+                                              break;
+
+                case "--patient-dir"        : patientDir = getArg(arg(args, ++i), "missing patient file directory for --patient-dir option");
+                                              break;
+
+                case "--learning-index"     : learningIndexFiles.add(getArg(arg(args, ++i), "missing patient index file for --learning-index option"));
+                                              break;
+
+                case "--ingest-threads"     : ingestThreads = addInt(arg(args, ++i), "Illegal int value for --ingest-threads");
+                                              if (ingestThreads < 1)
+                                                  throw new RuntimeException("--ingest-threads (number of patient file readers) value must be greater than 0");
+                                              break;
+
+                case "--skip-invalid"       : skipInvalid = true;
+                                              break;
+
+                case "--parallel-threshold" : parallelThreshold = addInt(arg(args, ++i), "Illegal int value for parallel threshold");
+                                              if (parallelThreshold < 1)
+                                                  throw new RuntimeException("--parallel-threshold (number of genes) value must be greater than 0");
+                                              break;
+
+                case "--model"          : modelFiles.add(getArg(arg(args, ++i), "missing model file for --model option"));
+                                          break;
+
                 default:  addPhenotype(arg(args, i));
             }
         }
 
+        if (BENCH.equals(command)) {
+            if (!phenotypes.isEmpty())
+                throw new RuntimeException("Unexpected parameters for " + command + " command: " + String.join(" ", phenotypes));
+
+            if (cases < 1 || patients < 1 || genes < 1 || zipf <= 0)
+                throw new RuntimeException("Number of cases, patients, genes and Zipf exponent must be greater than 0");
+
+            return;
+        }
+
+        if (MERGE.equals(command) || SUBTRACT.equals(command)) {
+            if (phenotypes.size() != 2 || outputFile == null || args.length != 5)
+                throw new RuntimeException(command + " command requires two model files and an output model file (-o option)");
+
+            modelFiles.addAll(phenotypes);
+            phenotypes.clear();
+            return;
+        }
+
+        if (CONVERT.equals(command)) {
+            if (phenotypes.size() != 1 || outputFile == null)
+                throw new RuntimeException(command + " command requires a result file and an output file (-o option)");
+
+            resultFile = phenotypes.remove(0);
+            return;
+        }
+
         if (prioritizationFile != null && testFile != null)
             throw new RuntimeException("You can choose only one of -c and -t options");
 
-        if (prioritizationFile != null || testFile != null) {
+        if (ANYTIME.equals(command) && (testFile == null || prioritizationFile != null || stream || !phenotypes.isEmpty()))
+            throw new RuntimeException(command + " command requires a test file (-t option) and no other modes");
+
+        if (SWEEP.equals(command) && (testFile == null || prioritizationFile != null || stream || !phenotypes.isEmpty()))
+            throw new RuntimeException(command + " command requires a test file (-t option) and no other modes");
+
+        if (ResultFile.BIN.equals(outputFormat) && (prioritizationFile == null || heatmaps || shards > 1 || command != null))
+            throw new RuntimeException("--format bin can be used only with -p option");
+
+        if (evidence && !ResultFile.BIN.equals(outputFormat))
+            throw new RuntimeException("--evidence can be used only with --format bin");
+
+        if (heatmaps && (prioritizationFile == null || command != null || shards > 1))
+            throw new RuntimeException("--heatmaps can be used only with -p option");
+
+        if (TRAIN.equals(command) && (outputFile == null || prioritizationFile != null || testFile != null || stream || !phenotypes.isEmpty()))
+            throw new RuntimeException(command + " command requires an output model file (-o option) and no other modes");
+
+        if (PRUNE.equals(command) && (outputFile == null || prioritizationFile != null || stream || !phenotypes.isEmpty()))
+            throw new RuntimeException(command + " command requires an output model file (-o option) and no other modes");
+
+        if (!modelFiles.isEmpty() && (countStore != null || shards > 1 || WORKER.equals(command)))
+            throw new RuntimeException("--model can not be combined with --count-store, --shards or worker command");
+
+        if (shards > 1 && (testFile != null || !phenotypes.isEmpty() || command != null || (prioritizationFile == null && !stream)))
+            throw new RuntimeException("--shards can be used only with -p or --stream option");
+
+        if (disorderAggregation != null && (phenotypes.isEmpty() || panelFile != null))
+            throw new RuntimeException("--disorders can be used only in prioritization of phenotypes without --panel option");
+
+        if (panelFile != null && (testFile != null || command != null || shards > 1))
+            throw new RuntimeException("--panel can be used only with phenotypes, -p or --stream option");
+
+        if (WORKER.equals(command) && (prioritizationFile != null || testFile != null || stream || !phenotypes.isEmpty()))
+            throw new RuntimeException("Unexpected parameters for " + command + " command");
+
+        if (caseAttributesFile != null && cohort == null)
+            throw new RuntimeException("--case-attributes can be used only with --cohort option");
+
+        if (cohort != null && (!modelFiles.isEmpty() || countStore != null || shards > 1 || watch != null || WORKER.equals(command)))
+            throw new RuntimeException("--cohort can not be combined with --model (snapshots keep no cases), --count-store, --shards, --watch or worker command");
+
+        if (watch != null && (!stream || shards > 1 || countStore != null))
+            throw new RuntimeException("--watch can be used only with --stream option without --shards and --count-store");
+
+        if (cacheFile != null && (watch != null || !(stream || (prioritizationFile != null && !heatmaps && !ResultFile.BIN.equals(outputFormat) && shards <= 1))))
+            throw new RuntimeException("--cache can be used only with --stream (without --watch) or -p option (tsv format, without --heatmaps and --shards)");
+
+        if (skipInvalid && patientDir == null)
+            throw new RuntimeException("--skip-invalid can be used only with --patient-dir option");
+
+        if (patientDir != null && prioritizationFile == null && learningIndexFiles.isEmpty())
+            throw new RuntimeException("--patient-dir can be used only with -p or --learning-index option");
+
+        if (!learningIndexFiles.isEmpty() && (patientDir == null || shards > 1 || watch != null || cacheFile != null || WORKER.equals(command)))
+            throw new RuntimeException("--learning-index requires --patient-dir and can not be combined with --shards, --watch, --cache or worker command");
+
+        if (stream && (prioritizationFile != null || testFile != null || !phenotypes.isEmpty()))
+            throw new RuntimeException("Ambiguous parameters: --stream reads patients from standard input");
+
+        if ((prioritizationFile != null || testFile != null) && !PRUNE.equals(command)) {
             if (outputFile == null)
                 throw new RuntimeException("Missing output file (-o parameter)");
 
@@ -115,6 +456,37 @@ public class Params {
         }
     }
 
+    private static long addLong(final String arg, final String errorMessage) {
+        try {
+            return Long.parseLong(arg);
+        }
+        catch (Exception e) {
+            throw new RuntimeException(errorMessage);
+        }
+    }
+
+
+    private static double addDouble(final String arg, final String errorMessage) {
+        try {
+            return Double.parseDouble(arg);
+        }
+        catch (Exception e) {
+            throw new RuntimeException(errorMessage);
+        }
+    }
+
+    // comma separated list of numbers
+    private static double[] addDoubles(final String arg, final String errorMessage) {
+        if (arg == null || arg.trim().isEmpty())
+            throw new RuntimeException(errorMessage);
+
+        final String[] values = arg.split(",");
+        final double[] result = new double[values.length];
+        for (int i = 0; i < values.length; ++i)
+            result[i] = addDouble(values[i].trim(), errorMessage);
+
+        return result;
+    }
 
     private void addPhenotype(final String phenotype) {
         phenotypes.add(phenotype);
@@ -139,7 +511,7 @@ public class Params {
     }
 
     private  void defaultValues() {
-        if (learningFiles.isEmpty()) {
+        if (learningFiles.isEmpty() && modelFiles.isEmpty() && learningIndexFiles.isEmpty()) {
             try (final Stream<Path> fileStream = Files.list(Paths.get("./data/cases"))) {
                 learningFiles.addAll(fileStream
                                        .filter(file -> !Files.isDirectory(file))
@@ -182,11 +554,100 @@ public class Params {
         System.out.println("\t\t- diagnosed gene id (Entrez or Hugo id; auto-detected)");
         System.out.println("\t\t- patient's phenotypes Human Phenotype Ontology codes");
 
+        System.out.println("\nEXAMPLE [prioritization of patients' genes from file saved to binary result file]:\njava -jar WA.jar -p ./patients.tsv --format bin --evidence -o ./results.bin");
+        System.out.println("\t- binary result file holds patient id, Entrez ids of genes in rank order and their plausibilities; --evidence adds per-phenotype evidence of genes");
+        System.out.println("\t- result files can be memory-mapped (see ResultFile.Reader) and converted to the prioritization output file format: java -jar WA.jar convert ./results.bin -o ./results.tsv [-f H|E]");
+
+        System.out.println("\nEXAMPLE [streaming prioritization of patients read from standard input]:\ncat ./patients.tsv | java -jar WA.jar --stream --format json -m 10");
+        System.out.println("\t- input is read line by line in prioritization input file format");
+        System.out.println("\t- every patient is answered with one line on standard output as soon as it is read");
+        System.out.println("\t- with --watch <seconds> changed learning, model, HPO and gene info files are reloaded in background; patients are answered by the old model until the new one is swapped in");
+        System.out.println("\t- messages are written to standard error");
+
+        System.out.println("\nEXAMPLE [Excel heatmaps of top 10 genes of every patient from file]:\njava -jar WA.jar -m 10 -p ./patients.tsv --heatmaps -o ./heatmaps");
+        System.out.println("\t- heatmap of every patient is saved to file <patient id>.xlsx in the -o directory");
+        System.out.println("\t- heatmaps are generated in parallel; use -m to keep heatmaps small");
+
+        System.out.println("\nEXAMPLE [prioritization of genes of a gene panel only]:\njava -jar WA.jar -m 10 --panel ./epilepsy-panel.txt HP:0001250 HP:0002376 -o ./results.tsv");
+        System.out.println("\t- genes outside the panel are not evaluated; panel genes get the same scores as in prioritization of all genes");
+
+        System.out.println("\nEXAMPLE [prioritization of top 10 OMIM disorders]:\njava -jar WA.jar -m 10 --disorders max HP:0002376 HP:0002353 HP:0002240 HP:0010780 HP:0010729 HP:0001250");
+        System.out.println("\t- disorder scores are derived from gene plausibilities: max (most plausible gene) or logsum (sum of gene odds)");
+        System.out.println("\t- phenotype columns of the heatmap are plausibilities of the most plausible gene of the disorder");
+
+        System.out.println("\nEXAMPLE [testing a grid of model settings in a single pass over the test file]:\njava -jar WA.jar sweep -t ./data/cases/cada-test.tsv -o ./sweep --clip 20,30,40 --smoothing 0,0.5 --prior 0,0.5 -L ./data/cases/cada-train.tsv");
+        System.out.println("\t- the model is trained once; -t results (top % table) of every setting are saved to file <setting>.tsv in the -o directory");
+        System.out.println("\t- summary of all settings is saved to file sweep.tsv in the -o directory");
+        System.out.println("\t- sweep options (comma separated lists): --clip <values> evidence of unobserved phenotypes (default 30), --smoothing <values> pseudo-count of observed phenotypes (default 0), --prior <values> weight of gene prior odds (default 0)");
+
+        System.out.println("\nEXAMPLE [prioritization with a model of pediatric cases before 2023 of all learning files except ClinVar]:\njava -jar WA.jar --cohort \"age=pediatric,year<2023,!source=clinvar.tsv\" --case-attributes ./case-attributes.tsv -L ./data/cases/clinvar.tsv -L ./data/cases/cada-train.tsv HP:0001250 HP:0002376");
+        System.out.println("\t- training builds compressed bitmaps of cases by phenotype and attribute; counts of the cohort are computed from their intersections");
+
+        System.out.println("\nEXAMPLE [repeated prioritization of a patient file with a persistent result cache]:\njava -jar WA.jar -m 100 -p ./data/UKC/UKC-patients.tsv -o ./results/UKC-prioritization.tsv --cache ./results/WA.cache -L ./data/cases/cada-train.tsv");
+        System.out.println("\t- results are keyed by a hash of the model inputs (contents of learning, model, ontology, gene and panel files), the phenotype set and -m; changed inputs never hit old results");
+        System.out.println("\t- the cache is shared by runs with any -f gene id format");
+
+        System.out.println("\nEXAMPLE [prioritization of patients of a UKC export with phenotypes in per-patient files]:\njava -jar WA.jar -m 100 -p ./data/UKC/UKC-patients.tsv --patient-dir ./data/UKC/phenotypes -o ./results/UKC-prioritization.tsv");
+        System.out.println("\t- patient index file: header line; patient id, diagnosed gene id and further columns per line, tab separated");
+        System.out.println("\t- phenotypes of a patient are read from the first line of file <patient id>.tsv of the directory; files are read concurrently and patients are prioritized in index order");
+        System.out.println("\t- missing patient files are skipped; an invalid patient file (empty, short line, malformed phenotype id, no phenotypes) stops the run unless --skip-invalid is given");
+        System.out.println("\t- numbers of skipped files by problem are reported on standard error; --learning-index uses patients of an index file of the directory as learning cases");
+
+        System.out.println("\nEXAMPLE [rank agreement of deadline-bounded prioritization with exact prioritization for time budgets of 0.1, 0.5 and 2 ms]:\njava -jar WA.jar anytime -t ./data/cases/cada-test.tsv -o ./anytime.tsv --budgets 0.1,0.5,2 -L ./data/cases/cada-train.tsv");
+        System.out.println("\t- phenotypes are scored in order of decreasing spread of their evidence; the ranking of phenotypes scored until the deadline is returned");
+        System.out.println("\t- table of complete results, scored phenotypes, top 10 agreement, top 1/10 accuracy and latency by time budget is saved to the -o file");
+
+        System.out.println("\nEXAMPLE [pruning of a trained model with accuracy of the full and the pruned model on a test file]:\njava -jar WA.jar prune --min-count 2 --min-depth 2 --min-gene-cases 2 -t ./data/cases/cada-test.tsv -o ./cada.model -L ./data/cases/cada-train.tsv");
+        System.out.println("\t- the pruned model is saved to the -o file and can be used instead of learning files: java -jar WA.jar --model ./cada.model -p ./patients.tsv -o ./results.tsv");
+        System.out.println("\t- counts of genes, entries and heap bytes of both models and top % accuracy on the -t file (optional) are printed");
+        System.out.println("\t- prune options: --min-count <number> drop phenotype | gene counts lower than <number> (default 1), --min-depth <number> drop phenotypes above ontology depth <number> (default 0; top phenotype has depth 0), --min-gene-cases <number> drop genes with fewer training cases (default 1)");
+
+        System.out.println("\nEXAMPLE [model snapshots: training once and combining trained models without reading learning files]:");
+        System.out.println("java -jar WA.jar train -o ./clinvar.model -L ./data/cases/clinvar.tsv");
+        System.out.println("java -jar WA.jar train -o ./cada-test.model -L ./data/cases/cada-test.tsv");
+        System.out.println("java -jar WA.jar subtract ./clinvar.model ./cada-test.model -o ./clinvar-minus-cada-test.model");
+        System.out.println("java -jar WA.jar merge ./clinvar-minus-cada-test.model ./cada-train.model -o ./training.model");
+        System.out.println("java -jar WA.jar --model ./training.model -m 100 -t ./data/cases/cada-test.tsv -o ./results.tsv");
+        System.out.println("\t- merge: model of learning files of both models; subtract: model of the first model without cases of the second one (the second model must be a part of the first one)");
+        System.out.println("\t- --model can be used multiple times and together with -L; models and learning files are collated");
+
+        System.out.println("\nEXAMPLE [scaling benchmark on a synthetic corpus; results in JSON format]:\njava -jar WA.jar bench --cases 1000000 --patients 10000 --genes 20000 --zipf 1.0 -o ./bench");
+        System.out.println("\t- synthetic training and patient files are generated from HPO ontology and gene lexicon in the -o directory (default ./bench)");
+        System.out.println("\t- training, prioritization (-p) and testing (-t) are run on generated files");
+        System.out.println("\t- wall time, patients/sec, peak heap and GC time of every stage are reported");
+        System.out.println("\t- bench options: --cases <number> (default 100000), --patients <number> (default 1000), --genes <number> (default 20000), --zipf <exponent> (default 1.0), --seed <number> (default 1)");
+
+        System.out.println("\nEXAMPLE [prioritization of patients' genes from file with gene space partitioned across 4 local worker processes]:\njava -jar WA.jar --shards 4 -p ./patients.tsv -o ./results.tsv");
+        System.out.println("\t- every worker holds only genes of its shard; results are the same as without --shards");
+        System.out.println("\t- workers can be started separately: java -jar WA.jar worker --shard <i>/<n> --port <port> [-L learning files]");
+
         System.out.println("\nOPTIONS");
         System.out.println("\t-f gene id output format: possible values H (Hugo id/default) or E (Entrez Id)");
         System.out.println("\t-h help");
         System.out.println("\t-m <number> show only top <number> genes in classification or top <number> entries in test results frequency distribution");
         System.out.println("\t-i show intermediate results info in testing");
+        System.out.println("\t--stream prioritize patients read from standard input and write results to standard output, one output line for every input line (an empty line or a JSON error for a blank line)");
+        System.out.println("\t--shards <number> partition genes across <number> local worker processes (with -p or --stream)");
+        System.out.println("\t--panel <file> prioritize only genes of the gene panel in <file> (Hugo or Entrez ids separated by white space, commas or new lines); scores are the same as without --panel");
+        System.out.println("\t--disorders <aggregation> prioritize OMIM disorders of --disorder-file instead of genes; disorder score is max or logsum (sum of odds) of plausibilities of its genes");
+        System.out.println("\t--disorder-file <file> disorder-gene file: OMIM disorder id and gene symbol per line, comma separated (default ./data/disorder-gene.csv)");
+        System.out.println("\t--count-store <directory> keep training counts in memory-mapped files in <directory> instead of on heap (for learning files larger than the heap)");
+        System.out.println("\t--spill-entries <number> max number of training counts kept in memory before they are spilled to --count-store directory (default " + DiskCountStore.DEFAULT_MAX_ENTRIES + ")");
+        System.out.println("\t--heatmaps with -p: save an Excel heatmap of every patient to the -o directory instead of the prioritization output file");
+        System.out.println("\t--model <file> model saved by train, prune, merge or subtract command (can be used multiple times; used instead of default learning files)");
+        System.out.println("\t--format output format of --stream: possible values tsv (prioritization output file format/default) or json (JSON lines); output format of -p: tsv (default) or bin (binary result file)");
+        System.out.println("\t--evidence with --format bin: save per-phenotype evidence of genes");
+        System.out.println("\t--cohort <filter> use a model of the learning file cases selected by <filter> only, without separate learning files: comma separated conditions [!]key=value[|value...] or key<value, key<=value, key>value, key>=value on attribute source (learning file name) and attributes of --case-attributes file");
+        System.out.println("\t--case-attributes <file> attributes of learning file cases for --cohort: case id and key=value attributes per line, tab separated");
+        System.out.println("\t--parallel-threshold <number> prioritization of a single patient is split across all cores for models with at least <number> genes (default " + Classifier.DEFAULT_PARALLEL_THRESHOLD + "); results are the same as of sequential prioritization");
+        System.out.println("\t--cache <file> with -p or --stream: keep prioritizations in a persistent result cache file; patients with phenotypes prioritized before by the same model are not scored again (hit rate is reported at the end); not with --learning-index, whose patient files are not part of the cache key");
+        System.out.println("\t\t- single patients of the command line are not cached: their reports need scores and per-phenotype evidence, the cache keeps only ranked gene ids");
+        System.out.println("\t--cache-size <MB> max size of the --cache file (default " + (ResultCache.DEFAULT_MAX_BYTES >> 20) + "); least recently used results are evicted when it is exceeded");
+        System.out.println("\t--patient-dir <directory> directory of per-patient phenotype files <patient id>.tsv (UKC export); the -p file is a patient index file of the directory");
+        System.out.println("\t--learning-index <file> patient index file of --patient-dir whose patients are learning cases (can be used multiple times)");
+        System.out.println("\t--skip-invalid with --patient-dir: skip invalid patient files (reported by problem on standard error) instead of stopping");
+        System.out.println("\t--ingest-threads <number> max number of patient files of --patient-dir read concurrently (default " + PatientDirectory.DEFAULT_THREADS + ")");
+        System.out.println("\t--watch <seconds> with --stream: check learning files for changes every <seconds> seconds and reload the model (reload time, peak heap and model version are reported on standard error)");
         System.out.println("\t-L learning file location(can be used multiple times; learning files are collated). Learning file format:");
         System.out.println("\t\t- every patient on separate line");
         System.out.println("\t\t- patient data columns are tab separated in the following order");
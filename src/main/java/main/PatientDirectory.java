@@ -0,0 +1,276 @@
+package main;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.*;
+import java.util.concurrent.*;
+
+import static main.Utils.*;
+
+/*
+    Directory of per-patient phenotype files (UKC export): patient index file with header line and patient id and
+    diagnosed gene id in the first two of at least 3 tab separated columns, phenotypes of a patient in the first line
+    of file <patient id>.tsv of the directory (columns 4 to the last but one, e.g. HP:0001250:Seizure).
+
+    The directory is listed once; patient files are read and parsed concurrently by at most `threads` readers (a small
+    directory of a network share is dominated by latency of opens, not by bandwidth), and patients are passed on in
+    index order. Missing patient files are skipped; an invalid patient file (empty, short first line, malformed
+    phenotype id, no phenotypes, unreadable) stops ingestion unless skipInvalid is set. Skipped files are counted by
+    problem in the Summary.
+ */
+public class PatientDirectory
+{
+    public static final int DEFAULT_THREADS = 16;
+
+    private static final String EXTENSION       = ".tsv";
+    private static final int    SUMMARY_SAMPLES = 10;
+
+    private final Path        directory;
+    private final int         threads;
+    private final boolean     skipInvalid;
+    private       Set<String> fileNames = null; // names of patient files of the directory
+
+    // reasons of skipped patient files
+    public enum Problem
+    {
+        MISSING("missing"), EMPTY("empty"), COLUMNS("illegal number of columns"), PHENOTYPE("illegal phenotype id"),
+        NO_PHENOTYPES("no phenotypes"), UNREADABLE("unreadable");
+
+        private final String description;
+
+        Problem(final String description) {
+            this.description = description;
+        }
+
+        @Override
+        public String toString() { return description; }
+    }
+
+    public interface PatientConsumer {
+        void accept(String patientId, String geneId, List<String> phenotypes) throws Throwable;
+    }
+
+    public static class Summary
+    {
+        private final String                indexFileName;
+        private       int                   patients = 0;
+        private       int                   skipped  = 0;
+        private final Map<Problem, Integer> problems = new EnumMap<>(Problem.class);
+        private final List<String>          samples  = new ArrayList<>(); // first skipped files
+
+        private Summary(final String indexFileName) {
+            this.indexFileName = indexFileName;
+        }
+
+        public int patients()                      { return patients;                         }
+        public int skipped()                       { return skipped;                          }
+        public int skipped(final Problem problem)  { return problems.getOrDefault(problem, 0); }
+
+        private void skip(final Problem problem, final String sample) {
+            ++skipped;
+            problems.merge(problem, 1, Integer::sum);
+            if (samples.size() < SUMMARY_SAMPLES)
+                samples.add(sample);
+        }
+
+        @Override
+        public String toString() {
+            final StringBuilder result = new StringBuilder(patients + " patients of index " + indexFileName + " ingested, " + skipped + " patient files skipped");
+            String separator = ": ";
+            for (final Map.Entry<Problem, Integer> problem : problems.entrySet()) {
+                result.append(separator).append(problem.getValue()).append(' ').append(problem.getKey());
+                separator = ", ";
+            }
+            for (final String sample : samples)
+                result.append("\n\t").append(sample);
+            if (skipped > samples.size())
+                result.append("\n\t...");
+
+            return result.toString();
+        }
+    }
+
+    // patient of the index with phenotypes of its file; problem is not null if the file is missing or invalid
+    private static class Patient
+    {
+        private final String       id;
+        private final String       geneId;
+        private       List<String> phenotypes = null;
+        private       Problem      problem    = null;
+        private       String       detail     = null;
+
+        Patient(final String id, final String geneId) {
+            this.id     = id;
+            this.geneId = geneId;
+        }
+    }
+
+    // skipInvalid: skip invalid patient files instead of failing
+    public PatientDirectory(final String directory, final int threads, final boolean skipInvalid) {
+        if (threads < 1)
+            throw new RuntimeException("number of patient file readers must be greater than 0");
+
+        this.directory   = Paths.get(directory);
+        this.threads     = threads;
+        this.skipInvalid = skipInvalid;
+    }
+
+    // passes patients of the index file with their phenotypes to the consumer in index order
+    public Summary ingest(final String indexFileName, final PatientConsumer consumer) {
+        final Set<String>     files   = fileNames();
+        final Summary         summary = new Summary(indexFileName);
+        final ExecutorService readers = Executors.newFixedThreadPool(threads, runnable -> {
+            final Thread thread = new Thread(runnable, "patient-file-reader");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        // patients being read, in index order; the window bounds patients held in memory
+        final Deque<Future<Patient>> window = new ArrayDeque<>();
+        try {
+            fileLineReader(indexFileName, (lineNo, row) -> {
+                if (lineNo == 1)
+                    return;
+
+                final String[] columns = row.split("\\t");
+                if (columns.length < 3)
+                    throw new RuntimeException("Illegal number of columns in line " + lineNo + " of file " + indexFileName);
+
+                final Patient patient = new Patient(columns[0], columns[1]);
+                if (files.contains(patient.id + EXTENSION))
+                    window.add(readers.submit(() -> read(patient)));
+                else
+                    window.add(CompletableFuture.completedFuture(invalid(patient, Problem.MISSING, null)));
+
+                if (window.size() >= 4 * threads)
+                    accept(window.poll().get(), summary, consumer);
+            });
+
+            while (!window.isEmpty())
+                accept(window.poll().get(), summary, consumer);
+        }
+        catch (RuntimeException e) {
+            throw e;
+        }
+        catch (Throwable e) {
+            throw new RuntimeException("Error reading patient files of directory " + directory + ": " + e.getMessage());
+        }
+        finally {
+            readers.shutdownNow();
+        }
+
+        return summary;
+    }
+
+    // learning file (-L file format) of patients of the index file
+    public Summary toLearningFile(final String indexFileName, final String outputFileName) {
+        final Box<Summary> result = new Box<>(null);
+        fileWriter(outputFileName, f ->
+            result.value = ingest(indexFileName, (patientId, geneId, phenotypes) -> {
+                f.write(patientId + "\t" + geneId);
+                for (final String phenotype : phenotypes)
+                    f.write("\t" + phenotype);
+                f.newLine();
+            })
+        );
+
+        return result.value;
+    }
+
+    // prioritization input file (-p file format) of patients of the index file
+    public Summary toPrioritizationFile(final String indexFileName, final String outputFileName) {
+        final Box<Summary> result = new Box<>(null);
+        fileWriter(outputFileName, f ->
+            result.value = ingest(indexFileName, (patientId, geneId, phenotypes) -> {
+                f.write(patientId);
+                for (final String phenotype : phenotypes)
+                    f.write("\t" + phenotype);
+                f.newLine();
+            })
+        );
+
+        return result.value;
+    }
+
+    private void accept(final Patient patient, final Summary summary, final PatientConsumer consumer) throws Throwable {
+        if (patient.problem == Problem.MISSING) {
+            summary.skip(Problem.MISSING, "Missing patient file: " + patient.id + EXTENSION);
+            return;
+        }
+
+        if (patient.problem != null) {
+            final String message = "Invalid patient file " + directory.resolve(patient.id + EXTENSION) + " (" + patient.problem
+                                   + (patient.detail == null ? "" : " " + patient.detail) + ")";
+            if (!skipInvalid)
+                throw new RuntimeException(message + "; use --skip-invalid to skip invalid patient files");
+
+            summary.skip(patient.problem, message);
+            return;
+        }
+
+        ++summary.patients;
+        consumer.accept(patient.id, patient.geneId, patient.phenotypes);
+    }
+
+    // phenotypes of the first line of the patient file
+    private Patient read(final Patient patient) {
+        try (final BufferedReader reader = new BufferedReader(new InputStreamReader(Files.newInputStream(directory.resolve(patient.id + EXTENSION))))) {
+            final String row = reader.readLine();
+            if (row == null)
+                return invalid(patient, Problem.EMPTY, null);
+
+            final String[] columns = row.split("\\t");
+            if (columns.length < 3)
+                return invalid(patient, Problem.COLUMNS, null);
+
+            final List<String> phenotypes = new ArrayList<>();
+            for (int i = 3; i < columns.length - 1; ++i) {
+                final String phenotype = columns[i].trim();
+                final int    firstIdx  = phenotype.indexOf(":");
+                final int    lastIdx   = phenotype.lastIndexOf(":");
+                if (lastIdx == firstIdx || lastIdx < 0)
+                    return invalid(patient, Problem.PHENOTYPE, phenotype);
+                phenotypes.add(phenotype.substring(0, lastIdx));
+            }
+
+            if (phenotypes.isEmpty())
+                return invalid(patient, Problem.NO_PHENOTYPES, null);
+
+            patient.phenotypes = phenotypes;
+        }
+        catch (IOException e) {
+            return invalid(patient, Problem.UNREADABLE, e.getMessage());
+        }
+
+        return patient;
+    }
+
+    private static Patient invalid(final Patient patient, final Problem problem, final String detail) {
+        patient.problem = problem;
+        patient.detail  = detail;
+        return patient;
+    }
+
+    // single listing of the directory instead of a check of every patient file
+    private synchronized Set<String> fileNames() {
+        if (fileNames != null)
+            return fileNames;
+
+        final Set<String> result = new HashSet<>();
+        try (final DirectoryStream<Path> files = Files.newDirectoryStream(directory, "*" + EXTENSION)) {
+            for (final Path file : files)
+                result.add(file.getFileName().toString());
+        }
+        catch (IOException e) {
+            throw new RuntimeException("Error listing patient directory " + directory + ": " + e.getMessage());
+        }
+
+        fileNames = result;
+        return result;
+    }
+}
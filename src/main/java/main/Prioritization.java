@@ -0,0 +1,108 @@
+package main;
+
+import java.util.AbstractList;
+import java.util.List;
+
+/*
+    Columnar gene prioritization result of a single patient: local gene indices of the model in rank order
+    and their total scores. The result covers either all genes or only the top ranked ones. Per-phenotype
+    breakdown of a gene score is not stored; it is computed on demand only for the rows a report actually renders.
+ */
+public class Prioritization
+{
+    private static final ThreadLocal<double[]> scratch = ThreadLocal.withInitial(() -> new double[64]);
+
+    private final Classifier classifier;
+    private final String[]   phenotypes;
+    private final int[]      phenotypeIds;
+    private final int[]      order;
+    private final double[]   scores;
+    private final String[]   omitted; // patient's phenotypes left out of a partial result
+
+    Prioritization(final Classifier classifier, final String[] phenotypes, final int[] phenotypeIds, final int[] order, final double[] scores) {
+        this(classifier, phenotypes, phenotypeIds, order, scores, new String[0]);
+    }
+
+    private Prioritization(final Classifier classifier, final String[] phenotypes, final int[] phenotypeIds, final int[] order, final double[] scores,
+                           final String[] omitted) {
+        this.classifier   = classifier;
+        this.phenotypes   = phenotypes;
+        this.phenotypeIds = phenotypeIds;
+        this.order        = order;
+        this.scores       = scores;
+        this.omitted      = omitted;
+    }
+
+    // the same result with omitted phenotypes of the patient
+    Prioritization partial(final String[] omitted) {
+        return new Prioritization(classifier, phenotypes, phenotypeIds, order, scores, omitted);
+    }
+
+    public Classifier classifier() { return classifier; }
+
+    public int size() { return order.length; }
+
+    // patient's phenotypes in the order used for scoring and breakdown columns
+    public String[] phenotypes() { return phenotypes.clone(); }
+    public int phenotypeCount()  { return phenotypes.length;  }
+    public String phenotype(final int j) { return phenotypes[j]; }
+
+    // true if only some of the patient's phenotypes were scored (e.g. when the deadline of the prioritization came)
+    public boolean  partial()           { return omitted.length > 0; }
+    public String[] omittedPhenotypes() { return omitted.clone();    }
+
+    // local gene index of the model at rank (0 based)
+    public int geneIndex(final int rank) { return order[rank]; }
+
+    // Entrez id of the gene at rank (0 based)
+    public String gene(final int rank) { return classifier.geneId(order[rank]); }
+
+    public double plausibility(final int rank) { return scores[rank]; }
+
+    // rank (0 based) of gene with local index
+    public int rankOfGeneIndex(final int geneIndex) {
+        for (int rank = 0; rank < order.length; ++rank)
+            if (order[rank] == geneIndex)
+                return rank;
+
+        return -1;
+    }
+
+    public List<String> genes() {
+        return new AbstractList<String>() {
+            @Override public String get(final int rank) { return gene(rank);  }
+            @Override public int    size()              { return order.length; }
+        };
+    }
+
+    // evidence(phenotype | gene) of gene at rank for phenotype(j)
+    public double plausibilityByPhenotype(final int rank, final int j) {
+        return classifier.evidence(phenotypeIds[j], order[rank]);
+    }
+
+    /*
+        per-phenotype breakdown of the gene at rank, parallel to phenotypes(); the returned array is a per-thread
+        scratch buffer which is overwritten by the next call in the same thread
+     */
+    public double[] plausibilityByPhenotype(final int rank) {
+        double[] result = scratch.get();
+        if (result.length < phenotypes.length) {
+            result = new double[Math.max(phenotypes.length, 2 * result.length)];
+            scratch.set(result);
+        }
+
+        for (int j = 0; j < phenotypes.length; ++j)
+            result[j] = plausibilityByPhenotype(rank, j);
+
+        return result;
+    }
+
+    // gene at rank with full per-phenotype breakdown
+    public GenePlausibility get(final int rank) {
+        final GenePlausibility result = new GenePlausibility(gene(rank));
+        for (int j = 0; j < phenotypes.length; ++j)
+            result.set(phenotypes[j], plausibilityByPhenotype(rank, j));
+
+        return result;
+    }
+}
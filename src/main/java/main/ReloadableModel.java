@@ -0,0 +1,222 @@
+package main;
+
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+/*
+    Model of a long-lived process which is rebuilt from its sources (HPO file, gene info file, model snapshots and
+    learning files) without pausing queries. A reload builds a new ModelContext and Classifier on a background thread
+    and publishes them by an atomic swap of the current version: queries which already got the old model finish on
+    it, later queries see the new one. A failed reload keeps the current version.
+
+    Sources can be watched: they are polled for changes of size or modification time and a reload starts once the
+    changed sources are stable for one polling interval (e.g. a learning file is not being copied anymore).
+ */
+public class ReloadableModel implements GeneRanker, AutoCloseable
+{
+    private final String                    hpoFile;
+    private final String                    geneInfoFile;
+    private final List<String>              modelFiles;
+    private final List<String>              learningFiles;
+    private final AtomicReference<Version>  current  = new AtomicReference<>();
+    private final ExecutorService           loader   = Executors.newSingleThreadExecutor(daemon("wa-reload"));
+    private ScheduledExecutorService        watcher  = null;
+
+    // model loaded from sources; version 1 is the initial model
+    public static class Version
+    {
+        private final Classifier        classifier;
+        private final int               number;
+        private final long              reloadMillis;
+        private final long              peakHeap;
+        private final Map<String, Long> stamps;
+
+        private Version(final Classifier classifier, final int number, final long reloadMillis, final long peakHeap, final Map<String, Long> stamps) {
+            this.classifier   = classifier;
+            this.number       = number;
+            this.reloadMillis = reloadMillis;
+            this.peakHeap     = peakHeap;
+            this.stamps       = stamps;
+        }
+
+        public Classifier classifier()   { return classifier;   }
+        public int        number()       { return number;       }
+        public long       reloadMillis() { return reloadMillis; }
+
+        // heap high-water mark of the process during the reload (sum of per pool peaks)
+        public long peakHeap() { return peakHeap; }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.US, "model version %d: %d genes, %d cases, loaded in %d ms, peak heap %.1f MB",
+                                 number, classifier.counts().geneCount(), classifier.counts().cases(), reloadMillis, peakHeap / (1024. * 1024.));
+        }
+    }
+
+    // initial model is built from the sources
+    public ReloadableModel(final String hpoFile, final String geneInfoFile, final List<String> modelFiles, final List<String> learningFiles) {
+        this(null, hpoFile, geneInfoFile, modelFiles, learningFiles);
+    }
+
+    // initial model is an already built model of the sources (e.g. of the shared context)
+    public ReloadableModel(final Classifier initial, final String hpoFile, final String geneInfoFile, final List<String> modelFiles, final List<String> learningFiles) {
+        this.hpoFile       = hpoFile;
+        this.geneInfoFile  = geneInfoFile;
+        this.modelFiles    = new ArrayList<>(modelFiles);
+        this.learningFiles = new ArrayList<>(learningFiles);
+
+        current.set(initial == null ? load(1) : new Version(initial, 1, 0, 0, stamps()));
+    }
+
+    public Version version() { return current.get(); }
+
+    public Classifier model() { return current.get().classifier; }
+
+    // genes and gene ids of a patient must come from one model: use snapshot() for both
+    @Override
+    public List<String> rankGenes(final Set<String> phenotypes, final Integer maxGenes) {
+        return model().rankGenes(phenotypes, maxGenes);
+    }
+
+    @Override
+    public String geneId(final String gene, final String geneIdType) {
+        return model().geneId(gene, geneIdType);
+    }
+
+    @Override
+    public GeneRanker snapshot() {
+        return model();
+    }
+
+    // ranker of genes of the panel (all genes if panel is null) of the model current when a patient is answered
+    public GeneRanker ranker(final Collection<String> panel) {
+        if (panel == null)
+            return this;
+
+        return new GeneRanker() {
+            @Override
+            public List<String> rankGenes(final Set<String> phenotypes, final Integer maxGenes) {
+                return snapshot().rankGenes(phenotypes, maxGenes);
+            }
+
+            @Override
+            public String geneId(final String gene, final String geneIdType) {
+                return snapshot().geneId(gene, geneIdType);
+            }
+
+            @Override
+            public GeneRanker snapshot() {
+                return model().ranker(panel);
+            }
+        };
+    }
+
+    // rebuilds the model in background; the future completes with the published version
+    public CompletableFuture<Version> reload() {
+        return CompletableFuture.supplyAsync(() -> {
+            final Version version = load(current.get().number + 1);
+            version.classifier.setParallelThreshold(current.get().classifier.parallelThreshold());
+            current.set(version);
+            return version;
+        }, loader);
+    }
+
+    /*
+        Polls the sources every intervalMillis and reloads the model once changed sources are stable; listener
+        receives every published version or the error of a failed reload
+     */
+    public synchronized void watch(final long intervalMillis, final ReloadListener listener) {
+        if (watcher != null)
+            throw new IllegalStateException("sources are already watched");
+
+        final AtomicReference<Map<String, Long>> previous = new AtomicReference<>(current.get().stamps);
+        final AtomicReference<Map<String, Long>> failed   = new AtomicReference<>();
+        final AtomicBoolean                      loading  = new AtomicBoolean(false);
+
+        watcher = Executors.newSingleThreadScheduledExecutor(daemon("wa-watch"));
+        watcher.scheduleWithFixedDelay(() -> {
+            final Map<String, Long> stamps = stamps();
+            final boolean           stable = stamps.equals(previous.getAndSet(stamps));
+
+            // sources of a failed reload are not loaded again until they change
+            if (!stable || stamps.equals(current.get().stamps) || stamps.equals(failed.get()) || !loading.compareAndSet(false, true))
+                return;
+
+            reload().whenComplete((version, error) -> {
+                failed.set(error == null ? null : stamps);
+                loading.set(false);
+                listener.reloaded(version, error == null ? null : error instanceof CompletionException ? error.getCause() : error);
+            });
+        }, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    public interface ReloadListener {
+        // version is null if the reload failed
+        void reloaded(Version version, Throwable error);
+    }
+
+    @Override
+    public synchronized void close() {
+        if (watcher != null)
+            watcher.shutdownNow();
+        loader.shutdownNow();
+    }
+
+    private Version load(final int number) {
+        for (final MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans())
+            if (pool.getType() == MemoryType.HEAP)
+                pool.resetPeakUsage();
+
+        final long              start  = System.nanoTime();
+        final Map<String, Long> stamps = stamps();
+
+        // ontology and gene lexicon are independent and are loaded concurrently
+        final CompletableFuture<GeneLexicon> lexicon = CompletableFuture.supplyAsync(() -> new GeneLexicon(geneInfoFile));
+        final ModelContext                   context = new ModelContext(new Hpo(hpoFile), lexicon.join());
+
+        final CountTable.Builder builder = new CountTable.Builder();
+        for (final String modelFile : new LinkedHashSet<>(modelFiles))
+            ModelSnapshot.read(context, modelFile, builder);
+        for (final String learningFile : new LinkedHashSet<>(learningFiles))
+            Classifier.loadFile(context, learningFile, GeneShard.ALL, builder);
+
+        final Classifier classifier = new Classifier(context, builder.build());
+
+        long peakHeap = 0;
+        for (final MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans())
+            if (pool.getType() == MemoryType.HEAP && pool.getPeakUsage() != null)
+                peakHeap += pool.getPeakUsage().getUsed();
+
+        return new Version(classifier, number, (System.nanoTime() - start) / 1_000_000, peakHeap, stamps);
+    }
+
+    // size and modification time of every source
+    private Map<String, Long> stamps() {
+        final Map<String, Long> result = new TreeMap<>();
+
+        final List<String> sources = new ArrayList<>(Arrays.asList(hpoFile, geneInfoFile));
+        sources.addAll(modelFiles);
+        sources.addAll(learningFiles);
+
+        for (final String source : sources) {
+            final File file = new File(source);
+            result.put(source, 31 * file.lastModified() + file.length());
+        }
+
+        return result;
+    }
+
+    private static ThreadFactory daemon(final String name) {
+        return runnable -> {
+            final Thread thread = new Thread(runnable, name);
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+}
@@ -0,0 +1,358 @@
+package main;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+
+/*
+    Persistent content-addressed cache of gene prioritizations (Entrez ids of top genes in rank order). An entry is
+    keyed by a hash of the model fingerprint (contents of all model inputs and options, see fingerprint), the
+    canonical (sorted) phenotype set and the number of genes; gene ids are formatted by the caller, so results are
+    shared by all -f formats. A changed learning file or ontology makes a new fingerprint, so stale entries are
+    never hit and age out.
+
+    The cache file is append-only and read through memory mapping (big endian):
+        header  magic "WA-RC001"
+        entry   key (16 bytes), number of genes n (int), int[n] Entrez ids
+    A truncated last entry (e.g. of a killed process) is ignored. Before an entry would grow the file over maxBytes
+    (and when a file of a larger cache is opened), the file is compacted: the least recently used entries are evicted
+    until the file fits into 3/4 of maxBytes, so a long-running stream keeps the file (and its int offsets) bounded.
+    The file is locked while it is open, so it can not be shared by concurrent processes.
+ */
+public class ResultCache implements Closeable
+{
+    public static final long DEFAULT_MAX_BYTES = 256L << 20;
+
+    private static final byte[] MAGIC    = "WA-RC001".getBytes(StandardCharsets.US_ASCII);
+    private static final int    KEY_SIZE = 16;
+
+    private final String                 fileName;
+    private final long                   maxBytes;
+    private final byte[]                 model;
+    private FileChannel                  channel;
+    private FileLock                     lock;
+    private final Map<ByteBuffer, Entry> entries = new HashMap<>();
+    private final MessageDigest          digest;
+    private MappedByteBuffer             mapped;
+    private long                         size;
+    private long                         clock   = 0;
+    private long                         hits    = 0;
+    private long                         misses  = 0;
+
+    private static class Entry
+    {
+        private final long offset; // offset of the gene count
+        private final int  genes;
+        private long       used;   // clock of the last use
+
+        Entry(final long offset, final int genes, final long used) {
+            this.offset = offset;
+            this.genes  = genes;
+            this.used   = used;
+        }
+
+        long bytes() { return KEY_SIZE + 4 + 4L * genes; }
+    }
+
+    // model: fingerprint of the model (see fingerprint)
+    public ResultCache(final String fileName, final long maxBytes, final byte[] model) {
+        if (maxBytes < MAGIC.length || maxBytes > Integer.MAX_VALUE)
+            throw new RuntimeException("result cache size must be at least " + MAGIC.length + " bytes and less than 2 GB");
+
+        this.fileName = fileName;
+        this.maxBytes = maxBytes;
+        this.model    = model.clone();
+        this.digest   = sha256();
+
+        try {
+            Utils.createDirectoriesForFile(fileName);
+            channel = FileChannel.open(Paths.get(fileName), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            lock    = channel.tryLock();
+            if (lock == null)
+                throw new IOException("the file is used by another process");
+
+            if (channel.size() < MAGIC.length) {
+                channel.truncate(0);
+                channel.write(ByteBuffer.wrap(MAGIC), 0);
+            }
+
+            load();
+            if (size > maxBytes)
+                compact();
+        }
+        catch (IOException | OverlappingFileLockException e) {
+            throw new RuntimeException("Error opening result cache " + fileName + ": " + e.getMessage());
+        }
+    }
+
+    /*
+        SHA-256 of the contents of model input files (learning files, model snapshots, ontology, gene info, ...)
+        and of options which change results; null file names and options are skipped
+     */
+    public static byte[] fingerprint(final List<String> fileNames, final String... options) {
+        final MessageDigest digest = sha256();
+        final byte[]        buffer = new byte[1 << 16];
+
+        for (final String fileName : fileNames) {
+            if (fileName == null)
+                continue;
+
+            try (final InputStream in = new FileInputStream(fileName)) {
+                long length = 0;
+                for (int n; (n = in.read(buffer)) > 0; length += n)
+                    digest.update(buffer, 0, n);
+
+                digest.update(ByteBuffer.allocate(8).putLong(length).array());
+            }
+            catch (IOException e) {
+                throw new RuntimeException("Error reading file " + fileName + ": " + e.getMessage());
+            }
+        }
+
+        for (final String option : options)
+            if (option != null)
+                digest.update((option + "\u0000").getBytes(StandardCharsets.UTF_8));
+
+        return digest.digest();
+    }
+
+    // Entrez ids of the cached prioritization; null if it is not cached
+    public synchronized List<String> get(final Set<String> phenotypes, final Integer maxGenes) {
+        final Entry entry = entries.get(key(phenotypes, maxGenes));
+        if (entry == null) {
+            ++misses;
+            return null;
+        }
+
+        ++hits;
+        entry.used = ++clock;
+
+        final ByteBuffer buffer = buffer(entry);
+        final String[]   genes  = new String[entry.genes];
+        for (int i = 0; i < genes.length; ++i)
+            genes[i] = String.valueOf(buffer.getInt((int) (entry.offset + 4 + 4L * i)));
+
+        return Arrays.asList(genes);
+    }
+
+    // caches Entrez ids of the prioritization (only top maxGenes genes if maxGenes is not null)
+    public synchronized void put(final Set<String> phenotypes, final Integer maxGenes, final List<String> genes) {
+        final ByteBuffer key = key(phenotypes, maxGenes);
+        if (entries.containsKey(key))
+            return;
+
+        final int        n      = maxGenes == null ? genes.size() : Math.min(maxGenes, genes.size());
+        final ByteBuffer record = ByteBuffer.allocate(KEY_SIZE + 4 + 4 * n);
+        record.put(key.array()).putInt(n);
+        for (int i = 0; i < n; ++i)
+            record.putInt(Integer.parseInt(genes.get(i)));
+        record.flip();
+
+        try {
+            if (size + record.capacity() > maxBytes)
+                compact();
+            // larger than the whole cache
+            if (size + record.capacity() > maxBytes)
+                return;
+
+            write(channel, record, size);
+        }
+        catch (IOException e) {
+            throw new RuntimeException("Error writing result cache " + fileName + ": " + e.getMessage());
+        }
+
+        entries.put(key, new Entry(size + KEY_SIZE, n, ++clock));
+        size += record.capacity();
+    }
+
+    // ranker answering from the cache and caching prioritizations of ranker
+    public GeneRanker ranker(final GeneRanker ranker) {
+        return new GeneRanker() {
+            @Override
+            public List<String> rankGenes(final Set<String> phenotypes, final Integer maxGenes) {
+                final List<String> cached = get(phenotypes, maxGenes);
+                if (cached != null)
+                    return cached;
+
+                final List<String> result = ranker.rankGenes(phenotypes, maxGenes);
+                put(phenotypes, maxGenes, result);
+                return result;
+            }
+
+            @Override
+            public String geneId(final String gene, final String geneIdType) {
+                return ranker.geneId(gene, geneIdType);
+            }
+
+            @Override
+            public GeneRanker snapshot() {
+                final GeneRanker snapshot = ranker.snapshot();
+                return snapshot == ranker ? this : ranker(snapshot);
+            }
+        };
+    }
+
+    public synchronized long hits()    { return hits;           }
+    public synchronized long misses()  { return misses;         }
+    public synchronized int  entries() { return entries.size(); }
+
+    public synchronized String stats() {
+        final long lookups = hits + misses;
+        return String.format(Locale.US, "Result cache %s: %d hits, %d misses (hit rate %.2f %%), %d entries, %d bytes",
+                             fileName, hits, misses, lookups == 0 ? .0 : 100. * hits / lookups, entries.size(), size);
+    }
+
+    @Override
+    public synchronized void close() {
+        try {
+            lock.release();
+            channel.close();
+        }
+        catch (IOException e) {
+            throw new RuntimeException("Error closing result cache " + fileName + ": " + e.getMessage());
+        }
+    }
+
+    // index of entries of the file; entries of the file are used in file order
+    private void load() throws IOException {
+        size = channel.size();
+
+        final ByteBuffer header = ByteBuffer.allocate(MAGIC.length);
+        channel.read(header, 0);
+        if (!Arrays.equals(header.array(), MAGIC))
+            throw new IOException("not a result cache file");
+
+        mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+
+        long offset = MAGIC.length;
+        while (offset + KEY_SIZE + 4 <= size) {
+            final int genes = mapped.getInt((int) (offset + KEY_SIZE));
+            if (genes < 0 || offset + KEY_SIZE + 4 + 4L * genes > size)
+                break;
+
+            final byte[] key = new byte[KEY_SIZE];
+            for (int i = 0; i < KEY_SIZE; ++i)
+                key[i] = mapped.get((int) offset + i);
+
+            final Entry entry = new Entry(offset + KEY_SIZE, genes, ++clock);
+            entries.put(ByteBuffer.wrap(key), entry);
+            offset += entry.bytes();
+        }
+
+        // truncated last entry
+        if (offset < size) {
+            channel.truncate(offset);
+            size = offset;
+        }
+    }
+
+    // mapped file holding the entry
+    private ByteBuffer buffer(final Entry entry) {
+        if (entry.offset + 4L * (entry.genes + 1) > mapped.capacity()) {
+            try {
+                mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            }
+            catch (IOException e) {
+                throw new RuntimeException("Error reading result cache " + fileName + ": " + e.getMessage());
+            }
+        }
+
+        return mapped;
+    }
+
+    /*
+        Rewrites the file with the most recently used entries fitting into 3/4 of maxBytes. The new file is written and
+        locked under a temporary name and renamed over the cache file, so a killed process leaves a valid file and the
+        cache stays locked by this process.
+     */
+    private void compact() throws IOException {
+        final List<Map.Entry<ByteBuffer, Entry>> byUse = new ArrayList<>(entries.entrySet());
+        byUse.sort((a, b) -> Long.compare(b.getValue().used, a.getValue().used));
+
+        long kept  = MAGIC.length;
+        int  count = 0;
+        while (count < byUse.size() && kept + byUse.get(count).getValue().bytes() <= maxBytes / 4 * 3)
+            kept += byUse.get(count++).getValue().bytes();
+
+        // kept entries in order of use, so the next load keeps their recency
+        final List<Map.Entry<ByteBuffer, Entry>> keep = new ArrayList<>(byUse.subList(0, count));
+        Collections.reverse(keep);
+
+        final Path                   temp        = Paths.get(fileName + ".tmp");
+        final FileChannel            tempChannel = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        final Map<ByteBuffer, Entry> keptEntries = new HashMap<>();
+        final FileLock               tempLock;
+        long                         position    = MAGIC.length;
+        try {
+            tempLock = tempChannel.tryLock();
+            if (tempLock == null)
+                throw new IOException("file " + temp + " is used by another process");
+
+            write(tempChannel, ByteBuffer.wrap(MAGIC), 0);
+            for (final Map.Entry<ByteBuffer, Entry> entry : keep) {
+                final Entry      source = entry.getValue();
+                final ByteBuffer buffer = buffer(source);
+                final ByteBuffer record = ByteBuffer.allocate((int) source.bytes());
+
+                // key, gene count and genes
+                record.put(entry.getKey().array());
+                for (int i = 0; i <= source.genes; ++i)
+                    record.putInt(buffer.getInt((int) (source.offset + 4L * i)));
+                record.flip();
+
+                write(tempChannel, record, position);
+                keptEntries.put(entry.getKey(), new Entry(position + KEY_SIZE, source.genes, source.used));
+                position += record.capacity();
+            }
+
+            tempChannel.force(false);
+            Files.move(temp, Paths.get(fileName), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+        catch (IOException | RuntimeException e) {
+            tempChannel.close();
+            throw e;
+        }
+
+        lock.release();
+        channel.close();
+
+        channel = tempChannel;
+        lock    = tempLock;
+        size    = position;
+        mapped  = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+        entries.clear();
+        entries.putAll(keptEntries);
+    }
+
+    private static void write(final FileChannel file, final ByteBuffer record, long position) throws IOException {
+        while (record.hasRemaining())
+            position += file.write(record, position);
+    }
+
+    private ByteBuffer key(final Set<String> phenotypes, final Integer maxGenes) {
+        digest.reset();
+        digest.update(model);
+        digest.update((maxGenes == null ? "all" : String.valueOf(maxGenes)).getBytes(StandardCharsets.UTF_8));
+        for (final String phenotype : new TreeSet<>(phenotypes))
+            digest.update(("\t" + phenotype).getBytes(StandardCharsets.UTF_8));
+
+        return ByteBuffer.wrap(Arrays.copyOf(digest.digest(), KEY_SIZE));
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        }
+        catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+    }
+}
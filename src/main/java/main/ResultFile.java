@@ -0,0 +1,260 @@
+package main;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+
+/*
+    Binary prioritization results (-p --format bin) readable through memory mapping. Every patient is a block of
+    columns; blocks are followed by an index of block offsets and a fixed size footer (big endian):
+
+        patient block    patient id (int length, UTF-8 bytes)
+                         number of phenotypes m, phenotypes (int length, UTF-8 bytes) in breakdown column order
+                         number of genes n
+                         int[n]   Entrez ids of genes in rank order (rank 1 first)
+                         float[n] plausibilities
+                         float[n * m] per-phenotype evidence by gene (only with evidence)
+        index            long[number of patients] block offsets
+        footer           index offset (long), number of patients (int), flags (int), magic "WA-RES01"
+
+    Ranks are positions in the gene column. Reader maps only the blocks of the patients that are read, so files
+    larger than the address space limit of a single mapping are fine as long as every block is smaller than 2 GB.
+ */
+public class ResultFile
+{
+    public static final String BIN = "bin";
+
+    private static final byte[] MAGIC       = "WA-RES01".getBytes(StandardCharsets.US_ASCII);
+    private static final int    FOOTER_SIZE = 8 + 4 + 4 + 8;
+    private static final int    EVIDENCE    = 1; // flag of files with per-phenotype evidence
+
+    private ResultFile() {}
+
+    public static class Writer implements Closeable
+    {
+        private final String           fileName;
+        private final boolean          evidence;
+        private final DataOutputStream out;
+        private final List<Long>       offsets  = new ArrayList<>();
+        private long                   position = 0;
+
+        // evidence: per-phenotype breakdown of every written gene is stored as well
+        public Writer(final String fileName, final boolean evidence) {
+            this.fileName = fileName;
+            this.evidence = evidence;
+
+            try {
+                Utils.createDirectoriesForFile(fileName);
+                out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(fileName), 1 << 16));
+            }
+            catch (IOException e) {
+                throw new RuntimeException("Error creating result file " + fileName + ": " + e.getMessage());
+            }
+        }
+
+        // top maxGenes genes of the prioritization (all genes if maxGenes is null)
+        public void add(final String patientId, final Prioritization prioritization, final Integer maxGenes) {
+            final int      n          = maxGenes == null ? prioritization.size() : Math.min(maxGenes, prioritization.size());
+            final String[] phenotypes = prioritization.phenotypes();
+
+            try {
+                offsets.add(position);
+
+                writeString(patientId);
+                writeInt(phenotypes.length);
+                for (final String phenotype : phenotypes)
+                    writeString(phenotype);
+
+                writeInt(n);
+                for (int rank = 0; rank < n; ++rank)
+                    writeInt(Integer.parseInt(prioritization.gene(rank)));
+                for (int rank = 0; rank < n; ++rank)
+                    writeFloat((float) prioritization.plausibility(rank));
+
+                if (evidence)
+                    for (int rank = 0; rank < n; ++rank)
+                        for (final double value : Arrays.copyOf(prioritization.plausibilityByPhenotype(rank), phenotypes.length))
+                            writeFloat((float) value);
+            }
+            catch (IOException e) {
+                throw new RuntimeException("Error writing result file " + fileName + ": " + e.getMessage());
+            }
+        }
+
+        @Override
+        public void close() {
+            try {
+                final long indexOffset = position;
+                for (final long offset : offsets)
+                    out.writeLong(offset);
+
+                out.writeLong(indexOffset);
+                out.writeInt(offsets.size());
+                out.writeInt(evidence ? EVIDENCE : 0);
+                out.write(MAGIC);
+                out.close();
+            }
+            catch (IOException e) {
+                throw new RuntimeException("Error writing result file " + fileName + ": " + e.getMessage());
+            }
+        }
+
+        private void writeInt(final int value) throws IOException {
+            out.writeInt(value);
+            position += 4;
+        }
+
+        private void writeFloat(final float value) throws IOException {
+            out.writeFloat(value);
+            position += 4;
+        }
+
+        private void writeString(final String s) throws IOException {
+            final byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+            writeInt(bytes.length);
+            out.write(bytes);
+            position += bytes.length;
+        }
+    }
+
+    public static class Reader implements Closeable
+    {
+        private final String      fileName;
+        private final FileChannel channel;
+        private final long[]      offsets;
+        private final boolean     evidence;
+
+        public Reader(final String fileName) {
+            this.fileName = fileName;
+
+            try {
+                channel = FileChannel.open(new File(fileName).toPath(), StandardOpenOption.READ);
+
+                final long size = channel.size();
+                if (size < FOOTER_SIZE)
+                    throw new IOException("not a result file");
+
+                final ByteBuffer footer = channel.map(FileChannel.MapMode.READ_ONLY, size - FOOTER_SIZE, FOOTER_SIZE);
+                final long       index  = footer.getLong();
+                final int        count  = footer.getInt();
+                final int        flags  = footer.getInt();
+                final byte[]     magic  = new byte[MAGIC.length];
+                footer.get(magic);
+
+                if (!Arrays.equals(magic, MAGIC) || index < 0 || count < 0 || index + 8L * count != size - FOOTER_SIZE)
+                    throw new IOException("not a result file");
+
+                evidence = (flags & EVIDENCE) != 0;
+                offsets  = new long[count + 1];
+                if (count > 0)
+                    channel.map(FileChannel.MapMode.READ_ONLY, index, 8L * count).asLongBuffer().get(offsets, 0, count);
+                offsets[count] = index;
+            }
+            catch (IOException e) {
+                throw new RuntimeException("Error reading result file " + fileName + ": " + e.getMessage());
+            }
+        }
+
+        public int size() { return offsets.length - 1; }
+
+        public boolean hasEvidence() { return evidence; }
+
+        // result of the p-th patient (0 based) of the file
+        public Patient patient(final int p) {
+            try {
+                return new Patient(channel.map(FileChannel.MapMode.READ_ONLY, offsets[p], offsets[p + 1] - offsets[p]), evidence);
+            }
+            catch (IOException e) {
+                throw new RuntimeException("Error reading result file " + fileName + ": " + e.getMessage());
+            }
+        }
+
+        @Override
+        public void close() {
+            try {
+                channel.close();
+            }
+            catch (IOException e) {
+                throw new RuntimeException("Error closing result file " + fileName + ": " + e.getMessage());
+            }
+        }
+    }
+
+    // prioritization result of a single patient backed by its mapped block
+    public static class Patient
+    {
+        private final ByteBuffer block;
+        private final String     id;
+        private final String[]   phenotypes;
+        private final int        size;
+        private final int        genes;    // offset of the gene column
+        private final int        scores;   // offset of the plausibility column
+        private final int        evidence; // offset of the evidence column or -1
+
+        private Patient(final ByteBuffer block, final boolean hasEvidence) {
+            this.block = block;
+
+            id         = readString(block);
+            phenotypes = new String[block.getInt()];
+            for (int j = 0; j < phenotypes.length; ++j)
+                phenotypes[j] = readString(block);
+
+            size     = block.getInt();
+            genes    = block.position();
+            scores   = genes + 4 * size;
+            evidence = hasEvidence ? scores + 4 * size : -1;
+        }
+
+        public String id() { return id; }
+
+        public int size() { return size; }
+
+        public String[] phenotypes() { return phenotypes.clone(); }
+
+        // Entrez id of the gene at rank (0 based)
+        public int gene(final int rank) { return block.getInt(genes + 4 * check(rank)); }
+
+        public float plausibility(final int rank) { return block.getFloat(scores + 4 * check(rank)); }
+
+        // evidence(phenotype(j) | gene at rank)
+        public float evidence(final int rank, final int j) {
+            if (evidence < 0)
+                throw new IllegalStateException("result file holds no per-phenotype evidence");
+            if (j < 0 || j >= phenotypes.length)
+                throw new IndexOutOfBoundsException("phenotype " + j);
+
+            return block.getFloat(evidence + 4 * (check(rank) * phenotypes.length + j));
+        }
+
+        private int check(final int rank) {
+            if (rank < 0 || rank >= size)
+                throw new IndexOutOfBoundsException("rank " + rank);
+            return rank;
+        }
+
+        private static String readString(final ByteBuffer block) {
+            final byte[] bytes = new byte[block.getInt()];
+            block.get(bytes);
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+    }
+
+    // converts the result file to -p output file format (genes as H (Hugo id) or E (Entrez id))
+    public static void toTsv(final String fileName, final String tsvFileName, final GeneLexicon lexicon, final String geneIdType) {
+        try (final Reader reader = new Reader(fileName)) {
+            Utils.fileWriter(tsvFileName, f -> {
+                for (int p = 0; p < reader.size(); ++p) {
+                    final Patient patient = reader.patient(p);
+
+                    f.write(patient.id() + "\t");
+                    for (int rank = 0; rank < patient.size(); ++rank)
+                        f.write("\t" + lexicon.format(String.valueOf(patient.gene(rank)), geneIdType));
+                    f.newLine();
+                }
+            });
+        }
+    }
+}
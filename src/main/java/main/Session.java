@@ -0,0 +1,218 @@
+package main;
+
+import java.util.*;
+
+/*
+    Interactive prioritization of a single patient whose phenotypes are edited one at a time (e.g. during case review).
+    The session keeps the evidence columns of the patient's phenotypes, a ranking key of every gene and the ranking of
+    all genes, and an edit applies only the delta of the edited phenotype:
+        - every gene outside the column of the phenotype gets evidence -CLIP_EVIDENCE, a shift shared by all of them,
+          so genes are ranked by their excess over the shared part: key = sum of (evidence + CLIP_EVIDENCE) over the
+          patient's phenotypes, which is changed only for genes of the column (changed genes)
+        - changed genes are removed from the ranking, sorted and merged back
+    so an edit costs O(genes + changed genes log changed genes), the merge being the O(genes) part.
+
+    Keys are summed in edit order, scores of Classifier.prioritize in canonical phenotype order, and the two sums may
+    differ in the last bits. Genes whose keys are closer than the rounding bound are ordered by their exact
+    (canonical) scores, which are computed on demand in O(phenotypes) per gene, so ranks are exactly the same as of
+    Classifier.prioritize of the same phenotypes; so are scores of prioritization, which are exact scores of the
+    returned genes. Keys are re-summed in canonical order every RESUM_EDITS edits (O(genes x phenotypes)) to bound
+    their rounding drift.
+
+    Phenotypes unknown to the model (also ids which are not HPO ids) give every gene evidence -CLIP_EVIDENCE, as in
+    Classifier.prioritize. A session is not thread-safe.
+ */
+public class Session
+{
+    private static final int    RESUM_EDITS = 256;
+    private static final double ULP_FACTOR  = 1e-15; // > relative rounding error of a double addition (2^-53)
+
+    private final Classifier                  classifier;
+    private final Counts                      counts;
+    private final SortedMap<String, double[]> columns = new TreeMap<>(); // evidence columns of the patient's phenotypes
+    private final int[]                       cover;      // number of columns with the gene, by local gene index
+    private final int[]                       tieOrder;   // local gene indices in tie-break order
+    private final double[]                    keys;       // by local gene index; 0 for genes outside all columns
+    private final int[]                       order;      // local gene indices in rank order
+    private final double[]                    exact;      // exact scores by local gene index, valid if computed in this edit
+    private final int[]                       exactEdit;  // edit of the exact score
+    private final boolean[]                   changed;    // scratch of genes of the edited column
+    private final int[]                       rest;       // scratch of unchanged genes in rank order
+    private int                               edits      = 0; // edits since the session was created
+    private int                               drift      = 0; // edits since keys were last summed in canonical order
+    private int                               maxColumns = 0; // max number of columns since keys were last summed
+    private double                            uncoveredScore; // exact score of genes outside all columns in this edit
+
+    public Session(final Classifier classifier) {
+        this.classifier = classifier;
+        this.counts     = classifier.counts();
+
+        cover     = new int[counts.geneCount()];
+        tieOrder  = new int[counts.geneCount()];
+        keys      = new double[counts.geneCount()];
+        order     = new int[counts.geneCount()];
+        exact     = new double[counts.geneCount()];
+        exactEdit = new int[counts.geneCount()];
+        changed   = new boolean[counts.geneCount()];
+        rest      = new int[counts.geneCount()];
+
+        for (int i = 0; i < tieOrder.length; ++i)
+            tieOrder[i] = i;
+        IntSort.sort(tieOrder, (i, j) -> classifier.comparePlausibility(.0, .0, i, j));
+
+        System.arraycopy(tieOrder, 0, order, 0, order.length);
+        Arrays.fill(exactEdit, -1);
+    }
+
+    public Session(final Classifier classifier, final Set<String> phenotypes) {
+        this(classifier);
+
+        for (final String phenotype : new TreeSet<>(phenotypes))
+            add(phenotype);
+    }
+
+    public Set<String> phenotypes() { return Collections.unmodifiableSet(columns.keySet()); }
+
+    // false if the patient already has the phenotype
+    public boolean add(final String phenotype) {
+        if (columns.containsKey(phenotype))
+            return false;
+
+        final double[] column = classifier.evidenceColumn(phenotype);
+        columns.put(phenotype, column);
+        update(phenotype, column, 1);
+        return true;
+    }
+
+    // false if the patient does not have the phenotype
+    public boolean remove(final String phenotype) {
+        final double[] column = columns.remove(phenotype);
+        if (column == null)
+            return false;
+
+        update(phenotype, column, -1);
+        return true;
+    }
+
+    // current top maxGenes genes (all genes if maxGenes is null) with their exact scores
+    public Prioritization prioritization(final Integer maxGenes) {
+        final int n = maxGenes == null ? order.length : Math.min(maxGenes, order.length);
+
+        final int[]    top      = Arrays.copyOf(order, n);
+        final double[] topScore = new double[n];
+        for (int rank = 0; rank < n; ++rank)
+            topScore[rank] = exact(top[rank]);
+
+        return new Prioritization(classifier, columns.keySet().toArray(new String[0]), classifier.phenotypeIds(columns.keySet()), top, topScore);
+    }
+
+    // applies the delta of the column (added if sign is 1, removed if -1) to keys of its genes and repairs the ranking
+    private void update(final String phenotype, final double[] column, final int sign) {
+        ++edits;
+        maxColumns = Math.max(maxColumns, columns.size());
+
+        uncoveredScore = .0;
+        for (int j = 0; j < columns.size(); ++j)
+            uncoveredScore += -Classifier.CLIP_EVIDENCE;
+
+        final int[] genes = counts.columnGenes(classifier.context().phenotypes().id(phenotype));
+        for (final int i : genes) {
+            cover[i]  += sign;
+            keys[i]    = cover[i] == 0 ? .0 : keys[i] + sign * (column[i] + Classifier.CLIP_EVIDENCE);
+            changed[i] = true;
+        }
+
+        if (++drift > RESUM_EDITS) {
+            resum();
+            return;
+        }
+
+        // unchanged genes keep their order; changed genes are sorted and merged in
+        int n = 0;
+        for (final int i : order)
+            if (!changed[i])
+                rest[n++] = i;
+
+        final int[] sorted = genes.clone();
+        IntSort.sort(sorted, this::compare);
+
+        int a = 0;
+        int b = 0;
+        for (int rank = 0; rank < order.length; ++rank)
+            order[rank] = b == sorted.length || (a < n && compare(rest[a], sorted[b]) < 0) ? rest[a++] : sorted[b++];
+
+        for (final int i : genes)
+            changed[i] = false;
+
+        repairTies();
+    }
+
+    // keys summed in canonical phenotype order and the ranking sorted from scratch
+    private void resum() {
+        Arrays.fill(keys, .0);
+        for (final double[] column : columns.values())
+            for (int i = 0; i < keys.length; ++i)
+                if (cover[i] > 0)
+                    keys[i] += column[i] + Classifier.CLIP_EVIDENCE;
+
+        Arrays.fill(changed, false);
+        drift      = 0;
+        maxColumns = columns.size();
+
+        System.arraycopy(tieOrder, 0, order, 0, order.length);
+        IntSort.sort(order, this::compare);
+    }
+
+    /*
+        Order of unchanged genes with keys closer than the rounding bound may change with the edit, since their exact
+        scores got another term: runs of such genes are re-sorted by insertion (they are almost sorted)
+     */
+    private void repairTies() {
+        final double bound = roundingBound();
+
+        for (int from = 0; from < order.length; ) {
+            int to = from + 1;
+            while (to < order.length && Math.abs(keys[order[to - 1]] - keys[order[to]]) <= bound)
+                ++to;
+
+            for (int k = from + 1; k < to; ++k) {
+                final int i = order[k];
+                int       m = k;
+                for (; m > from && compare(order[m - 1], i) > 0; --m)
+                    order[m] = order[m - 1];
+                order[m] = i;
+            }
+
+            from = to;
+        }
+    }
+
+    // rank order: keys, exact scores for keys closer than the rounding bound, then tie-break order of the classifier
+    private int compare(final int i, final int j) {
+        if (Math.abs(keys[i] - keys[j]) > roundingBound())
+            return keys[i] > keys[j] ? -1 : 1;
+
+        return classifier.comparePlausibility(exact(i), exact(j), i, j);
+    }
+
+    // bound of the difference of key and exact score differences caused by rounding of their sums
+    private double roundingBound() {
+        return ULP_FACTOR * 2 * Classifier.CLIP_EVIDENCE * (maxColumns + 1) * (maxColumns + 1 + drift);
+    }
+
+    // score of Classifier.prioritize: evidence summed in canonical phenotype order
+    private double exact(final int i) {
+        if (cover[i] == 0)
+            return uncoveredScore;
+        if (exactEdit[i] == edits)
+            return exact[i];
+
+        double score = .0;
+        for (final double[] column : columns.values())
+            score += column[i];
+
+        exact[i]     = score;
+        exactEdit[i] = edits;
+        return score;
+    }
+}
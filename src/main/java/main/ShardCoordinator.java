@@ -0,0 +1,265 @@
+package main;
+
+import java.io.*;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static main.GeneLexicon.*;
+import static main.Utils.*;
+
+/*
+    Coordinator of gene shard workers (see ShardWorker): a query is sent to all workers and their partial
+    top k lists are merged in the same order as Classifier ranks genes (plausibility, gene frequency, Entrez id).
+    Workers hold only genes of their shard and phenotype totals of all genes, so merged rankings are exactly
+    the same as rankings of a single Classifier trained on the same files.
+ */
+public class ShardCoordinator implements GeneRanker, AutoCloseable
+{
+    private final List<Connection> workers   = new ArrayList<>();
+    private final List<Process>    processes = new ArrayList<>();
+    private final ExecutorService  executor;
+
+    public ShardCoordinator(final List<InetSocketAddress> addresses) {
+        this(addresses, Collections.emptyList());
+    }
+
+    // processes: spawned workers, destroyed on close (also if a connection fails)
+    private ShardCoordinator(final List<InetSocketAddress> addresses, final List<Process> processes) {
+        this.processes.addAll(processes);
+
+        try {
+            for (final InetSocketAddress address : addresses)
+                workers.add(new Connection(address));
+        }
+        catch (RuntimeException e) {
+            close();
+            throw e;
+        }
+
+        executor = Executors.newFixedThreadPool(workers.size(), r -> {
+            final Thread thread = new Thread(r, "shard-coordinator");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    // starts worker JVMs, one for every shard, on this machine
+    public static ShardCoordinator spawn(final int shards, final List<String> learningFiles) {
+        final List<Process>           processes = new ArrayList<>();
+        final List<InetSocketAddress> addresses = new ArrayList<>();
+
+        try {
+            for (int shard = 0; shard < shards; ++shard) {
+                final List<String> command = new ArrayList<>(Arrays.asList(
+                    System.getProperty("java.home") + File.separator + "bin" + File.separator + "java",
+                    "-cp", System.getProperty("java.class.path"),
+                    App.class.getName(), Params.WORKER, "--shard", shard + "/" + shards, "--port", "0"));
+                for (final String learningFile : learningFiles) {
+                    command.add("-L");
+                    command.add(learningFile);
+                }
+
+                processes.add(new ProcessBuilder(command).redirectError(ProcessBuilder.Redirect.INHERIT).start());
+            }
+
+            for (final Process process : processes)
+                addresses.add(new InetSocketAddress("127.0.0.1", readyPort(process)));
+        }
+        catch (Exception e) {
+            processes.forEach(Process::destroy);
+            throw new RuntimeException("Error starting shard workers: " + e.getMessage());
+        }
+
+        return new ShardCoordinator(addresses, processes);
+    }
+
+    private static int readyPort(final Process process) throws IOException {
+        final BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8));
+
+        String line;
+        while ((line = reader.readLine()) != null) {
+            if (line.startsWith(ShardWorker.READY + " "))
+                return Integer.parseInt(line.substring(ShardWorker.READY.length() + 1).trim());
+        }
+
+        throw new RuntimeException("shard worker terminated before it was ready");
+    }
+
+    public int shards() { return workers.size(); }
+
+    public static class RankedGene
+    {
+        private final String gene;
+        private final double plausibility;
+        private final int    geneFreq;
+        private final int    entrezId;
+
+        RankedGene(final String gene, final double plausibility, final int geneFreq) {
+            this.gene         = gene;
+            this.plausibility = plausibility;
+            this.geneFreq     = geneFreq;
+            this.entrezId     = Integer.parseInt(gene);
+        }
+
+        public String gene()         { return gene;         }
+        public double plausibility() { return plausibility; }
+        public int    geneFreq()     { return geneFreq;     }
+    }
+
+    // the same order as Classifier.comparePlausibility
+    private static int comparePlausibility(final RankedGene g1, final RankedGene g2) {
+        if (g1.plausibility < g2.plausibility) return 1;
+        if (g2.plausibility < g1.plausibility) return -1;
+
+        if (g1.geneFreq < g2.geneFreq) return 1;
+        if (g2.geneFreq < g1.geneFreq) return -1;
+
+        return Integer.compare(g1.entrezId, g2.entrezId);
+    }
+
+    // top maxGenes genes of all shards (all genes if maxGenes is null)
+    public List<RankedGene> prioritize(final Set<String> phenotypes, final Integer maxGenes) {
+        final String request = ShardWorker.TOP + "\t" + (maxGenes == null ? 0 : maxGenes) +
+                               (phenotypes.isEmpty() ? "" : "\t" + String.join("\t", phenotypes));
+
+        final List<Future<List<RankedGene>>> futures = new ArrayList<>();
+        for (final Connection worker : workers)
+            futures.add(executor.submit(() -> worker.top(request)));
+
+        final List<List<RankedGene>> partials = new ArrayList<>();
+        try {
+            for (final Future<List<RankedGene>> future : futures)
+                partials.add(future.get());
+        }
+        catch (Exception e) {
+            throw new RuntimeException("Shard worker error: " + e.getMessage());
+        }
+
+        return merge(partials, maxGenes);
+    }
+
+    private static List<RankedGene> merge(final List<List<RankedGene>> partials, final Integer maxGenes) {
+        final int[] positions = new int[partials.size()];
+        final List<RankedGene> result = new ArrayList<>();
+
+        while (maxGenes == null || result.size() < maxGenes) {
+            int best = -1;
+            for (int i = 0; i < partials.size(); ++i) {
+                if (positions[i] >= partials.get(i).size())
+                    continue;
+
+                if (best < 0 || comparePlausibility(partials.get(i).get(positions[i]), partials.get(best).get(positions[best])) < 0)
+                    best = i;
+            }
+
+            if (best < 0)
+                break;
+
+            result.add(partials.get(best).get(positions[best]++));
+        }
+
+        return result;
+    }
+
+    @Override
+    public List<String> rankGenes(final Set<String> phenotypes, final Integer maxGenes) {
+        final List<String> result = new ArrayList<>();
+        for (final RankedGene gene : prioritize(phenotypes, maxGenes))
+            result.add(gene.gene());
+
+        return result;
+    }
+
+    // the same input and output file format as Classifier.prioritize(testFileName, resultFileName, ...)
+    public void prioritize(final String testFileName,
+                           final String resultFileName,
+                           final Integer maxGenes,
+                           final String geneIdType) {
+        if (getCanonicalPath(testFileName).equals(getCanonicalPath(resultFileName)))
+            throw new RuntimeException("input [" + testFileName + "] and output file [" + resultFileName +
+                    "] for prioritization must not be the same");
+
+        fileWriter(resultFileName, f ->
+            fileLineReader(testFileName, (lineNo, row) -> {
+                final String[] columns = row.split("\\t");
+                if (columns.length < 2)
+                    throw new RuntimeException("Illegal number of columns: " + row);
+
+                f.write(columns[0] + "\t");
+
+                final Set<String> phenotypes = new HashSet<>(Arrays.asList(Arrays.copyOfRange(columns, 1, columns.length)));
+                for (final String gene : rankGenes(phenotypes, maxGenes))
+                    f.write("\t" + ("H".equals(geneIdType) ? toHugo(gene) : toEntrez(gene)));
+
+                f.newLine();
+            })
+        );
+    }
+
+    // stops spawned workers and closes connections
+    @Override
+    public void close() {
+        for (final Connection worker : workers)
+            worker.close(!processes.isEmpty());
+
+        if (executor != null)
+            executor.shutdownNow();
+
+        for (final Process process : processes)
+            process.destroy();
+    }
+
+    private static class Connection
+    {
+        private final Socket         socket;
+        private final BufferedReader in;
+        private final BufferedWriter out;
+
+        Connection(final InetSocketAddress address) {
+            try {
+                socket = new Socket(address.getAddress(), address.getPort());
+                in     = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+                out    = new BufferedWriter(new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8));
+            }
+            catch (IOException e) {
+                throw new RuntimeException("Error connecting shard worker " + address + ": " + e.getMessage());
+            }
+        }
+
+        synchronized List<RankedGene> top(final String request) throws IOException {
+            out.write(request);
+            out.newLine();
+            out.flush();
+
+            final String header = in.readLine();
+            if (header == null || header.startsWith(ShardWorker.ERROR))
+                throw new IOException(header == null ? "connection closed" : header);
+
+            final int              n      = Integer.parseInt(header.trim());
+            final List<RankedGene> result = new ArrayList<>(n);
+            for (int i = 0; i < n; ++i) {
+                final String[] columns = in.readLine().split("\t");
+                result.add(new RankedGene(columns[0], Double.parseDouble(columns[1]), Integer.parseInt(columns[2])));
+            }
+
+            return result;
+        }
+
+        synchronized void close(final boolean shutdown) {
+            try {
+                out.write(shutdown ? ShardWorker.SHUTDOWN : ShardWorker.QUIT);
+                out.newLine();
+                out.flush();
+                socket.close();
+            }
+            catch (IOException e) {
+                // worker already gone
+            }
+        }
+    }
+}
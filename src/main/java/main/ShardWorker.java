@@ -0,0 +1,114 @@
+package main;
+
+import java.io.*;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+/*
+    Worker process serving gene prioritization of a single gene shard on a local socket.
+
+    Protocol (UTF-8 text, one request per line, tab separated):
+        TOP <k> <phenotype> ...   top k genes of the shard (k == 0: all genes); response is a line with the number
+                                  of genes n followed by n lines: Entrez id, plausibility, gene frequency
+        QUIT                      closes the connection
+        SHUTDOWN                  stops the worker
+
+    Plausibilities are written with Double.toString, which reads back to exactly the same double value.
+ */
+public class ShardWorker
+{
+    public static final String READY    = "READY";
+    public static final String TOP      = "TOP";
+    public static final String QUIT     = "QUIT";
+    public static final String SHUTDOWN = "SHUTDOWN";
+    public static final String ERROR    = "ERROR";
+
+    private final Classifier classifier;
+
+    public ShardWorker(final Classifier classifier) {
+        this.classifier = classifier;
+    }
+
+    // serves on loopback port (0: any free port); "READY <port>" is written to out once the worker accepts requests
+    public void serve(final int port, final PrintStream out) {
+        try (final ServerSocket server = new ServerSocket(port, 50, InetAddress.getLoopbackAddress())) {
+            out.println(READY + " " + server.getLocalPort());
+            out.flush();
+
+            while (!server.isClosed()) {
+                final Socket socket;
+                try {
+                    socket = server.accept();
+                }
+                catch (IOException e) {
+                    if (server.isClosed())
+                        return;
+                    throw e;
+                }
+
+                final Thread thread = new Thread(() -> handle(socket, server));
+                thread.setDaemon(true);
+                thread.start();
+            }
+        }
+        catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private void handle(final Socket socket, final ServerSocket server) {
+        try (final Socket s = socket;
+             final BufferedReader in  = new BufferedReader(new InputStreamReader(s.getInputStream(), StandardCharsets.UTF_8));
+             final BufferedWriter out = new BufferedWriter(new OutputStreamWriter(s.getOutputStream(), StandardCharsets.UTF_8))) {
+
+            String request;
+            while ((request = in.readLine()) != null) {
+                final String[] columns = request.split("\t");
+
+                switch (columns[0]) {
+                    case TOP      : top(columns, out);
+                                    break;
+
+                    case QUIT     : return;
+
+                    case SHUTDOWN : server.close();
+                                    return;
+
+                    default       : out.write(ERROR + "\tunknown request " + columns[0]);
+                                    out.newLine();
+                }
+                out.flush();
+            }
+        }
+        catch (IOException e) {
+            System.err.println("Shard worker connection error: " + e.getMessage());
+        }
+    }
+
+    private void top(final String[] columns, final BufferedWriter out) throws IOException {
+        if (columns.length < 2 || !Utils.isInteger(columns[1])) {
+            out.write(ERROR + "\tillegal " + TOP + " request");
+            out.newLine();
+            return;
+        }
+
+        final int         k          = Integer.parseInt(columns[1]);
+        final Set<String> phenotypes = new HashSet<>(Arrays.asList(columns).subList(2, columns.length));
+
+        final Prioritization prioritization = classifier.prioritize(phenotypes, k == 0 ? null : k);
+        final int            n              = k == 0 ? prioritization.size() : Math.min(k, prioritization.size());
+
+        out.write(String.valueOf(n));
+        out.newLine();
+        for (int rank = 0; rank < n; ++rank) {
+            out.write(prioritization.gene(rank) + "\t" + prioritization.plausibility(rank) + "\t" +
+                      classifier.counts().geneFreq(prioritization.geneIndex(rank)));
+            out.newLine();
+        }
+    }
+}
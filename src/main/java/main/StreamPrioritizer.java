@@ -0,0 +1,107 @@
+package main;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+import static main.Utils.*;
+
+/*
+    Gene prioritization of patients read from a stream as they arrive, one patient per line:
+        patientId <TAB> phenotype <TAB> phenotype ...
+
+    Every input line is answered with one output line that is flushed immediately, so a single warm process
+    can sit in a Unix pipeline or behind a named pipe and replies can be matched to requests by position. Output formats:
+        tsv  - the same layout as the -p output file; a blank input line is answered with an empty line
+        json - JSON lines: {"id": "...", "genes": ["...", ...]}; malformed (also blank) input lines produce {"id": "...", "error": "..."}
+ */
+public class StreamPrioritizer
+{
+    public static final String TSV  = "tsv";
+    public static final String JSON = "json";
+
+    private final GeneRanker ranker;
+    private final Integer    maxGenes;
+    private final String     geneIdType;
+    private final String     format;
+
+    public StreamPrioritizer(final GeneRanker ranker, final Integer maxGenes, final String geneIdType, final String format) {
+        if (!TSV.equals(format) && !JSON.equals(format))
+            throw new IllegalArgumentException("unknown output format " + format);
+
+        this.ranker     = ranker;
+        this.maxGenes   = maxGenes;
+        this.geneIdType = geneIdType;
+        this.format     = format;
+    }
+
+    // returns number of answered patients
+    public int run(final InputStream in, final OutputStream out) {
+        int patients = 0;
+
+        try (final BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+             final BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8))) {
+
+            // readLine blocks until the next patient arrives; ready() must not be used here
+            String row;
+            while ((row = reader.readLine()) != null) {
+                final boolean blank = row.trim().isEmpty();
+
+                writer.write(blank ? blankAnswer() : answer(row.split("\t")));
+                writer.newLine();
+                writer.flush();
+
+                if (!blank)
+                    ++patients;
+            }
+        }
+        catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+
+        return patients;
+    }
+
+    // answer to a blank input line, which keeps replies in step with input lines
+    private String blankAnswer() {
+        return JSON.equals(format) ? "{\"id\": \"\", \"error\": \"blank line\"}" : "";
+    }
+
+    private String answer(final String[] columns) {
+        final String patientId = columns[0].trim();
+
+        if (columns.length < 2) {
+            System.err.println("No phenotypes for patient " + patientId);
+            return JSON.equals(format) ? "{\"id\": " + jsonString(patientId) + ", \"error\": \"no phenotypes\"}"
+                                       : patientId + "\t";
+        }
+
+        final Set<String> phenotypes = new HashSet<>();
+        for (int i = 1; i < columns.length; ++i)
+            phenotypes.add(columns[i].trim());
+
+        // genes and their ids of one model, also if the model is reloaded meanwhile
+        final GeneRanker   model = ranker.snapshot();
+        final List<String> genes = model.rankGenes(phenotypes, maxGenes);
+
+        final StringBuilder result = new StringBuilder();
+        result.append(JSON.equals(format) ? "{\"id\": " + jsonString(patientId) + ", \"genes\": [" : patientId + "\t");
+
+        for (int i = 0; i < genes.size(); ++i) {
+            if (maxGenes != null && i >= maxGenes)
+                break;
+
+            final String gene = genes.get(i);
+            final String id = model.geneId(gene, geneIdType);
+            if (JSON.equals(format))
+                result.append(i == 0 ? "" : ", ").append(jsonString(String.valueOf(id)));
+            else
+                result.append('\t').append(id);
+        }
+
+        if (JSON.equals(format))
+            result.append("]}");
+
+        return result.toString();
+    }
+}
@@ -0,0 +1,212 @@
+package main;
+
+import java.io.File;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.stream.IntStream;
+
+import static main.Utils.*;
+
+/*
+    Hyperparameter sweep: a model trained once is tested (as with -t) on a grid of settings in a single pass over
+    the test file. Phenotype columns of the model are read once per batch of patients and shared by all settings;
+    patients are evaluated in parallel.
+
+    Settings:
+        clip      evidence of unobserved (phenotype, gene) pairs is -clip; evidence of a phenotype observed only
+                  with the gene is +clip (Classifier.CLIP_EVIDENCE)
+        smoothing pseudo-count alpha added to freq(phenotype | gene) and freq(phenotype | other genes) of observed
+                  pairs: 10 log10((freq(phenotype | gene) + alpha) / (freq(phenotype | other genes) + alpha))
+        prior     weight w of gene prior odds 10 log10(freq(gene) / (freq("") - freq(gene))) added to the gene score;
+                  prior odds are smoothed as evidence
+
+    Setting clip 30, smoothing 0 and prior 0 is the model of Classifier; its ranks are exactly the same as of -t.
+ */
+public class Sweep
+{
+    private final Classifier classifier;
+    private final Counts     counts;
+    private final Setting[]  settings;
+
+    public Sweep(final Classifier classifier, final double[] clips, final double[] smoothings, final double[] priors) {
+        this.classifier = classifier;
+        this.counts     = classifier.counts();
+
+        final List<Setting> result = new ArrayList<>();
+        for (final double clip : clips)
+            for (final double smoothing : smoothings)
+                for (final double prior : priors)
+                    result.add(new Setting(clip, smoothing, prior));
+
+        settings = result.toArray(new Setting[0]);
+    }
+
+    public static class Setting
+    {
+        private final double clip;
+        private final double smoothing;
+        private final double prior;
+
+        Setting(final double clip, final double smoothing, final double prior) {
+            if (clip < 0 || smoothing < 0)
+                throw new RuntimeException("clip and smoothing values must not be negative");
+
+            this.clip      = clip;
+            this.smoothing = smoothing;
+            this.prior     = prior;
+        }
+
+        public double clip()      { return clip;      }
+        public double smoothing() { return smoothing; }
+        public double prior()     { return prior;     }
+
+        public String name() {
+            return "clip" + format(clip) + "_smoothing" + format(smoothing) + "_prior" + format(prior);
+        }
+
+        private static String format(final double value) {
+            return value == Math.rint(value) ? String.valueOf((long) value) : String.valueOf(value);
+        }
+
+        // the same value as Classifier.evidenceFromFreq for clip 30 and smoothing 0
+        double evidence(final int phenotypeGeneFreq, final int phenotypeFreq) {
+            if (phenotypeGeneFreq == 0)
+                return -clip;
+
+            final int phenotypeOtherGenesFreq = phenotypeFreq - phenotypeGeneFreq;
+            if (phenotypeOtherGenesFreq == 0 && smoothing == 0)
+                return clip;
+
+            return 10. * Math.log10((phenotypeGeneFreq + smoothing) / (phenotypeOtherGenesFreq + smoothing));
+        }
+    }
+
+    public List<Setting> settings() { return Collections.unmodifiableList(Arrays.asList(settings)); }
+
+    /*
+        Tests all settings on the test file (-t file format); writes a top % table (the same format as -t output)
+        for every setting and a summary table sweep.tsv into directory. Returns rank frequencies by setting.
+     */
+    public List<Map<Integer, Integer>> test(final String testFileName, final String directory, final Integer maxGenes) {
+        final AtomicIntegerArray[] freq = new AtomicIntegerArray[settings.length];
+        for (int s = 0; s < settings.length; ++s)
+            freq[s] = new AtomicIntegerArray(counts.geneCount() + 1);
+
+        final double[][] priors = priors();
+
+        final List<String[]> rows = new ArrayList<>();
+        fileLineReader(testFileName, (lineNo, row) -> {
+            rows.add(row.split("\\t"));
+            if (rows.size() >= 1024) {
+                testBatch(rows, priors, freq);
+                rows.clear();
+            }
+        });
+        testBatch(rows, priors, freq);
+
+        final List<Map<Integer, Integer>> result = new ArrayList<>();
+        for (final AtomicIntegerArray settingFreq : freq) {
+            final Map<Integer, Integer> map = new HashMap<>();
+            for (int rank = 0; rank < settingFreq.length(); ++rank)
+                if (settingFreq.get(rank) > 0)
+                    map.put(rank, settingFreq.get(rank));
+            result.add(map);
+        }
+
+        write(directory, maxGenes, result);
+        return result;
+    }
+
+    // gene prior odds of every setting with prior != 0
+    private double[][] priors() {
+        final double[][] result = new double[settings.length][];
+        for (int s = 0; s < settings.length; ++s) {
+            if (settings[s].prior == 0)
+                continue;
+
+            result[s] = new double[counts.geneCount()];
+            for (int i = 0; i < result[s].length; ++i)
+                result[s][i] = settings[s].prior * settings[s].evidence(counts.geneFreq(i), counts.cases());
+        }
+
+        return result;
+    }
+
+    private void testBatch(final List<String[]> rows, final double[][] priors, final AtomicIntegerArray[] freq) {
+        // phenotype columns shared by patients of the batch and all settings
+        final Map<Integer, int[][]> columns = new HashMap<>();
+
+        final int[]   genes             = new int[rows.size()];
+        final int[][] patientPhenotypes = new int[rows.size()][];
+        for (int p = 0; p < rows.size(); ++p) {
+            final String[] columnValues = rows.get(p);
+            if (columnValues.length < 3)
+                throw new RuntimeException("Illegal number of columns: " + String.join("\t", columnValues));
+
+            final String gene = classifier.context().lexicon().entrez(columnValues[1]);
+            if (gene == null)
+                System.out.println("Illegal or unknown gene Id " + columnValues[1] + " (check the content of gene lexicon file: " + classifier.context().lexicon().source() + ")");
+
+            genes[p]             = gene == null ? -1 : classifier.geneIndex(gene);
+            patientPhenotypes[p] = classifier.phenotypeIds(new HashSet<>(Arrays.asList(columnValues).subList(2, columnValues.length)));
+
+            for (final int phenotypeId : patientPhenotypes[p])
+                columns.computeIfAbsent(phenotypeId, id -> new int[][]{ counts.columnGenes(id), counts.columnCounts(id), { counts.columnTotal(id) } });
+        }
+
+        final ThreadLocal<double[]> buffers = ThreadLocal.withInitial(() -> new double[counts.geneCount()]);
+
+        IntStream.range(0, rows.size()).parallel().forEach(p -> {
+            final double[] scores = buffers.get();
+
+            for (int s = 0; s < settings.length; ++s) {
+                final Setting setting = settings[s];
+
+                // summed in the same order as Classifier.prioritize(phenotypes)
+                Arrays.fill(scores, .0);
+                for (final int phenotypeId : patientPhenotypes[p]) {
+                    final int[][] column       = columns.get(phenotypeId);
+                    final int[]   columnGenes  = column[0];
+                    final int[]   columnCounts = column[1];
+                    final int     columnTotal  = column[2][0];
+
+                    int k = 0;
+                    for (int i = 0; i < scores.length; ++i) {
+                        if (k < columnGenes.length && columnGenes[k] == i)
+                            scores[i] += setting.evidence(columnCounts[k++], columnTotal);
+                        else
+                            scores[i] += -setting.clip;
+                    }
+                }
+
+                if (priors[s] != null)
+                    for (int i = 0; i < scores.length; ++i)
+                        scores[i] += priors[s][i];
+
+                freq[s].incrementAndGet(classifier.rankOf(genes[p], scores, 0));
+            }
+        });
+    }
+
+    private void write(final String directory, final Integer maxGenes, final List<Map<Integer, Integer>> freq) {
+        createDirectoriesForFile(new File(directory, "sweep.tsv"));
+
+        for (int s = 0; s < settings.length; ++s) {
+            final Map<Integer, Integer> settingFreq = freq.get(s);
+            fileWriter(directory + File.separator + settings[s].name() + ".tsv", f -> Classifier.writeTop(f, settingFreq, maxGenes));
+        }
+
+        fileWriter(directory + File.separator + "sweep.tsv", f -> {
+            f.write("clip\tsmoothing\tprior\ttop 1 %\ttop 3 %\ttop 10 %\ttop 100 %");
+            f.newLine();
+
+            for (int s = 0; s < settings.length; ++s) {
+                final Map<Integer, Integer> settingFreq = freq.get(s);
+                f.write(String.format(Locale.US, "%s\t%s\t%s\t%.2f\t%.2f\t%.2f\t%.2f",
+                        Setting.format(settings[s].clip), Setting.format(settings[s].smoothing), Setting.format(settings[s].prior),
+                        Classifier.top(1, settingFreq), Classifier.top(3, settingFreq), Classifier.top(10, settingFreq), Classifier.top(100, settingFreq)));
+                f.newLine();
+            }
+        });
+    }
+}
@@ -0,0 +1,47 @@
+package main;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/*
+    Intern table mapping string ids (HPO codes, Entrez gene ids) to dense int ids.
+    Ids are never removed, so an id handed out once stays valid for the lifetime of the table
+    and can be shared by all models built on the same ModelContext.
+ */
+public class SymbolTable
+{
+    public static final int UNKNOWN = -1;
+
+    private final Map<String, Integer> ids = new ConcurrentHashMap<>();
+    private volatile String[]          symbols = new String[1024];
+    private volatile int               size = 0;
+
+    public SymbolTable() {}
+
+    public synchronized int intern(final String symbol) {
+        final Integer id = ids.get(symbol);
+        if (id != null)
+            return id;
+
+        if (size == symbols.length)
+            symbols = Arrays.copyOf(symbols, 2 * size);
+
+        symbols[size] = symbol;
+        ids.put(symbol, size);
+        return size++;
+    }
+
+    public int id(final String symbol) {
+        final Integer id = ids.get(symbol);
+        return id == null ? UNKNOWN : id;
+    }
+
+    public String symbol(final int id) {
+        if (id < 0 || id >= size)
+            throw new IllegalArgumentException("unknown symbol id " + id);
+        return symbols[id];
+    }
+
+    public int size() { return size; }
+}
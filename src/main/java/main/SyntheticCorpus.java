@@ -0,0 +1,122 @@
+package main;
+
+import java.util.*;
+
+import static main.Utils.*;
+
+/*
+    Generator of synthetic but realistically shaped WA data files:
+        - gene frequencies and phenotype frequencies follow Zipf distributions
+        - every gene has its own characteristic phenotypes; a case is a mix of the phenotypes of its gene
+          and of phenotypes drawn from the global phenotype distribution (noise)
+
+    Genes are taken from the gene lexicon and phenotypes from the HPO ontology, so generated files can be
+    used for training (-L), prioritization (-p) and testing (-t) without any conversion.
+ */
+public class SyntheticCorpus
+{
+    private static final int    MIN_PHENOTYPES      = 3;  // per case
+    private static final int    MAX_PHENOTYPES      = 15; // per case
+    private static final int    GENE_PHENOTYPES     = 25; // characteristic phenotypes per gene
+    private static final double NOISE_PROBABILITY   = .2; // probability of a phenotype not characteristic for the gene
+
+    private final String[] genes;
+    private final String[] phenotypes;
+    private final Zipf     geneDistribution;
+    private final Zipf     phenotypeDistribution;
+    private final int[][]  genePhenotypes;
+
+    public SyntheticCorpus(final Hpo hpo, final Collection<String> entrezIds, final int geneCount, final double zipfExponent, final long seed) {
+        final Random random = new Random(seed);
+
+        // deterministic order before shuffling, so that equal seeds give equal corpora
+        final List<String> geneList = new ArrayList<>(new TreeSet<>(entrezIds));
+        Collections.shuffle(geneList, random);
+        genes = geneList.subList(0, Math.min(geneCount, geneList.size())).toArray(new String[0]);
+        if (genes.length == 0)
+            throw new RuntimeException("no genes available for synthetic corpus (check the content of gene lexicon file: " + GeneLexicon.loadedFrom() + ")");
+
+        final List<String> phenotypeList = new ArrayList<>(new TreeSet<>(hpo.ids()));
+        phenotypeList.remove(hpo.get().id());
+        Collections.shuffle(phenotypeList, random);
+        phenotypes = phenotypeList.toArray(new String[0]);
+
+        geneDistribution      = new Zipf(genes.length, zipfExponent);
+        phenotypeDistribution = new Zipf(phenotypes.length, zipfExponent);
+
+        genePhenotypes = new int[genes.length][GENE_PHENOTYPES];
+        for (final int[] characteristic : genePhenotypes)
+            for (int j = 0; j < characteristic.length; ++j)
+                characteristic[j] = phenotypeDistribution.next(random);
+    }
+
+    public int geneCount() { return genes.length; }
+
+    // cases in test (-t) and training (-L) file format: case id, gene, phenotypes
+    public void writeCases(final String fileName, final String idPrefix, final int cases, final long seed) {
+        final Random random = new Random(seed);
+
+        fileWriter(fileName, f -> {
+            for (int i = 0; i < cases; ++i) {
+                final int gene = geneDistribution.next(random);
+
+                f.write(idPrefix + i + "\tEntrez:" + genes[gene]);
+                for (final String phenotype : casePhenotypes(gene, random))
+                    f.write("\t" + phenotype);
+                f.newLine();
+            }
+        });
+    }
+
+    // test file converted to prioritization (-p) file format: patient id, phenotypes
+    public static void writePatients(final String casesFileName, final String fileName) {
+        fileWriter(fileName, f ->
+            fileLineReader(casesFileName, (lineNo, row) -> {
+                final String[] columns = row.split("\\t");
+
+                f.write(columns[0]);
+                for (int i = 2; i < columns.length; ++i)
+                    f.write("\t" + columns[i]);
+                f.newLine();
+            })
+        );
+    }
+
+    private Set<String> casePhenotypes(final int gene, final Random random) {
+        final int         n      = MIN_PHENOTYPES + random.nextInt(MAX_PHENOTYPES - MIN_PHENOTYPES + 1);
+        final Set<String> result = new LinkedHashSet<>();
+
+        for (int attempt = 0; result.size() < n && attempt < 10 * n; ++attempt) {
+            final int phenotype = random.nextDouble() < NOISE_PROBABILITY
+                                    ? phenotypeDistribution.next(random)
+                                    : genePhenotypes[gene][random.nextInt(GENE_PHENOTYPES)];
+            result.add(phenotypes[phenotype]);
+        }
+
+        return result;
+    }
+
+    // Zipf distributed ranks 0 .. n - 1
+    private static class Zipf
+    {
+        private final double[] cdf;
+
+        Zipf(final int n, final double exponent) {
+            cdf = new double[n];
+
+            double sum = .0;
+            for (int i = 0; i < n; ++i) {
+                sum   += 1. / Math.pow(i + 1, exponent);
+                cdf[i] = sum;
+            }
+
+            for (int i = 0; i < n; ++i)
+                cdf[i] /= sum;
+        }
+
+        int next(final Random random) {
+            final int i = Arrays.binarySearch(cdf, random.nextDouble());
+            return Math.min(cdf.length - 1, i < 0 ? -i - 1 : i);
+        }
+    }
+}
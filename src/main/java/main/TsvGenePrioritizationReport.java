@@ -0,0 +1,107 @@
+package main;
+
+import java.util.Locale;
+
+import static main.Utils.*;
+
+// tab separated gene and disorder prioritization reports; kept apart from ExcelGenePrioritizationReport so it does not load POI
+public class TsvGenePrioritizationReport
+{
+    public TsvGenePrioritizationReport() {}
+
+    public void tsvReport(final Prioritization prioritization,
+                          final Integer maxEntries,
+                          final String geneIdType,
+                          final String fileName) {
+        final Hpo         hpo        = prioritization.classifier().context().hpo();
+        final GeneLexicon lexicon    = prioritization.classifier().context().lexicon();
+        final String[]    phenotypes = prioritization.phenotypes();
+
+        fileWriter(fileName, f -> {
+            int i = 0;
+
+            // header
+            for (final String phenotype : phenotypes) {
+                f.write("!\t" + phenotype + " " + hpo.get(phenotype).name());
+                f.newLine();
+            }
+
+            f.write("#");
+            for (final String phenotype: phenotypes) {
+                f.write("\t" + phenotype);
+            }
+            f.write("\tgene\tall values in dB");
+            f.newLine();
+
+            for (int rank = 0; rank < prioritization.size(); ++rank) {
+                if (maxEntries != null && i >= maxEntries)
+                    break;
+
+                final double[] plausibilities = prioritization.plausibilityByPhenotype(rank);
+
+                f.write(String.valueOf(++i));
+                for (int j = 0; j < phenotypes.length; ++j) {
+                    f.write("\t" + String.format(Locale.US, "%,.1f", plausibilities[j]));
+                }
+
+                final String gene = prioritization.gene(rank);
+                f.write("\t" + lexicon.format(gene, geneIdType));
+
+                f.newLine();
+            }
+        });
+    }
+
+    // top disorders; phenotype columns are plausibilities of the most plausible gene of the disorder
+    public void tsvReport(final DisorderPrioritization prioritization,
+                          final Integer maxEntries,
+                          final String geneIdType,
+                          final String fileName) {
+        final Prioritization genes      = prioritization.genes();
+        final Hpo            hpo        = genes.classifier().context().hpo();
+        final GeneLexicon    lexicon    = genes.classifier().context().lexicon();
+        final String[]       phenotypes = genes.phenotypes();
+
+        fileWriter(fileName, f -> {
+            // header
+            for (final String phenotype : phenotypes) {
+                f.write("!\t" + phenotype + " " + hpo.get(phenotype).name());
+                f.newLine();
+            }
+
+            f.write("#");
+            for (final String phenotype: phenotypes) {
+                f.write("\t" + phenotype);
+            }
+            f.write("\tdisorder\tscore\tgenes\tall values in dB");
+            f.newLine();
+
+            for (int rank = 0; rank < prioritization.size(); ++rank) {
+                if (maxEntries != null && rank >= maxEntries)
+                    break;
+
+                final double[] plausibilities = prioritization.plausibilityByPhenotype(rank);
+
+                f.write(String.valueOf(rank + 1));
+                for (int j = 0; j < phenotypes.length; ++j) {
+                    f.write("\t" + String.format(Locale.US, "%,.1f", plausibilities[j]));
+                }
+
+                f.write("\t" + prioritization.disorder(rank));
+                f.write("\t" + String.format(Locale.US, "%,.1f", prioritization.score(rank)));
+                f.write("\t" + disorderGenes(prioritization, rank, lexicon, geneIdType));
+
+                f.newLine();
+            }
+        });
+    }
+
+    // comma separated genes of disorder at rank in gene rank order
+    static String disorderGenes(final DisorderPrioritization prioritization, final int rank, final GeneLexicon lexicon, final String geneIdType) {
+        final StringBuilder result = new StringBuilder();
+        for (int j = 0; j < prioritization.geneCount(rank); ++j)
+            result.append(j == 0 ? "" : ",").append(lexicon.format(prioritization.gene(rank, j), geneIdType));
+
+        return result.toString();
+    }
+}
@@ -138,6 +138,44 @@ public class Utils
         return s;
     }
 
+    // string as a JSON string literal
+    public static String jsonString(final String s) {
+        final StringBuilder result = new StringBuilder(s.length() + 2).append('"');
+
+        for (int i = 0; i < s.length(); ++i) {
+            final char c = s.charAt(i);
+            switch (c) {
+                case '"'  : result.append("\\\""); break;
+                case '\\' : result.append("\\\\"); break;
+                case '\n' : result.append("\\n");  break;
+                case '\r' : result.append("\\r");  break;
+                case '\t' : result.append("\\t");  break;
+                default   : if (c < 0x20)
+                                result.append(String.format("\\u%04x", (int) c));
+                            else
+                                result.append(c);
+            }
+        }
+
+        return result.append('"').toString();
+    }
+
+    // tokens of file separated by white space, commas or semicolons; lines starting with # are comments
+    public static List<String> fileTokens(final String fileName) {
+        final List<String> result = new ArrayList<>();
+
+        fileLineReader(fileName, (lineNo, row) -> {
+            if (row.trim().startsWith("#"))
+                return;
+
+            for (final String token : row.split("[\\s,;]+"))
+                if (!token.isEmpty())
+                    result.add(token);
+        });
+
+        return result;
+    }
+
     public static boolean fileExists(final String fileName) {
         try {
             File f = new File(fileName);
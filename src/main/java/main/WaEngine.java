@@ -0,0 +1,191 @@
+package main;
+
+import java.io.InputStream;
+import java.util.*;
+
+/*
+    Embeddable gene prioritization engine. An engine is built once from explicit files, streams or a prebuilt
+    model (see Builder), is immutable afterwards and can be queried from many threads at once; queries do not
+    touch the filesystem.
+
+        WaEngine engine = WaEngine.builder()
+                                  .hpo("/opt/wa/hpo.csv")
+                                  .geneInfo("/opt/wa/Homo_sapiens.gene_info")
+                                  .learningFile("/opt/wa/cases/cada-train.tsv")
+                                  .build();
+
+        Prioritization prioritization = engine.prioritize(phenotypes, 10);
+ */
+public final class WaEngine implements GeneRanker
+{
+    private final Classifier    classifier;
+    private final DisorderIndex disorders; // null if no disorder-gene data was given
+
+    private WaEngine(final Classifier classifier, final DisorderIndex disorders) {
+        this.classifier = classifier;
+        this.disorders  = disorders;
+    }
+
+    public static Builder builder() { return new Builder(); }
+
+    public Classifier  model()   { return classifier;                     }
+    public Hpo         hpo()     { return classifier.context().hpo();     }
+    public GeneLexicon lexicon() { return classifier.context().lexicon(); }
+
+    // top maxGenes genes (all genes if maxGenes is null)
+    public Prioritization prioritize(final Set<String> phenotypes, final Integer maxGenes) {
+        return classifier.prioritize(phenotypes, maxGenes);
+    }
+
+    // top maxGenes genes of the panel (Hugo or Entrez ids); scores are the same as in prioritization of all genes
+    public Prioritization prioritize(final Set<String> phenotypes, final Integer maxGenes, final Collection<String> panel) {
+        return classifier.prioritize(phenotypes, maxGenes, panel);
+    }
+
+    @Override
+    public List<String> rankGenes(final Set<String> phenotypes, final Integer maxGenes) {
+        return classifier.rankGenes(phenotypes, maxGenes);
+    }
+
+    public List<Prioritization> prioritizeBatch(final List<Set<String>> patients) {
+        return classifier.prioritizeBatch(patients);
+    }
+
+    // top maxGenes genes (all genes if maxGenes is null) of every patient of a batch
+    public List<Prioritization> prioritizeBatch(final List<Set<String>> patients, final Integer maxGenes) {
+        return classifier.prioritizeBatch(patients, maxGenes);
+    }
+
+    // rank (1 = best) of gene (Hugo or Entrez id); 0 if the gene is unknown or not in the model
+    public int rankOf(final String gene, final Set<String> phenotypes) {
+        final String entrezId = lexicon().entrez(gene);
+        return entrezId == null ? 0 : classifier.rankOf(entrezId, phenotypes);
+    }
+
+    // interactive prioritization of a patient edited one phenotype at a time; a session is used by a single thread
+    public Session session(final Set<String> phenotypes) {
+        return new Session(classifier, phenotypes);
+    }
+
+    // top maxDisorders disorders (all disorders if maxDisorders is null); see DisorderIndex
+    public DisorderPrioritization prioritizeDisorders(final Set<String> phenotypes,
+                                                      final Integer maxDisorders,
+                                                      final DisorderIndex.Aggregation aggregation) {
+        if (disorders == null)
+            throw new IllegalStateException("engine was built without disorder-gene data");
+
+        return disorders.prioritize(classifier.prioritize(phenotypes), maxDisorders, aggregation);
+    }
+
+    // gene id in output format: H (Hugo id) or E (Entrez id)
+    public String geneId(final String gene, final String geneIdType) {
+        return lexicon().format(gene, geneIdType);
+    }
+
+    public static class Builder
+    {
+        private Hpo                      hpo           = null;
+        private GeneLexicon              lexicon       = null;
+        private Classifier               model         = null;
+        private Counts.Builder           countsBuilder = null;
+        private final List<LearningData> learningData  = new ArrayList<>();
+        private LearningData             disorderGenes = null;
+
+        private Builder() {}
+
+        public Builder hpo(final String fileName)                     { hpo = new Hpo(fileName);            return this; }
+        public Builder hpo(final InputStream in, final String source) { hpo = new Hpo(in, source);          return this; }
+        public Builder hpo(final Hpo hpo)                             { this.hpo = hpo;                     return this; }
+
+        public Builder geneInfo(final String fileName)                     { lexicon = new GeneLexicon(fileName);   return this; }
+        public Builder geneInfo(final InputStream in, final String source) { lexicon = new GeneLexicon(in, source); return this; }
+        public Builder lexicon(final GeneLexicon lexicon)                  { this.lexicon = lexicon;                return this; }
+
+        // learning file; can be used multiple times, learning files are collated
+        public Builder learningFile(final String fileName) {
+            learningData.add(new LearningData(Utils.getCanonicalPath(fileName), null));
+            return this;
+        }
+
+        // learning data in learning file format; the stream is read and closed by build()
+        public Builder learningData(final InputStream in, final String source) {
+            learningData.add(new LearningData(source, in));
+            return this;
+        }
+
+        // disorder-gene file (see DisorderIndex) for disorder prioritization
+        public Builder disorderGenes(final String fileName) {
+            disorderGenes = new LearningData(fileName, null);
+            return this;
+        }
+
+        // disorder-gene data; the stream is read and closed by build()
+        public Builder disorderGenes(final InputStream in, final String source) {
+            disorderGenes = new LearningData(source, in);
+            return this;
+        }
+
+        // counts storage of trained models (default: on-heap CountTable)
+        public Builder counts(final Counts.Builder countsBuilder) {
+            this.countsBuilder = countsBuilder;
+            return this;
+        }
+
+        // prebuilt model; its context provides the ontology and the gene lexicon
+        public Builder model(final Classifier model) {
+            this.model = model;
+            return this;
+        }
+
+        // file (in == null) or stream
+        private static class LearningData
+        {
+            final String      source;
+            final InputStream in;
+
+            LearningData(final String source, final InputStream in) {
+                this.source = source;
+                this.in     = in;
+            }
+        }
+
+        public WaEngine build() {
+            if (model != null) {
+                if (hpo != null || lexicon != null || !learningData.isEmpty() || countsBuilder != null)
+                    throw new IllegalStateException("a prebuilt model can not be combined with ontology, gene info or learning data");
+
+                return new WaEngine(model, disorders(model));
+            }
+
+            if (hpo == null)
+                throw new IllegalStateException("missing HPO ontology");
+            if (lexicon == null)
+                throw new IllegalStateException("missing gene info");
+            if (learningData.isEmpty())
+                throw new IllegalStateException("missing learning data");
+
+            final ModelContext   context = new ModelContext(hpo, lexicon);
+            final Counts.Builder counts  = countsBuilder == null ? new CountTable.Builder() : countsBuilder;
+
+            // filter out duplicate file names
+            final Set<String> fileNames = new LinkedHashSet<>();
+            for (final LearningData data : learningData) {
+                if (data.in != null)
+                    Classifier.loadCases(context, data.in, data.source, counts);
+                else if (fileNames.add(data.source))
+                    Classifier.loadFile(context, data.source, GeneShard.ALL, counts);
+            }
+
+            final Classifier classifier = new Classifier(context, counts.build());
+            return new WaEngine(classifier, disorders(classifier));
+        }
+
+        private DisorderIndex disorders(final Classifier classifier) {
+            if (disorderGenes == null)
+                return null;
+
+            return disorderGenes.in == null ? new DisorderIndex(classifier, disorderGenes.source)
+                                            : new DisorderIndex(classifier, disorderGenes.in, disorderGenes.source);
+        }
+    }
+}